@@ -0,0 +1,74 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.Checkpoint;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Writes and loads a checkpoint of warehouses * materials rows, 1M rows by default.
+// ./gradlew jmh -PjmhIncludes=CheckpointBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CheckpointBenchmark {
+
+    @Param({"100000"})
+    int warehouses;
+
+    @Param({"10"})
+    int materials;
+
+    @Param({"SYNCHRONIZED", "ATOMIC"})
+    MaterialStorage storage;
+
+    List<WarehouseImpl> fleet;
+    Path directory;
+    Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        MaterialType[] materialTypes = new MaterialType[materials];
+        for (int i = 0; i < materials; i++) {
+            materialTypes[i] = new MaterialType("Material " + i, "checkpoint material", "icon", 1_000_000);
+        }
+        fleet = new ArrayList<>(warehouses);
+        for (int i = 0; i < warehouses; i++) {
+            WarehouseImpl warehouse = new WarehouseImpl(storage);
+            for (int m = 0; m < materials; m++) {
+                warehouse.addMaterial(materialTypes[m], i + m + 1);
+            }
+            fleet.add(warehouse);
+        }
+        directory = Files.createTempDirectory("checkpoint-benchmark");
+        file = directory.resolve("fleet.bin");
+        Checkpoint.write(file, fleet);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        Checkpoint.write(file, fleet);
+    }
+
+    @Benchmark
+    public Map<Long, WarehouseImpl> load() throws IOException {
+        return Checkpoint.load(file, storage);
+    }
+}
@@ -0,0 +1,49 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseCommandQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Many producers adding to one warehouse, either straight through the warehouse's locks or through a
+// single-writer command queue that folds what piles up while it drains. Producers wait for their own
+// result, so the queue is measured with the hand-off and completion included.
+// ./gradlew jmh -PjmhIncludes=CommandQueueBenchmark
+// ./gradlew jmhScaling -PjmhThreadCounts=1,4,16,64 -PjmhScalingIncludes=CommandQueueBenchmark
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class CommandQueueBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Target {
+        @Param({"SYNCHRONIZED", "ATOMIC", "STRIPED"})
+        WarehouseBackend backend;
+
+        MaterialType materialType;
+        Warehouse warehouse;
+        WarehouseCommandQueue queue;
+
+        @Setup
+        public void setUp() {
+            materialType = new MaterialType("Material", "benchmark material", "icon", Long.MAX_VALUE / 2);
+            warehouse = backend.createFleet(1)[0];
+            queue = new WarehouseCommandQueue(warehouse);
+        }
+    }
+
+    @Benchmark
+    public long locking(Target target) {
+        return target.warehouse.addMaterial(target.materialType, 1);
+    }
+
+    @Benchmark
+    public long queued(Target target) {
+        return target.queue.addMaterial(target.materialType, 1).join();
+    }
+}
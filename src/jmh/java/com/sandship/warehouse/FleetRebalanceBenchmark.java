@@ -0,0 +1,73 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.FleetRebalancer;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Rebalances a randomly filled fleet to half of its capacity, serially through the plan's transfers
+// or in parallel with FleetRebalancer. The fleet is refilled before every run.
+// ./gradlew jmh -PjmhIncludes=FleetRebalanceBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FleetRebalanceBenchmark {
+    private static final long CAPACITY = 1_000_000;
+
+    @Param({"10000"})
+    int warehouses;
+
+    @Param({"SYNCHRONIZED", "ATOMIC"})
+    MaterialStorage storage;
+
+    MaterialType materialType;
+    List<Warehouse> fleet;
+    long[] initial;
+    FleetRebalancer rebalancer;
+
+    @Setup
+    public void setUp() {
+        materialType = new MaterialType("Material", "benchmark material", "icon", CAPACITY);
+        fleet = new ArrayList<>(warehouses);
+        initial = new long[warehouses];
+        Random random = new Random(1);
+        for (int i = 0; i < warehouses; i++) {
+            fleet.add(new WarehouseImpl(storage));
+            initial[i] = random.nextLong(CAPACITY);
+        }
+        rebalancer = new FleetRebalancer();
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        for (int i = 0; i < warehouses; i++) {
+            Warehouse warehouse = fleet.get(i);
+            warehouse.emptyAllMaterialTypes();
+            warehouse.addMaterial(materialType, initial[i]);
+        }
+    }
+
+    @Benchmark
+    public long serial() {
+        long moved = 0;
+        for (FleetRebalancer.Transfer transfer : rebalancer.plan(fleet, materialType, 0.5).getTransfers()) {
+            moved += transfer.source().putMaterialTo(transfer.destination(), materialType, transfer.quantity());
+        }
+        return moved;
+    }
+
+    @Benchmark
+    public long parallel() {
+        return rebalancer.rebalance(fleet, materialType, 0.5).movedQuantity();
+    }
+}
@@ -0,0 +1,92 @@
+package com.sandship.warehouse;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Runs benchmarks once per thread count with the GC profiler and prints one line per
+// benchmark, backend and thread count: throughput, latency percentiles and allocation per op.
+// Arguments: comma separated thread counts (default 1, 2, 4 ... up to the core count) and an include regex.
+public class HotPathBenchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        List<Integer> threadCounts = args.length > 0 && !args[0].isBlank() ? parseThreadCounts(args[0]) : defaultThreadCounts();
+        String include = args.length > 1 ? args[1] : WarehouseHotPathBenchmark.class.getSimpleName();
+        Map<String, Row> rows = new TreeMap<>();
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            for (RunResult result : new Runner(options).run()) {
+                BenchmarkParams params = result.getParams();
+                String benchmark = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+                String backend = params.getParam("backend");
+                Row row = rows.computeIfAbsent(String.format("%s %s %03d", benchmark, backend, threads),
+                        key -> new Row(benchmark, backend, threads));
+                Result allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+                if (allocation != null) row.bytesPerOp = allocation.getScore();
+                if (params.getMode() == Mode.Throughput) {
+                    row.opsPerMicrosecond = result.getPrimaryResult().getScore();
+                } else if (params.getMode() == Mode.SampleTime) {
+                    row.p50 = result.getPrimaryResult().getStatistics().getPercentile(50);
+                    row.p99 = result.getPrimaryResult().getStatistics().getPercentile(99);
+                    row.p999 = result.getPrimaryResult().getStatistics().getPercentile(99.9);
+                }
+            }
+        }
+        System.out.printf("%-28s %-14s %7s %12s %10s %10s %10s %10s%n",
+                "benchmark", "backend", "threads", "ops/us", "p50 us", "p99 us", "p99.9 us", "B/op");
+        for (Row row : rows.values()) {
+            System.out.printf("%-28s %-14s %7d %12.3f %10.3f %10.3f %10.3f %10.1f%n", row.benchmark, row.backend,
+                    row.threads, row.opsPerMicrosecond, row.p50, row.p99, row.p999, row.bytesPerOp);
+        }
+    }
+
+    private static List<Integer> parseThreadCounts(String value) {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String count : value.split(",")) {
+            threadCounts.add(Integer.parseInt(count.trim()));
+        }
+        return threadCounts;
+    }
+
+    private static List<Integer> defaultThreadCounts() {
+        List<Integer> threadCounts = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+        return threadCounts;
+    }
+
+    private static final class Row {
+        private final String benchmark;
+        private final String backend;
+        private final int threads;
+        private double opsPerMicrosecond = Double.NaN;
+        private double p50 = Double.NaN;
+        private double p99 = Double.NaN;
+        private double p999 = Double.NaN;
+        private double bytesPerOp = Double.NaN;
+
+        private Row(String benchmark, String backend, int threads) {
+            this.benchmark = benchmark;
+            this.backend = backend;
+            this.threads = threads;
+        }
+    }
+}
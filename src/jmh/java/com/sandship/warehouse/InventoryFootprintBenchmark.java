@@ -0,0 +1,83 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.OffHeapInventoryStore;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Builds a whole fleet once and reports the retained heap and direct memory as aux counters.
+// ./gradlew jmh -PjmhIncludes=InventoryFootprintBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-XX:MaxDirectMemorySize=8g"})
+public class InventoryFootprintBenchmark {
+
+    @Param({"1000000"})
+    int warehouses;
+
+    @Param({"24"})
+    int materials;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    String backend;
+
+    MaterialType[] materialTypes;
+    Object fleet;
+
+    @Setup
+    public void setUp() {
+        materialTypes = new MaterialType[materials];
+        for (int i = 0; i < materials; i++) {
+            materialTypes[i] = new MaterialType("Material " + i, "footprint material", "icon", 1_000_000);
+        }
+    }
+
+    @Benchmark
+    public Object buildFleet(Footprint footprint) {
+        long heapBefore = usedHeap();
+        if (backend.equals("HEAP")) {
+            Warehouse[] heapFleet = new Warehouse[warehouses];
+            for (int i = 0; i < warehouses; i++) {
+                heapFleet[i] = fill(new WarehouseImpl());
+            }
+            fleet = heapFleet;
+        } else {
+            OffHeapInventoryStore store = new OffHeapInventoryStore(materials);
+            for (int i = 0; i < warehouses; i++) {
+                fill(store.createWarehouse());
+            }
+            footprint.offHeapBytes = store.getOffHeapBytes();
+            fleet = store;
+        }
+        footprint.heapBytes = usedHeap() - heapBefore;
+        return fleet;
+    }
+
+    private Warehouse fill(Warehouse warehouse) {
+        for (int i = 0; i < materialTypes.length; i++) {
+            warehouse.addMaterial(materialTypes[i], i + 1);
+        }
+        return warehouse;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapBytes;
+        public long offHeapBytes;
+    }
+}
@@ -0,0 +1,57 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Cost of WarehouseMetrics on the add and transfer paths, compare metered=false against true.
+// ./gradlew jmh -PjmhIncludes=MetricsOverheadBenchmark -PjmhThreads=4 -PjmhProfilers=gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+    private static final int WAREHOUSES = 64;
+    private static final long CAPACITY = Long.MAX_VALUE / 4;
+
+    @Param({"false", "true"})
+    boolean metered;
+
+    @Param({"SYNCHRONIZED", "ATOMIC"})
+    MaterialStorage storage;
+
+    WarehouseImpl[] warehouses;
+    MaterialType materialType;
+
+    @Setup
+    public void setUp() {
+        materialType = new MaterialType("Metered", "benchmark material", "icon", CAPACITY);
+        WarehouseMetrics metrics = metered ? new WarehouseMetrics() : null;
+        warehouses = new WarehouseImpl[WAREHOUSES];
+        for (int i = 0; i < WAREHOUSES; i++) {
+            warehouses[i] = new WarehouseImpl(storage);
+            warehouses[i].addMaterial(materialType, CAPACITY / 2);
+            warehouses[i].setMetrics(metrics);
+        }
+    }
+
+    @Benchmark
+    public long addMaterial() {
+        return warehouses[ThreadLocalRandom.current().nextInt(WAREHOUSES)].addMaterial(materialType, 1);
+    }
+
+    @Benchmark
+    public long putMaterialTo() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(WAREHOUSES);
+        int destination = (source + 1 + random.nextInt(WAREHOUSES - 1)) % WAREHOUSES;
+        return warehouses[source].putMaterialTo(warehouses[destination], materialType, 1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.MovementAnalytics;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Cost of MovementAnalytics on the add path, compare tracked=false against true, and of a window
+// query for one warehouse. The gc profiler should show no allocation for the tracked add.
+// ./gradlew jmh -PjmhIncludes=MovementAnalyticsBenchmark -PjmhThreads=4 -PjmhProfilers=gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovementAnalyticsBenchmark {
+    private static final int WAREHOUSES = 64;
+    private static final long CAPACITY = Long.MAX_VALUE / 4;
+
+    @Param({"false", "true"})
+    boolean tracked;
+
+    WarehouseImpl[] warehouses;
+    MaterialType materialType;
+    MovementAnalytics analytics;
+
+    @Setup
+    public void setUp() {
+        materialType = new MaterialType("Tracked", "benchmark material", "icon", CAPACITY);
+        analytics = new MovementAnalytics();
+        warehouses = new WarehouseImpl[WAREHOUSES];
+        for (int i = 0; i < WAREHOUSES; i++) {
+            warehouses[i] = new WarehouseImpl();
+            if (tracked) analytics.track(warehouses[i]);
+            warehouses[i].addMaterial(materialType, CAPACITY / 2);
+        }
+    }
+
+    @Benchmark
+    public long addMaterial() {
+        return warehouses[ThreadLocalRandom.current().nextInt(WAREHOUSES)].addMaterial(materialType, 1);
+    }
+
+    @Benchmark
+    public long lastHourInflow() {
+        if (!tracked) return 0;
+        WarehouseImpl warehouse = warehouses[ThreadLocalRandom.current().nextInt(WAREHOUSES)];
+        return analytics.movement(warehouse, materialType, MovementAnalytics.Window.ONE_HOUR).inflow();
+    }
+}
@@ -0,0 +1,72 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.ConsistentHashRing;
+import com.sandship.warehouse.impl.LoopbackTransport;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.PartitionNode;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Transfers between random warehouses of a fleet partitioned over in-JVM nodes, coordinated by the
+// node owning the source. With one node every transfer is local, with more most of them take the
+// two-phase path, so the difference is the cost of the protocol without a network.
+// ./gradlew jmh -PjmhIncludes=PartitionedTransferBenchmark
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class PartitionedTransferBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Cluster {
+        @Param({"1", "4"})
+        int nodes;
+
+        @Param({"1024"})
+        int warehouses;
+
+        MaterialType materialType;
+        ConsistentHashRing ring;
+        PartitionNode[] partitionNodes;
+        long[] ids;
+
+        @Setup
+        public void setUp() {
+            materialType = new MaterialType("Material", "benchmark material", "icon", WarehouseHotPathBenchmark.CAPACITY);
+            List<Integer> nodeIds = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                nodeIds.add(i);
+            }
+            ring = new ConsistentHashRing(nodeIds);
+            LoopbackTransport transport = new LoopbackTransport();
+            partitionNodes = new PartitionNode[nodes];
+            for (int i = 0; i < nodes; i++) {
+                partitionNodes[i] = new PartitionNode(i, ring, transport);
+                transport.register(partitionNodes[i]);
+            }
+            ids = new long[warehouses];
+            for (int i = 0; i < warehouses; i++) {
+                WarehouseImpl warehouse = new WarehouseImpl();
+                warehouse.addMaterial(materialType, WarehouseHotPathBenchmark.CAPACITY / 2);
+                partitionNodes[ring.nodeFor(warehouse.getId())].host(warehouse);
+                ids[i] = warehouse.getId();
+            }
+        }
+    }
+
+    @Benchmark
+    public long putMaterialTo(Cluster cluster) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(cluster.ids.length);
+        int destination = (source + 1 + random.nextInt(cluster.ids.length - 1)) % cluster.ids.length;
+        PartitionNode coordinator = cluster.partitionNodes[cluster.ring.nodeFor(cluster.ids[source])];
+        return coordinator.putMaterialTo(cluster.ids[source], cluster.ids[destination], cluster.materialType, 1);
+    }
+}
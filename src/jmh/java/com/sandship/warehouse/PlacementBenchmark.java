@@ -0,0 +1,81 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.PlacementIndex;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Placement queries against a randomly filled fleet, compared with scanning it for canPut.
+// Index latency should stay flat as the fleet grows while the scan grows with it.
+// ./gradlew jmh -PjmhIncludes=PlacementBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+    private static final long CAPACITY = 1_000_000;
+
+    @Param({"1000", "10000", "100000"})
+    int warehouses;
+
+    MaterialType materialType;
+    WarehouseImpl[] fleet;
+    PlacementIndex index;
+
+    @Setup
+    public void setUp() {
+        materialType = new MaterialType("Material", "benchmark material", "icon", CAPACITY);
+        fleet = new WarehouseImpl[warehouses];
+        index = new PlacementIndex(warehouses);
+        Random random = new Random(1);
+        for (int i = 0; i < warehouses; i++) {
+            fleet[i] = new WarehouseImpl(MaterialStorage.ATOMIC);
+            // mostly full, so a fitting warehouse is rare and the scan has to look far
+            fleet[i].addMaterial(materialType, CAPACITY - random.nextInt(1000));
+            index.track(fleet[i]);
+        }
+    }
+
+    @Benchmark
+    public WarehouseImpl bestFit() {
+        return index.bestFit(materialType, quantity());
+    }
+
+    @Benchmark
+    public WarehouseImpl firstFit() {
+        return index.firstFit(materialType, quantity());
+    }
+
+    @Benchmark
+    public WarehouseImpl worstFit() {
+        return index.worstFit(materialType, quantity());
+    }
+
+    @Benchmark
+    public WarehouseImpl scan() {
+        long quantity = quantity();
+        for (WarehouseImpl warehouse : fleet) {
+            if (warehouse.canPut(materialType, quantity)) return warehouse;
+        }
+        return null;
+    }
+
+    // Moves one warehouse in the index, the cost every put and take pays while it is tracked.
+    @Benchmark
+    public long putAndTake() {
+        WarehouseImpl warehouse = fleet[ThreadLocalRandom.current().nextInt(fleet.length)];
+        warehouse.removeMaterial(materialType, 1);
+        return warehouse.addMaterial(materialType, 1);
+    }
+
+    private static long quantity() {
+        return 900 + ThreadLocalRandom.current().nextInt(100);
+    }
+}
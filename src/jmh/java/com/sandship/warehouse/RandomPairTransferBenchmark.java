@@ -0,0 +1,50 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.MaterialType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Transfers between random warehouse pairs with many more threads than a pair can serve.
+// Few warehouses means most transfers conflict and some fall back to locking, many means they rarely meet.
+// ./gradlew jmh -PjmhIncludes=RandomPairTransferBenchmark
+// ./gradlew jmhScaling -PjmhThreadCounts=8,16,32,64 -PjmhScalingIncludes=RandomPairTransferBenchmark
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(32)
+@Fork(1)
+public class RandomPairTransferBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"SYNCHRONIZED", "ATOMIC", "STRIPED"})
+        WarehouseBackend backend;
+
+        @Param({"2", "32", "1024"})
+        int warehouses;
+
+        MaterialType materialType;
+        Warehouse[] fleet;
+
+        @Setup
+        public void setUp() {
+            materialType = new MaterialType("Material", "benchmark material", "icon", WarehouseHotPathBenchmark.CAPACITY);
+            fleet = backend.createFleet(warehouses);
+            for (Warehouse warehouse : fleet) {
+                warehouse.addMaterial(materialType, WarehouseHotPathBenchmark.CAPACITY / 2);
+            }
+        }
+    }
+
+    @Benchmark
+    public long putMaterialTo(Fleet fleet) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(fleet.fleet.length);
+        int destination = (source + 1 + random.nextInt(fleet.fleet.length - 1)) % fleet.fleet.length;
+        return fleet.fleet[source].putMaterialTo(fleet.fleet[destination], fleet.materialType, 1 + random.nextInt(16));
+    }
+}
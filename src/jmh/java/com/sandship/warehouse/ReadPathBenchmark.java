@@ -0,0 +1,80 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.MaterialVisitor;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Compares the cloning read path with material views and the visitor.
+// Allocation rates: ./gradlew jmh -PjmhIncludes=ReadPathBenchmark -PjmhProfilers=gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    @Param({"1", "20"})
+    int materials;
+
+    @Param({"SYNCHRONIZED", "ATOMIC"})
+    MaterialStorage storage;
+
+    Warehouse warehouse;
+    MaterialType queried;
+
+    @Setup
+    public void setUp() {
+        warehouse = new WarehouseImpl(storage);
+        for (int i = 0; i < materials; i++) {
+            queried = new MaterialType("Material " + i, "benchmark material", "icon", 1_000_000);
+            warehouse.addMaterial(queried, i);
+        }
+    }
+
+    @Benchmark
+    public void getAllWarehouseMaterials(Blackhole blackhole) {
+        for (WarehouseMaterial material : warehouse.getAllWarehouseMaterials()) {
+            blackhole.consume(material.getQuantity());
+        }
+    }
+
+    @Benchmark
+    public void getMaterialViews(Blackhole blackhole) {
+        for (WarehouseMaterial material : warehouse.getMaterialViews()) {
+            blackhole.consume(material.getQuantity());
+        }
+    }
+
+    @Benchmark
+    public void forEachMaterial(TotalVisitor visitor) {
+        warehouse.forEachMaterial(visitor);
+    }
+
+    @Benchmark
+    public long getMaterial() {
+        return warehouse.getMaterial(queried).getQuantity();
+    }
+
+    @Benchmark
+    public long getMaterialView() {
+        return warehouse.getMaterialView(queried).getQuantity();
+    }
+
+    @State(Scope.Thread)
+    public static class TotalVisitor implements MaterialVisitor {
+        long total;
+
+        @Override
+        public void visit(MaterialType materialType, long quantity, long capacity) {
+            total += quantity;
+        }
+    }
+}
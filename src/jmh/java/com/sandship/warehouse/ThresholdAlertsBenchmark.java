@@ -0,0 +1,57 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.ThresholdAlerts;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Small random moves on a warehouse carrying many reorder and fill rules spread over the capacity.
+// A move only visits the rules whose boundary it crossed, so the cost should barely depend on the
+// number of rules.
+// ./gradlew jmh -PjmhIncludes=ThresholdAlertsBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThresholdAlertsBenchmark {
+    private static final long CAPACITY = 1_000_000;
+
+    @Param({"0", "1000", "10000"})
+    int rules;
+
+    WarehouseImpl warehouse;
+    MaterialType materialType;
+    LongAdder alerts;
+
+    @Setup
+    public void setUp() {
+        materialType = new MaterialType("Alerted", "benchmark material", "icon", CAPACITY);
+        warehouse = new WarehouseImpl();
+        warehouse.addMaterial(materialType, CAPACITY / 2);
+        alerts = new LongAdder();
+        ThresholdAlerts thresholdAlerts = new ThresholdAlerts(alert -> alerts.increment());
+        for (int i = 0; i < rules; i++) {
+            if (i % 2 == 0) {
+                thresholdAlerts.reorderPoint(warehouse, materialType, i * CAPACITY / rules, 100);
+            } else {
+                thresholdAlerts.fillRatio(warehouse, materialType, (double) i / rules, 100);
+            }
+        }
+    }
+
+    @Benchmark
+    public long move() {
+        // drifts back toward the middle so the quantity stays inside the capacity
+        long quantity = warehouse.getMaterialQuantity(materialType);
+        long step = ThreadLocalRandom.current().nextLong(1, 64);
+        return quantity > CAPACITY / 2
+                ? warehouse.removeMaterial(materialType, step)
+                : warehouse.addMaterial(materialType, step);
+    }
+}
@@ -0,0 +1,72 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Moves a manifest between random warehouse pairs, either line by line or as one batch.
+// Run with e.g. ./gradlew jmh -PjmhIncludes=TransferBatchBenchmark -PjmhThreads=8
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBatchBenchmark {
+    private static final int WAREHOUSES = 64;
+    private static final long CAPACITY = 1_000_000_000L;
+
+    @Param({"1", "5", "20"})
+    int lines;
+
+    @Param({"SYNCHRONIZED", "ATOMIC"})
+    MaterialStorage storage;
+
+    Warehouse[] warehouses;
+    Map<MaterialType, Long> manifest;
+
+    @Setup
+    public void setUp() {
+        manifest = new HashMap<>();
+        for (int i = 0; i < lines; i++) {
+            manifest.put(new MaterialType("Material " + i, "benchmark material", "icon", CAPACITY), 1L);
+        }
+        warehouses = new Warehouse[WAREHOUSES];
+        for (int i = 0; i < WAREHOUSES; i++) {
+            warehouses[i] = new WarehouseImpl(storage);
+            for (MaterialType materialType : manifest.keySet()) {
+                warehouses[i].addMaterial(materialType, CAPACITY / 2);
+            }
+        }
+    }
+
+    @Benchmark
+    public long perLineLoop() {
+        Warehouse[] pair = randomPair();
+        long transferred = 0;
+        for (Map.Entry<MaterialType, Long> line : manifest.entrySet()) {
+            transferred += pair[0].putMaterialTo(pair[1], line.getKey(), line.getValue());
+        }
+        return transferred;
+    }
+
+    @Benchmark
+    public long batch() {
+        Warehouse[] pair = randomPair();
+        return pair[0].transferBatch(pair[1], manifest);
+    }
+
+    private Warehouse[] randomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(WAREHOUSES);
+        int destination = (source + 1 + random.nextInt(WAREHOUSES - 1)) % WAREHOUSES;
+        return new Warehouse[]{warehouses[source], warehouses[destination]};
+    }
+}
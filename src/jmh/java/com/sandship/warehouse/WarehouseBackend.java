@@ -0,0 +1,26 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.OffHeapInventoryStore;
+import com.sandship.warehouse.impl.WarehouseImpl;
+
+// Warehouse implementations the benchmarks compare, used as a @Param.
+public enum WarehouseBackend {
+    SYNCHRONIZED,
+    ATOMIC,
+    STRIPED,
+    OFF_HEAP;
+
+    private static final int OFF_HEAP_MATERIAL_SLOTS = 8;
+
+    // Off-heap warehouses of one fleet share a store, transfers only work inside a store.
+    public Warehouse[] createFleet(int size) {
+        Warehouse[] fleet = new Warehouse[size];
+        OffHeapInventoryStore store = this == OFF_HEAP ? new OffHeapInventoryStore(OFF_HEAP_MATERIAL_SLOTS) : null;
+        for (int i = 0; i < size; i++) {
+            fleet[i] = store != null ? store.createWarehouse() : new WarehouseImpl(MaterialStorage.valueOf(name()));
+        }
+        return fleet;
+    }
+}
@@ -0,0 +1,45 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.WarehouseFactory;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Creating warehouses from many threads through one factory, and bulk creation of a large fleet.
+// ./gradlew jmh -PjmhIncludes=WarehouseCreationBenchmark
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarehouseCreationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Factory {
+        WarehouseFactory factory;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            factory = new WarehouseFactory();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(8)
+    public WarehouseImpl createAndRemove(Factory factory) {
+        // removing again keeps only the registry's chunks growing, not the fleet
+        WarehouseImpl warehouse = factory.factory.create();
+        factory.factory.remove(warehouse.getId());
+        return warehouse;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public WarehouseImpl[] createBulkMillion(Factory factory) {
+        return factory.factory.createBulk(1_000_000);
+    }
+}
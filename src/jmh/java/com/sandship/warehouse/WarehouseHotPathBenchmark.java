@@ -0,0 +1,125 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.impl.MaterialType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Hot paths of the Warehouse API per backend, in three workloads:
+//  *Uncontended: every thread works on its own warehouse,
+//  *Contended: all threads hit the same material of one warehouse,
+//  putMaterialTo*: transfers between a random pair of a shared fleet, or always the same pair.
+// Throughput and sampled latency percentiles are reported for each, add -PjmhProfilers=gc for allocations.
+// ./gradlew jmh -PjmhIncludes=WarehouseHotPathBenchmark -PjmhThreads=8
+// ./gradlew jmhScaling -PjmhThreadCounts=1,2,4,8 runs it once per thread count and prints a summary.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarehouseHotPathBenchmark {
+    static final long CAPACITY = Long.MAX_VALUE / 4;
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"SYNCHRONIZED", "ATOMIC", "STRIPED", "OFF_HEAP"})
+        WarehouseBackend backend;
+
+        @Param({"64"})
+        int warehouses;
+
+        // materials held by every warehouse, getAllWarehouseMaterials copies all of them
+        @Param({"8"})
+        int materials;
+
+        MaterialType[] materialTypes;
+        MaterialType materialType;
+        Warehouse[] fleet;
+
+        @Setup
+        public void setUp() {
+            materialTypes = new MaterialType[materials];
+            for (int i = 0; i < materials; i++) {
+                materialTypes[i] = new MaterialType("Material " + i, "benchmark material", "icon", CAPACITY);
+            }
+            materialType = materialTypes[0];
+            fleet = backend.createFleet(warehouses);
+            for (Warehouse warehouse : fleet) {
+                stock(warehouse);
+            }
+        }
+
+        void stock(Warehouse warehouse) {
+            for (MaterialType type : materialTypes) {
+                warehouse.addMaterial(type, CAPACITY / 2);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Own {
+        Warehouse warehouse;
+        MaterialType materialType;
+
+        @Setup
+        public void setUp(Fleet fleet) {
+            warehouse = fleet.backend.createFleet(1)[0];
+            materialType = fleet.materialType;
+            fleet.stock(warehouse);
+        }
+    }
+
+    @Benchmark
+    public long addMaterialUncontended(Own own) {
+        return own.warehouse.addMaterial(own.materialType, 1);
+    }
+
+    @Benchmark
+    public long removeMaterialUncontended(Own own) {
+        return own.warehouse.removeMaterial(own.materialType, 1);
+    }
+
+    @Benchmark
+    public boolean canPutUncontended(Own own) {
+        return own.warehouse.canPut(own.materialType, 1);
+    }
+
+    @Benchmark
+    public Set<WarehouseMaterial> getAllWarehouseMaterials(Own own) {
+        return own.warehouse.getAllWarehouseMaterials();
+    }
+
+    @Benchmark
+    public long addMaterialContended(Fleet fleet) {
+        return fleet.fleet[0].addMaterial(fleet.materialType, 1);
+    }
+
+    @Benchmark
+    public long removeMaterialContended(Fleet fleet) {
+        return fleet.fleet[0].removeMaterial(fleet.materialType, 1);
+    }
+
+    @Benchmark
+    public boolean canPutContended(Fleet fleet) {
+        return fleet.fleet[0].canPut(fleet.materialType, 1);
+    }
+
+    @Benchmark
+    public long putMaterialToRandomPair(Fleet fleet) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(fleet.fleet.length);
+        int destination = (source + 1 + random.nextInt(fleet.fleet.length - 1)) % fleet.fleet.length;
+        return fleet.fleet[source].putMaterialTo(fleet.fleet[destination], fleet.materialType, 1);
+    }
+
+    // Alternates direction so the pair stays balanced, both directions take the same two locks.
+    @Benchmark
+    public long putMaterialToSamePair(Fleet fleet) {
+        boolean forward = ThreadLocalRandom.current().nextBoolean();
+        return fleet.fleet[forward ? 0 : 1].putMaterialTo(fleet.fleet[forward ? 1 : 0], fleet.materialType, 1);
+    }
+}
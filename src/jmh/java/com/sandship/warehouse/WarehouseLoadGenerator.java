@@ -0,0 +1,133 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.LatencyHistogram;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseClient;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load against a WarehouseServer: every connection keeps `window` requests in flight,
+// each completion sends the next one. Requests are transfers of one unit between random warehouses
+// mixed with quantity reads. Prints requests per second and latency percentiles measured by the client.
+// Arguments: connections, window, seconds, warehouses and optionally host:port of a running server
+// whose warehouses are numbered 1..warehouses; without it a server is started on localhost.
+// ./gradlew warehouseLoadTest -PloadArgs=4,64,10,1024
+public class WarehouseLoadGenerator {
+
+    private static final long CAPACITY = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int warehouseCount = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        String target = args.length > 4 ? args[4] : null;
+
+        WarehouseServer server = null;
+        String host = "localhost";
+        int port;
+        if (target == null) {
+            Map<Long, Warehouse> warehouses = new ConcurrentHashMap<>();
+            for (long id = 1; id <= warehouseCount; id++) {
+                warehouses.put(id, new WarehouseImpl(MaterialStorage.SYNCHRONIZED));
+            }
+            server = new WarehouseServer(0, warehouses);
+            port = server.getPort();
+        } else {
+            host = target.substring(0, target.lastIndexOf(':'));
+            port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        }
+
+        MaterialType materialType = new MaterialType("Load", "load generator material", "load_icon", CAPACITY);
+        List<WarehouseClient> clients = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            clients.add(new WarehouseClient(host, port));
+        }
+        List<CompletableFuture<Long>> fills = new ArrayList<>(warehouseCount);
+        for (long id = 1; id <= warehouseCount; id++) {
+            fills.add(clients.get(0).addMaterial(id, materialType, CAPACITY / 2));
+        }
+        CompletableFuture.allOf(fills.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+
+        // the first second warms up and is not measured
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        Load load = new Load(materialType, warehouseCount, connections * window,
+                measureFrom, measureFrom + TimeUnit.SECONDS.toNanos(seconds));
+        for (WarehouseClient client : clients) {
+            for (int i = 0; i < window; i++) {
+                load.next(client);
+            }
+        }
+        if (!load.done.await(seconds + 60L, TimeUnit.SECONDS)) System.out.println("Requests still in flight after the deadline.");
+
+        LatencyHistogram.Snapshot latency = load.latency.snapshot();
+        System.out.printf("connections %d, window %d, warehouses %d, %d s%n", connections, window, warehouseCount, seconds);
+        System.out.printf("requests %d, failed %d, %.0f req/s%n",
+                latency.getCount(), load.failed.sum(), latency.getCount() / (double) seconds);
+        System.out.printf("latency us: mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                latency.getMean() / 1000, latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+                latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+
+        for (WarehouseClient client : clients) {
+            client.close();
+        }
+        if (server != null) server.close();
+    }
+
+    private static final class Load {
+        private final MaterialType materialType;
+        private final int warehouses;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failed = new LongAdder();
+        private final CountDownLatch done;
+        private final long measureFrom;
+        private final long deadline;
+
+        private Load(MaterialType materialType, int warehouses, int chains, long measureFrom, long deadline) {
+            this.materialType = materialType;
+            this.warehouses = warehouses;
+            this.done = new CountDownLatch(chains);
+            this.measureFrom = measureFrom;
+            this.deadline = deadline;
+        }
+
+        void next(WarehouseClient client) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long source = 1 + random.nextInt(warehouses);
+            long started = System.nanoTime();
+            CompletableFuture<Long> response;
+            if (random.nextInt(4) == 0) {
+                response = client.getMaterialQuantity(source, materialType);
+            } else {
+                long destination = 1 + random.nextInt(warehouses - 1);
+                if (destination >= source) destination++;
+                response = client.putMaterialTo(source, destination, materialType, 1);
+            }
+            response.whenComplete((value, failure) -> {
+                long now = System.nanoTime();
+                if (started >= measureFrom) {
+                    latency.record(now - started);
+                    if (failure != null) failed.increment();
+                }
+                // a closed connection fails every request at once, the chain ends instead of spinning
+                if (now < deadline && !(failure instanceof IllegalStateException)) {
+                    next(client);
+                } else {
+                    done.countDown();
+                }
+            });
+        }
+    }
+}
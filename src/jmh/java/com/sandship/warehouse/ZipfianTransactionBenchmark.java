@@ -0,0 +1,86 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseTransaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Three-leg moves between warehouses picked with a Zipfian skew, so a few warehouses take most of the
+// traffic. A transaction reads the source, moves a tenth of it and splits it over two destinations,
+// retrying when its read went stale. The chained variant does the same with separate transfers, which
+// is cheaper but lets other threads see and act on the half-done move. Skew 0 is uniform access.
+// ./gradlew jmh -PjmhIncludes=ZipfianTransactionBenchmark
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ZipfianTransactionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"0.0", "0.99", "1.2"})
+        double skew;
+
+        @Param({"1024"})
+        int warehouses;
+
+        MaterialType materialType;
+        WarehouseImpl[] fleet;
+        // cumulative probability of picking warehouse i or one before it
+        double[] cdf;
+
+        @Setup
+        public void setUp() {
+            materialType = new MaterialType("Material", "benchmark material", "icon", WarehouseHotPathBenchmark.CAPACITY);
+            fleet = new WarehouseImpl[warehouses];
+            for (int i = 0; i < warehouses; i++) {
+                fleet[i] = new WarehouseImpl();
+                fleet[i].addMaterial(materialType, WarehouseHotPathBenchmark.CAPACITY / 2);
+            }
+            cdf = new double[warehouses];
+            double total = 0;
+            for (int i = 0; i < warehouses; i++) {
+                total += 1 / Math.pow(i + 1, skew);
+                cdf[i] = total;
+            }
+            for (int i = 0; i < warehouses; i++) {
+                cdf[i] /= total;
+            }
+        }
+
+        WarehouseImpl pick(ThreadLocalRandom random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            return fleet[Math.min(index < 0 ? -index - 1 : index, fleet.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public long transaction(Fleet fleet) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WarehouseImpl source = fleet.pick(random);
+        WarehouseImpl first = fleet.pick(random);
+        WarehouseImpl second = fleet.pick(random);
+        return WarehouseTransaction.execute(transaction -> {
+            long leg = transaction.getQuantity(source, fleet.materialType) / 20;
+            transaction.transfer(source, first, fleet.materialType, leg);
+            transaction.transfer(source, second, fleet.materialType, leg);
+            return leg;
+        });
+    }
+
+    @Benchmark
+    public long chained(Fleet fleet) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WarehouseImpl source = fleet.pick(random);
+        WarehouseImpl first = fleet.pick(random);
+        WarehouseImpl second = fleet.pick(random);
+        long leg = source.getMaterialQuantity(fleet.materialType) / 20;
+        return source.putMaterialTo(first, fleet.materialType, leg) + source.putMaterialTo(second, fleet.materialType, leg);
+    }
+}
@@ -0,0 +1,7 @@
+package com.sandship.warehouse.api;
+
+// Material whose operations are atomic on their own, so callers don't need to hold its lock.
+// Reservations let a transfer prepare every step first and then either commit or release them,
+// both of which cannot fail.
+public interface ConcurrentWarehouseMaterial extends ReservableWarehouseMaterial {
+}
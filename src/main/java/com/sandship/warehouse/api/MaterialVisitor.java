@@ -0,0 +1,9 @@
+package com.sandship.warehouse.api;
+
+import com.sandship.warehouse.impl.MaterialType;
+
+// Receives material state as primitives, so walking a warehouse allocates nothing per entry.
+@FunctionalInterface
+public interface MaterialVisitor {
+    void visit(MaterialType materialType, long quantity, long capacity);
+}
@@ -0,0 +1,22 @@
+package com.sandship.warehouse.api;
+
+// Material that can set space and stored quantity aside before they are used. Reserved space no longer
+// counts as available and held quantity can't be taken, until the reservation is committed or released.
+public interface ReservableWarehouseMaterial extends WarehouseMaterial {
+
+    // Reserves up to the given quantity of free space and returns the reserved amount.
+    long reserveSpace(long quantity);
+
+    // Turns previously reserved space into stored quantity.
+    long commitReservedSpace(long quantity);
+
+    void releaseReservedSpace(long quantity);
+
+    // Holds up to the given stored quantity so nobody else can take it, returns the held amount.
+    long reserveQuantity(long quantity);
+
+    // Removes previously held quantity from the material.
+    long commitReservedQuantity(long quantity);
+
+    void releaseReservedQuantity(long quantity);
+}
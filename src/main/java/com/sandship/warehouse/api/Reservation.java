@@ -0,0 +1,20 @@
+package com.sandship.warehouse.api;
+
+import com.sandship.warehouse.impl.MaterialType;
+
+// Quantity or space set aside in one warehouse until it is committed, released or its time runs out.
+// Exactly one of these happens; an expired reservation gives everything back on its own.
+public interface Reservation {
+
+    MaterialType getMaterialType();
+
+    long getQuantity();
+
+    // Applies the reservation like the matching add or remove and returns the new material quantity.
+    long commit();
+
+    // Gives the reservation back, does nothing if it is already committed, released or expired.
+    void release();
+
+    boolean isActive();
+}
@@ -2,6 +2,9 @@ package com.sandship.warehouse.api;
 
 import com.sandship.warehouse.impl.MaterialType;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 public interface Warehouse extends WarehouseSubject {
@@ -15,6 +18,13 @@ public interface Warehouse extends WarehouseSubject {
 
     WarehouseMaterial getMaterial(MaterialType materialType);
 
+    // Read-only live view of the material, later changes show through it without copying.
+    WarehouseMaterial getMaterialView(MaterialType materialType);
+
+    Collection<WarehouseMaterial> getMaterialViews();
+
+    void forEachMaterial(MaterialVisitor visitor);
+
     long addMaterial(MaterialType materialType, long quantity);
 
     long removeMaterial(MaterialType materialType, long quantity);
@@ -27,10 +37,19 @@ public interface Warehouse extends WarehouseSubject {
 
     long takeMaterialFrom(Warehouse source, MaterialType materialType, long quantity);
 
+    // Moves every line to the destination or nothing at all, returns the total moved quantity.
+    long transferBatch(Warehouse destination, Map<MaterialType, Long> materials);
+
     boolean canPut(MaterialType materialType, long quantity);
 
     boolean canTake(MaterialType materialType, long quantity);
 
+    // Holds the stored quantity so nobody else can take it until the reservation ends, all or nothing.
+    Reservation reserve(MaterialType materialType, long quantity, Duration ttl);
+
+    // Sets free space aside for a later put, reserved space is not reported as available.
+    Reservation reserveSpace(MaterialType materialType, long quantity, Duration ttl);
+
     void emptyAllMaterialTypes();
 
     void emptyWarehouse();
@@ -24,4 +24,9 @@ public interface WarehouseMaterial {
     void empty();
 
     WarehouseMaterial clone();
+
+    // Passes the current state to the visitor without creating a copy.
+    default void accept(MaterialVisitor visitor) {
+        visitor.visit(getMaterialType(), getQuantity(), getCapacity());
+    }
 }
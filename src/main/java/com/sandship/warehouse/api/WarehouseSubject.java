@@ -1,7 +1,14 @@
 package com.sandship.warehouse.api;
 
+import com.sandship.warehouse.impl.MaterialType;
+
 public interface WarehouseSubject {
     void registerObserver(WarehouseObserver observer);
 
+    // The observer is only notified about changes of the given material type.
+    void registerObserver(WarehouseObserver observer, MaterialType materialType);
+
     void unregisterObserver(WarehouseObserver observer);
+
+    void unregisterObserver(WarehouseObserver observer, MaterialType materialType);
 }
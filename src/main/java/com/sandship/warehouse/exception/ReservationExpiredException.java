@@ -0,0 +1,7 @@
+package com.sandship.warehouse.exception;
+
+public class ReservationExpiredException extends IllegalStateException {
+    public ReservationExpiredException() {
+        super("Reservation is no longer active.");
+    }
+}
@@ -0,0 +1,7 @@
+package com.sandship.warehouse.exception;
+
+public class TransactionConflictException extends IllegalStateException {
+    public TransactionConflictException(int attempts) {
+        super("Transaction still conflicted after " + attempts + " attempts.");
+    }
+}
@@ -2,33 +2,67 @@ package com.sandship.warehouse.impl;
 
 import com.sandship.warehouse.api.WarehouseObserver;
 import com.sandship.warehouse.api.WarehouseSubject;
-import java.util.HashSet;
 
 public abstract class AbstractWarehouseSubject implements WarehouseSubject {
 
-    private final HashSet<WarehouseObserver> observers;
+    private final ObserverRegistry observers;
+    // null means observers are called synchronously by the writer
+    private volatile AsyncObserverDispatcher dispatcher;
 
     AbstractWarehouseSubject() {
-        observers = new HashSet<>();
+        observers = new ObserverRegistry();
     }
 
     @Override
     public void registerObserver(WarehouseObserver observer) {
-        this.observers.add(observer);
+        this.observers.register(observer);
+    }
+
+    @Override
+    public void registerObserver(WarehouseObserver observer, MaterialType materialType) {
+        this.observers.register(observer, materialType);
     }
 
     @Override
     public void unregisterObserver(WarehouseObserver observer) {
-        this.observers.remove(observer);
+        this.observers.unregister(observer);
+    }
+
+    @Override
+    public void unregisterObserver(WarehouseObserver observer, MaterialType materialType) {
+        this.observers.unregister(observer, materialType);
+    }
+
+    public void setObserverDispatcher(AsyncObserverDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
 
     // Notify observers new quantity when material is added
     protected void notifyObserversMaterialAdded(MaterialType type, long quantity) {
-        observers.forEach(observer -> observer.onMaterialAdded(type, quantity));
+        AsyncObserverDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(this, type, quantity);
+            return;
+        }
+        observers.notifyAdded(type, quantity);
     }
 
     // Notify observers new quantity when material is removed
     protected void notifyObserversMaterialRemoved(MaterialType type, long quantity) {
-        observers.forEach(observer -> observer.onMaterialRemoved(type, quantity));
+        AsyncObserverDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(this, type, -quantity);
+            return;
+        }
+        observers.notifyRemoved(type, quantity);
+    }
+
+    // Called by the dispatcher with the net change of a batch, nothing is delivered for a zero net change
+    void deliverMaterialChange(MaterialType type, long delta) {
+        if (delta > 0) {
+            observers.notifyAdded(type, delta);
+        } else if (delta < 0) {
+            observers.notifyRemoved(type, -delta);
+        }
     }
 }
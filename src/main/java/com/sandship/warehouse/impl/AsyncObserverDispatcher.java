@@ -0,0 +1,236 @@
+package com.sandship.warehouse.impl;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Moves observer notifications off the writer's thread. Writers publish events into a bounded
+// lock-free ring buffer (preallocated slots, Vyukov-style sequence numbers) and a single consumer
+// thread wakes up once per batch window, folds the drained events into one net change per
+// warehouse+material and calls the observers. Events for the same warehouse and material are
+// delivered in the order they were published. Writers that find the dispatcher closed wait for the
+// consumer to finish draining and then call the observers themselves, so they can't overtake events
+// still in the ring.
+public class AsyncObserverDispatcher implements AutoCloseable {
+
+    private static final long BLOCK_PARK_NANOS = 1_000;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final BackpressurePolicy policy;
+    private final long batchWindowNanos;
+    private final ConcurrentHashMap<EventKey, Overflow> overflow = new ConcurrentHashMap<>();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final Thread consumer;
+    // writers between their running check and their publish, the consumer doesn't stop while there are any
+    private final AtomicInteger writers = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile long delivered;
+
+    public AsyncObserverDispatcher(int capacity, BackpressurePolicy policy, Duration batchWindow) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two.");
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot(i);
+        }
+        this.mask = capacity - 1;
+        this.policy = policy;
+        this.batchWindowNanos = batchWindow.toNanos();
+        this.consumer = new Thread(this::consume, "warehouse-observer-dispatcher");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    // Waits until everything published before the call has reached the observers.
+    public void flush() {
+        long target = tail.get();
+        while ((delivered < target || !overflow.isEmpty()) && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(consumer);
+        consumer.join();
+    }
+
+    // Positive delta for added material, negative for removed. The change has already been applied
+    // when this runs, so a closed dispatcher falls back to calling the observers on the writer's thread.
+    void dispatch(AbstractWarehouseSubject subject, MaterialType materialType, long delta) {
+        writers.incrementAndGet();
+        try {
+            if (running && publish(subject, materialType, delta)) return;
+        } finally {
+            writers.decrementAndGet();
+        }
+        awaitConsumer();
+        subject.deliverMaterialChange(materialType, delta);
+    }
+
+    // false when the dispatcher closed before the event found room
+    private boolean publish(AbstractWarehouseSubject subject, MaterialType materialType, long delta) {
+        // once a key overflowed, its later events must queue behind the overflow to keep their order
+        if (policy == BackpressurePolicy.COALESCE && !overflow.isEmpty()
+                && overflow.computeIfPresent(new EventKey(subject, materialType), (key, pending) -> pending.add(delta)) != null) {
+            return true;
+        }
+        while (!offer(subject, materialType, delta)) {
+            switch (policy) {
+                case BLOCK -> {
+                    if (!running) return false;
+                    LockSupport.unpark(consumer);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                case DROP_OLDEST -> {
+                    if (poll(null)) droppedEvents.increment();
+                }
+                case COALESCE -> {
+                    long after = tail.get();
+                    overflow.compute(new EventKey(subject, materialType),
+                            (key, pending) -> (pending == null ? new Overflow(after) : pending).add(delta));
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    // An observer of the consumer itself writing after close has nothing to wait for.
+    private void awaitConsumer() {
+        if (Thread.currentThread() == consumer) return;
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private boolean offer(AbstractWarehouseSubject subject, MaterialType materialType, long delta) {
+        while (true) {
+            long position = tail.get();
+            Slot slot = ring[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference < 0) return false;
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                slot.subject = subject;
+                slot.materialType = materialType;
+                slot.delta = delta;
+                slot.sequence = position + 1;
+                return true;
+            }
+        }
+    }
+
+    // Removes the oldest event and folds it into the batch, or just discards it when batch is null.
+    private boolean poll(Map<EventKey, long[]> batch) {
+        while (true) {
+            long position = head.get();
+            Slot slot = ring[(int) position & mask];
+            long difference = slot.sequence - (position + 1);
+            if (difference < 0) return false;
+            if (difference == 0 && head.compareAndSet(position, position + 1)) {
+                if (batch != null) {
+                    long delta = slot.delta;
+                    batch.computeIfAbsent(new EventKey(slot.subject, slot.materialType), key -> new long[1])[0] += delta;
+                }
+                slot.subject = null;
+                slot.materialType = null;
+                slot.sequence = position + ring.length;
+                return true;
+            }
+        }
+    }
+
+    private void consume() {
+        Map<EventKey, long[]> batch = new LinkedHashMap<>();
+        while (running || writers.get() != 0 || head.get() != tail.get() || !overflow.isEmpty()) {
+            int drained = 0;
+            while (drained < ring.length && poll(batch)) {
+                drained++;
+            }
+            long consumed = head.get();
+            batch.forEach((key, delta) -> deliver(key, delta[0]));
+            batch.clear();
+            if (!overflow.isEmpty()) {
+                drainOverflow(consumed);
+            }
+            delivered = consumed;
+            if (head.get() == tail.get()) {
+                if (running) {
+                    LockSupport.parkNanos(this, batchWindowNanos);
+                } else {
+                    // closed, a writer that passed its running check is about to publish
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    // An overflow delta is delivered only after every ring event published before it.
+    private void drainOverflow(long consumed) {
+        long[] pending = new long[1];
+        for (EventKey key : overflow.keySet()) {
+            pending[0] = 0;
+            overflow.computeIfPresent(key, (k, entry) -> {
+                if (entry.after > consumed) return entry;
+                pending[0] = entry.delta;
+                return null;
+            });
+            deliver(key, pending[0]);
+        }
+    }
+
+    private void deliver(EventKey key, long delta) {
+        try {
+            key.subject().deliverMaterialChange(key.materialType(), delta);
+        } catch (RuntimeException e) {
+            consumer.getUncaughtExceptionHandler().uncaughtException(consumer, e);
+        }
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        AbstractWarehouseSubject subject;
+        MaterialType materialType;
+        long delta;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private record EventKey(AbstractWarehouseSubject subject, MaterialType materialType) {
+    }
+
+    private static final class Overflow {
+        final long after;
+        long delta;
+
+        Overflow(long after) {
+            this.after = after;
+        }
+
+        Overflow add(long delta) {
+            this.delta += delta;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.ConcurrentWarehouseMaterial;
+import com.sandship.warehouse.api.MaterialVisitor;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Capacity, quantity, reserved space and held quantity live in one immutable state swapped by CAS,
+// so every operation sees and updates them together without taking a lock.
+public class AtomicWarehouseMaterial implements ConcurrentWarehouseMaterial {
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(AtomicWarehouseMaterial.class, "state", State.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Getter
+    private final MaterialType materialType;
+    private volatile State state;
+
+    public AtomicWarehouseMaterial(MaterialType materialType) {
+        this(materialType, materialType.initialCapacity(), 0);
+    }
+
+    public AtomicWarehouseMaterial(MaterialType materialType, long capacity) {
+        this(materialType, capacity, 0);
+    }
+
+    public AtomicWarehouseMaterial(MaterialType materialType, long capacity, long quantity) {
+        this(materialType, new State(capacity, quantity, 0, 0));
+    }
+
+    private AtomicWarehouseMaterial(MaterialType materialType, State state) {
+        this.materialType = materialType;
+        this.state = state;
+    }
+
+    @Override
+    public long getQuantity() {
+        return state.quantity();
+    }
+
+    @Override
+    public long getCapacity() {
+        return state.capacity();
+    }
+
+    @Override
+    public long getAvailableSpace() {
+        return state.availableSpace();
+    }
+
+    @Override
+    public boolean canPut(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        return state.availableSpace() >= quantity;
+    }
+
+    @Override
+    public boolean canTake(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        return state.takeableQuantity() >= quantity;
+    }
+
+    @Override
+    public long put(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        State current;
+        State next;
+        do {
+            current = state;
+            if (current.availableSpace() < quantity) throw new NoEnoughSpaceException(materialType);
+            next = new State(current.capacity(), current.quantity() + quantity, current.reserved(), current.held());
+        } while (!STATE.compareAndSet(this, current, next));
+        return next.quantity();
+    }
+
+    @Override
+    public long take(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        State current;
+        State next;
+        do {
+            current = state;
+            if (current.takeableQuantity() < quantity) throw new NoEnoughMaterialException(materialType);
+            next = new State(current.capacity(), current.quantity() - quantity, current.reserved(), current.held());
+        } while (!STATE.compareAndSet(this, current, next));
+        return next.quantity();
+    }
+
+    @Override
+    public long increaseCapacity(long newCapacity) {
+        State current;
+        do {
+            current = state;
+            if (newCapacity <= current.capacity())
+                throw new IllegalArgumentException("New capacity must be greater than existing.");
+        } while (!STATE.compareAndSet(this, current, new State(newCapacity, current.quantity(), current.reserved(), current.held())));
+        return newCapacity;
+    }
+
+    @Override
+    public void empty() {
+        State current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new State(current.capacity(), current.held(), current.reserved(), current.held())));
+    }
+
+    @Override
+    public long reserveSpace(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        State current;
+        long reserving;
+        do {
+            current = state;
+            reserving = Math.min(quantity, current.availableSpace());
+            if (reserving == 0) return 0;
+        } while (!STATE.compareAndSet(this, current,
+                new State(current.capacity(), current.quantity(), current.reserved() + reserving, current.held())));
+        return reserving;
+    }
+
+    @Override
+    public long commitReservedSpace(long quantity) {
+        State current;
+        State next;
+        do {
+            current = state;
+            if (current.reserved() < quantity)
+                throw new IllegalStateException("Cannot commit more space than reserved.");
+            next = new State(current.capacity(), current.quantity() + quantity, current.reserved() - quantity, current.held());
+        } while (!STATE.compareAndSet(this, current, next));
+        return next.quantity();
+    }
+
+    @Override
+    public void releaseReservedSpace(long quantity) {
+        State current;
+        do {
+            current = state;
+            if (current.reserved() < quantity)
+                throw new IllegalStateException("Cannot release more space than reserved.");
+        } while (!STATE.compareAndSet(this, current,
+                new State(current.capacity(), current.quantity(), current.reserved() - quantity, current.held())));
+    }
+
+    @Override
+    public long reserveQuantity(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        State current;
+        long holding;
+        do {
+            current = state;
+            holding = Math.min(quantity, current.takeableQuantity());
+            if (holding == 0) return 0;
+        } while (!STATE.compareAndSet(this, current,
+                new State(current.capacity(), current.quantity(), current.reserved(), current.held() + holding)));
+        return holding;
+    }
+
+    @Override
+    public long commitReservedQuantity(long quantity) {
+        State current;
+        State next;
+        do {
+            current = state;
+            if (current.held() < quantity)
+                throw new IllegalStateException("Cannot commit more quantity than reserved.");
+            next = new State(current.capacity(), current.quantity() - quantity, current.reserved(), current.held() - quantity);
+        } while (!STATE.compareAndSet(this, current, next));
+        return next.quantity();
+    }
+
+    @Override
+    public void releaseReservedQuantity(long quantity) {
+        State current;
+        do {
+            current = state;
+            if (current.held() < quantity)
+                throw new IllegalStateException("Cannot release more quantity than reserved.");
+        } while (!STATE.compareAndSet(this, current,
+                new State(current.capacity(), current.quantity(), current.reserved(), current.held() - quantity)));
+    }
+
+    @Override
+    public void accept(MaterialVisitor visitor) {
+        State current = state;
+        visitor.visit(materialType, current.quantity(), current.capacity());
+    }
+
+    @Override
+    public WarehouseMaterial clone() {
+        return new AtomicWarehouseMaterial(materialType, state);
+    }
+
+    // reserved is space promised to incoming puts, held is stored quantity promised to outgoing takes
+    private record State(long capacity, long quantity, long reserved, long held) {
+        long availableSpace() {
+            return capacity - quantity - reserved;
+        }
+
+        long takeableQuantity() {
+            return quantity - held;
+        }
+    }
+}
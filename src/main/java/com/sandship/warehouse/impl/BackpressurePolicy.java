@@ -0,0 +1,11 @@
+package com.sandship.warehouse.impl;
+
+// What an AsyncObserverDispatcher does with a new event while its ring buffer is full.
+public enum BackpressurePolicy {
+    // the writer waits until the consumer frees a slot
+    BLOCK,
+    // the oldest queued event is discarded to make room
+    DROP_OLDEST,
+    // the event is folded into a per warehouse+material overflow delta that is delivered later
+    COALESCE
+}
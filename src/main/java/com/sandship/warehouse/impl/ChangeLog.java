@@ -0,0 +1,174 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.LONGS;
+
+// In-process, append-only stream of every quantity change of the warehouses attached to it. Records
+// have a fixed size and live in direct-memory segments that are allocated on first use; once the log
+// holds retentionBytes, the oldest segment is recycled for new records, which is all the compaction
+// the log needs. Writers claim a sequence number with one atomic increment and publish the record by
+// stamping it last, they never wait for readers. Every consumer pulls through its own Cursor at its
+// own pace and can start at any sequence number still retained; a cursor that falls behind the
+// retention jumps ahead to the oldest record and counts what it missed.
+//
+// Record: [long stamp][long warehouseId][long materialTypeId][long delta][long quantity]. The stamp is
+// sequence + 1 once the record is published and -(sequence + 1) while it is being written, zero
+// memory is an empty slot. A reader trusts a record only if the stamp is the same before and after it.
+public class ChangeLog {
+
+    static final int RECORD_BYTES = 5 * Long.BYTES;
+    private static final int STAMP = 0;
+    private static final int WAREHOUSE = Long.BYTES;
+    private static final int MATERIAL_TYPE = 2 * Long.BYTES;
+    private static final int DELTA = 3 * Long.BYTES;
+    private static final int QUANTITY = 4 * Long.BYTES;
+    private static final int DEFAULT_SEGMENT_BYTES = 1 << 20;
+    private static final long DEFAULT_RETENTION_BYTES = 64L << 20;
+
+    private final int recordsShift;
+    private final int recordsMask;
+    private final ByteBuffer[] segments;
+    private final long capacity;
+    private final AtomicLong next = new AtomicLong();
+
+    public ChangeLog() {
+        this(DEFAULT_SEGMENT_BYTES, DEFAULT_RETENTION_BYTES);
+    }
+
+    // Records per segment are rounded down to a power of two, segments up to cover the retention.
+    public ChangeLog(int segmentBytes, long retentionBytes) {
+        if (segmentBytes < RECORD_BYTES || retentionBytes < segmentBytes)
+            throw new IllegalArgumentException("Retention must hold at least one segment of at least one record.");
+        int records = Integer.highestOneBit(segmentBytes / RECORD_BYTES);
+        long segmentCount = (retentionBytes + (long) records * RECORD_BYTES - 1) / ((long) records * RECORD_BYTES);
+        if (segmentCount > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many segments.");
+        this.recordsShift = Integer.numberOfTrailingZeros(records);
+        this.recordsMask = records - 1;
+        this.segments = new ByteBuffer[(int) segmentCount];
+        this.capacity = segmentCount * records;
+    }
+
+    // Sequence number the next change will get.
+    public long getNextSequence() {
+        return next.get();
+    }
+
+    // Oldest sequence number a cursor can still read.
+    public long getFirstSequence() {
+        return Math.max(0, next.get() - capacity);
+    }
+
+    public long getRetainedBytes() {
+        long allocated = 0;
+        synchronized (segments) {
+            for (ByteBuffer segment : segments) {
+                if (segment != null) allocated += segment.capacity();
+            }
+        }
+        return allocated;
+    }
+
+    // Starts at the given sequence number, or at the oldest retained one if that is gone already.
+    public Cursor cursor(long sequence) {
+        return new Cursor(Math.max(sequence, 0));
+    }
+
+    // Only sees changes appended from now on.
+    public Cursor tail() {
+        return new Cursor(getNextSequence());
+    }
+
+    long append(long warehouseId, MaterialType materialType, long delta, long quantity) {
+        long sequence = next.getAndIncrement();
+        ByteBuffer segment = segment(sequence);
+        int offset = (int) (sequence & recordsMask) * RECORD_BYTES;
+        // a writer a whole retention behind still writing the slot goes first, a newer record wins over ours
+        long stamp;
+        do {
+            stamp = (long) LONGS.getAcquire(segment, offset + STAMP);
+            if (Math.abs(stamp) > sequence + 1) return sequence;
+            if (stamp < 0) Thread.onSpinWait();
+        } while (stamp < 0 || !LONGS.compareAndSet(segment, offset + STAMP, stamp, -(sequence + 1)));
+        LONGS.set(segment, offset + WAREHOUSE, warehouseId);
+        LONGS.set(segment, offset + MATERIAL_TYPE, (long) materialType.id());
+        LONGS.set(segment, offset + DELTA, delta);
+        LONGS.set(segment, offset + QUANTITY, quantity);
+        LONGS.setRelease(segment, offset + STAMP, sequence + 1);
+        return sequence;
+    }
+
+    private ByteBuffer segment(long sequence) {
+        int index = (int) ((sequence >>> recordsShift) % segments.length);
+        ByteBuffer segment = segments[index];
+        return segment != null ? segment : allocate(index);
+    }
+
+    private ByteBuffer allocate(int index) {
+        synchronized (segments) {
+            ByteBuffer segment = segments[index];
+            if (segment == null) {
+                segment = ByteBuffer.allocateDirect((recordsMask + 1) * RECORD_BYTES);
+                // the store publishes the zeroed buffer to writers that find it without the lock
+                VarHandle.releaseFence();
+                segments[index] = segment;
+            }
+            return segment;
+        }
+    }
+
+    public record Change(long sequence, long warehouseId, MaterialType materialType, long delta, long quantity) {
+    }
+
+    // Reads the log in sequence order, one consumer per cursor.
+    public final class Cursor {
+        private long sequence;
+        private long missed;
+
+        private Cursor(long sequence) {
+            this.sequence = sequence;
+        }
+
+        // Sequence number of the next change this cursor returns.
+        public long getSequence() {
+            return sequence;
+        }
+
+        // Changes skipped because retention dropped them before this cursor got to them.
+        public long getMissed() {
+            return missed;
+        }
+
+        public void seek(long sequence) {
+            this.sequence = Math.max(sequence, 0);
+        }
+
+        // The next change, or null if it isn't published yet.
+        public Change poll() {
+            while (true) {
+                long first = getFirstSequence();
+                if (sequence < first) {
+                    missed += first - sequence;
+                    sequence = first;
+                }
+                if (sequence >= next.get()) return null;
+                ByteBuffer segment = segments[(int) ((sequence >>> recordsShift) % segments.length)];
+                if (segment == null) return null;
+                int offset = (int) (sequence & recordsMask) * RECORD_BYTES;
+                long stamp = (long) LONGS.getAcquire(segment, offset + STAMP);
+                if (Math.abs(stamp) > sequence + 1) continue;
+                if (stamp != sequence + 1) return null;
+                long warehouseId = (long) LONGS.get(segment, offset + WAREHOUSE);
+                long materialTypeId = (long) LONGS.get(segment, offset + MATERIAL_TYPE);
+                long delta = (long) LONGS.get(segment, offset + DELTA);
+                long quantity = (long) LONGS.get(segment, offset + QUANTITY);
+                VarHandle.loadLoadFence();
+                // overwritten while we read it, the retention has moved past this sequence
+                if ((long) LONGS.get(segment, offset + STAMP) != stamp) continue;
+                return new Change(sequence++, warehouseId, MaterialTypeRegistry.byId((int) materialTypeId), delta, quantity);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.MaterialVisitor;
+import com.sandship.warehouse.api.Warehouse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Binary image of warehouse state. Layout: a fixed header, then one fixed-width row per
+// warehouse material (warehouse id, type id, capacity, quantity; type id -1 for a warehouse
+// without materials), grouped by warehouse, then the table of the material types the rows use.
+// Files are written to a temporary name and moved into place, so a checkpoint is either complete or absent.
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x57484350;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int ROW_BYTES = 8 + 4 + 8 + 8;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final int NO_MATERIAL = -1;
+
+    private Checkpoint() {
+    }
+
+    // Each material is read in one step, but writers are not paused, so materials changed while the
+    // file is written may come from different moments. WriteAheadLog.checkpoint gives an exact image.
+    public static void write(Path file, Collection<? extends Warehouse> warehouses) throws IOException {
+        write(file, -1, rows -> {
+            RowVisitor visitor = new RowVisitor(rows);
+            for (Warehouse warehouse : warehouses) {
+                visitor.warehouseId = warehouse.getId();
+                visitor.visited = false;
+                warehouse.forEachMaterial(visitor);
+                if (!visitor.visited) rows.row(warehouse.getId(), null, 0, 0);
+            }
+        });
+    }
+
+    // Warehouses come back under their recorded ids, keyed by id in id order.
+    public static Map<Long, WarehouseImpl> load(Path file, MaterialStorage storage) throws IOException {
+        Map<Long, WarehouseImpl> warehouses = new TreeMap<>();
+        read(file, new RowSink() {
+            private WarehouseImpl current;
+
+            @Override
+            public void row(long warehouseId, MaterialType materialType, long capacity, long quantity) {
+                if (current == null || current.getId() != warehouseId) {
+                    current = warehouses.computeIfAbsent(warehouseId, id -> WarehouseImpl.restore(id, storage));
+                }
+                if (materialType != null) current.restoreMaterial(materialType, capacity, quantity);
+            }
+        });
+        return warehouses;
+    }
+
+    // Rows are streamed through a small direct buffer, the type table is appended after them
+    // and the header is filled in last.
+    static void write(Path file, long coveredSegment, RowWriter rowWriter) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel);
+            rowWriter.writeRows(writer);
+            long typeTableOffset = writer.finishRows();
+            writer.writeTypes();
+            writer.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(writer.rows).putLong(typeTableOffset).putLong(coveredSegment).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the file and hands every row to the sink in file order, returns the first log segment
+    // the checkpoint does not cover (-1 for checkpoints written from live warehouses).
+    static long read(Path file, RowSink sink) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a warehouse checkpoint: " + file);
+        long rows = buffer.getLong(8);
+        int typeTableOffset = (int) buffer.getLong(16);
+        long coveredSegment = buffer.getLong(24);
+        MaterialType[] types = readTypes(buffer.slice(typeTableOffset, buffer.limit() - typeTableOffset));
+        int position = HEADER_BYTES;
+        for (long i = 0; i < rows; i++, position += ROW_BYTES) {
+            int typeId = buffer.getInt(position + 8);
+            sink.row(buffer.getLong(position), typeId == NO_MATERIAL ? null : types[typeId],
+                    buffer.getLong(position + 12), buffer.getLong(position + 20));
+        }
+        return coveredSegment;
+    }
+
+    private static MaterialType[] readTypes(ByteBuffer table) {
+        int count = table.getInt();
+        MaterialType[] types = new MaterialType[0];
+        for (int i = 0; i < count; i++) {
+            int id = table.getInt();
+            long initialCapacity = table.getLong();
+            MaterialType materialType = new MaterialType(getString(table), getString(table), getString(table), initialCapacity);
+            if (id >= types.length) types = Arrays.copyOf(types, id + 1);
+            types[id] = materialType;
+        }
+        return types;
+    }
+
+    private static String getString(ByteBuffer table) {
+        byte[] bytes = new byte[table.getShort() & 0xFFFF];
+        table.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // materialType is null for a warehouse without materials
+    interface RowSink {
+        void row(long warehouseId, MaterialType materialType, long capacity, long quantity);
+    }
+
+    interface RowWriter {
+        void writeRows(RowSink rows) throws IOException;
+    }
+
+    private static final class RowVisitor implements MaterialVisitor {
+        private final RowSink rows;
+        private long warehouseId;
+        private boolean visited;
+
+        private RowVisitor(RowSink rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void visit(MaterialType materialType, long quantity, long capacity) {
+            visited = true;
+            rows.row(warehouseId, materialType, capacity, quantity);
+        }
+    }
+
+    private static final class Writer implements RowSink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private final List<MaterialType> types = new ArrayList<>();
+        private boolean[] typeSeen = new boolean[16];
+        private long fileOffset = HEADER_BYTES;
+        private long rows;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void row(long warehouseId, MaterialType materialType, long capacity, long quantity) {
+            if (buffer.remaining() < ROW_BYTES) flush();
+            int typeId = NO_MATERIAL;
+            if (materialType != null) {
+                typeId = materialType.id();
+                if (typeId >= typeSeen.length) typeSeen = Arrays.copyOf(typeSeen, Math.max(typeId + 1, typeSeen.length * 2));
+                if (!typeSeen[typeId]) {
+                    typeSeen[typeId] = true;
+                    types.add(materialType);
+                }
+            }
+            buffer.putLong(warehouseId).putInt(typeId).putLong(capacity).putLong(quantity);
+            rows++;
+        }
+
+        private long finishRows() {
+            return fileOffset + buffer.position();
+        }
+
+        private void writeTypes() {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(types.size());
+            for (MaterialType materialType : types) {
+                byte[] name = materialType.name().getBytes(StandardCharsets.UTF_8);
+                byte[] description = materialType.description().getBytes(StandardCharsets.UTF_8);
+                byte[] icon = materialType.icon().getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 4 + 8 + 6 + name.length + description.length + icon.length) flush();
+                buffer.putInt(materialType.id()).putLong(materialType.initialCapacity());
+                putString(name);
+                putString(description);
+                putString(icon);
+            }
+        }
+
+        private void putString(byte[] value) {
+            buffer.putShort((short) value.length).put(value);
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    fileOffset += channel.write(buffer, fileOffset);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
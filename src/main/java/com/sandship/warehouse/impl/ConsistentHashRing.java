@@ -0,0 +1,49 @@
+package com.sandship.warehouse.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Assigns warehouse ids to nodes. Every node owns virtualNodes points on a 64-bit hash ring and a
+// warehouse belongs to the first point at or after the hash of its id. Membership is fixed when the
+// ring is built: nodes host the warehouses the ring assigned them and nothing hands a warehouse over
+// to another node, so a ring that changed underneath them would route calls to nodes that don't
+// have the warehouse. Lookups don't lock.
+public class ConsistentHashRing {
+
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+    // keeps node points off the hashes of small warehouse ids, which are the same inputs otherwise
+    private static final long POINT_SALT = 0x9e3779b97f4a7c15L;
+
+    private final NavigableMap<Long, Integer> points;
+
+    public ConsistentHashRing(Collection<Integer> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(Collection<Integer> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) throw new IllegalArgumentException("A node needs at least one point on the ring.");
+        if (nodes.isEmpty()) throw new IllegalArgumentException("Hash ring has no nodes.");
+        TreeMap<Long, Integer> points = new TreeMap<>();
+        for (int node : nodes) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                points.putIfAbsent(mix((((long) node << 32) | replica) ^ POINT_SALT), node);
+            }
+        }
+        this.points = Collections.unmodifiableNavigableMap(points);
+    }
+
+    public int nodeFor(long warehouseId) {
+        Map.Entry<Long, Integer> point = points.ceilingEntry(mix(warehouseId));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    // finalizer of SplitMix64, spreads consecutive ids over the whole ring
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,11 @@
+package com.sandship.warehouse.impl;
+
+// When a WriteAheadLog forces appended records to disk.
+public enum Durability {
+    // the writer returns once its record is on disk, concurrent writers share one force
+    SYNC,
+    // a background thread forces the log every flush interval, writers never wait
+    BATCHED,
+    // the log is only forced on segment roll, sync and close, the OS writes the rest back on its own
+    ASYNC
+}
@@ -0,0 +1,203 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fleet-wide totals per material type, kept up to date by the tracked warehouses themselves.
+// After every change a warehouse reports the changed material; the index reads the material's new
+// quantity and free space, swaps them into the warehouse's entry and adds the difference to striped
+// totals. Writers never share more than the LongAdder, and a report re-reads until what it swapped
+// in is still current, so totals match the sum of the warehouses once writers are quiescent.
+// Free space only counts material types a warehouse has used.
+//
+// A ranked index also keeps every tracked warehouse ordered by quantity and by free space per type
+// for top-K queries. Moving a warehouse in the ordering takes its entry's monitor, so ranking costs
+// a lock and O(log n) per change and is off by default.
+public class FleetAggregateIndex {
+
+    private static final Comparator<RankedWarehouse> BY_VALUE_DESCENDING = Comparator
+            .comparingLong(RankedWarehouse::value).reversed()
+            .thenComparingLong(ranked -> ranked.warehouse().getId());
+
+    private final boolean ranked;
+    private final MaterialTable<TypeTotals> totals = new MaterialTable<>();
+
+    public FleetAggregateIndex() {
+        this(false);
+    }
+
+    public FleetAggregateIndex(boolean ranked) {
+        this.ranked = ranked;
+    }
+
+    public void track(WarehouseImpl warehouse) {
+        Membership membership = new Membership(this, warehouse);
+        if (!warehouse.attachAggregateIndex(membership))
+            throw new IllegalStateException("Warehouse " + warehouse.getId() + " is already tracked by an aggregate index.");
+        warehouse.forEachMaterial((materialType, quantity, capacity) -> membership.refresh(materialType));
+    }
+
+    // Takes the warehouse's last reported values out of the index, meant for a warehouse nobody writes to.
+    public void untrack(WarehouseImpl warehouse) {
+        Membership membership = warehouse.getAggregateIndex();
+        if (membership == null || membership.index != this || !warehouse.detachAggregateIndex(membership)) return;
+        for (Entry entry : membership.entries.values()) {
+            synchronized (entry) {
+                TypeTotals typeTotals = totals(entry.materialType);
+                typeTotals.quantity.add(-entry.quantity);
+                typeTotals.availableSpace.add(-entry.availableSpace);
+                if (ranked) {
+                    typeTotals.byQuantity.remove(new RankedWarehouse(warehouse, entry.quantity));
+                    typeTotals.byAvailableSpace.remove(new RankedWarehouse(warehouse, entry.availableSpace));
+                }
+            }
+        }
+    }
+
+    public long getTotalQuantity(MaterialType materialType) {
+        TypeTotals typeTotals = totals.get(materialType);
+        return typeTotals != null ? typeTotals.quantity.sum() : 0;
+    }
+
+    public long getTotalAvailableSpace(MaterialType materialType) {
+        TypeTotals typeTotals = totals.get(materialType);
+        return typeTotals != null ? typeTotals.availableSpace.sum() : 0;
+    }
+
+    public List<RankedWarehouse> getTopByQuantity(MaterialType materialType, int count) {
+        TypeTotals typeTotals = rankedTotals(materialType);
+        return typeTotals != null ? first(typeTotals.byQuantity, count) : List.of();
+    }
+
+    public List<RankedWarehouse> getTopByAvailableSpace(MaterialType materialType, int count) {
+        TypeTotals typeTotals = rankedTotals(materialType);
+        return typeTotals != null ? first(typeTotals.byAvailableSpace, count) : List.of();
+    }
+
+    private TypeTotals rankedTotals(MaterialType materialType) {
+        if (!ranked) throw new IllegalStateException("Aggregate index does not rank warehouses.");
+        return totals.get(materialType);
+    }
+
+    private static List<RankedWarehouse> first(ConcurrentSkipListSet<RankedWarehouse> ordering, int count) {
+        List<RankedWarehouse> top = new ArrayList<>(Math.min(count, 64));
+        Iterator<RankedWarehouse> iterator = ordering.iterator();
+        while (top.size() < count && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    private TypeTotals totals(MaterialType materialType) {
+        return totals.computeIfAbsent(materialType, type -> new TypeTotals(ranked));
+    }
+
+    public record RankedWarehouse(Warehouse warehouse, long value) {
+    }
+
+    // What one tracked warehouse reported to one index, attached to the warehouse.
+    static final class Membership {
+        private final FleetAggregateIndex index;
+        private final WarehouseImpl warehouse;
+        private final MaterialTable<Entry> entries = new MaterialTable<>();
+
+        private Membership(FleetAggregateIndex index, WarehouseImpl warehouse) {
+            this.index = index;
+            this.warehouse = warehouse;
+        }
+
+        void refresh(MaterialType materialType) {
+            Entry entry = entries.computeIfAbsent(materialType, Entry::new);
+            TypeTotals typeTotals = index.totals(materialType);
+            if (index.ranked) {
+                refreshRanked(entry, typeTotals);
+                return;
+            }
+            long quantity;
+            long availableSpace;
+            do {
+                quantity = warehouse.getMaterialQuantity(materialType);
+                availableSpace = warehouse.getMaterialAvailableSpace(materialType);
+                long previousQuantity = (long) Entry.QUANTITY.getAndSet(entry, quantity);
+                long previousSpace = (long) Entry.AVAILABLE_SPACE.getAndSet(entry, availableSpace);
+                if (quantity != previousQuantity) typeTotals.quantity.add(quantity - previousQuantity);
+                if (availableSpace != previousSpace) typeTotals.availableSpace.add(availableSpace - previousSpace);
+                // a concurrent report may have swapped in an older read after ours, go again until ours holds
+            } while (quantity != warehouse.getMaterialQuantity(materialType)
+                    || availableSpace != warehouse.getMaterialAvailableSpace(materialType));
+        }
+
+        void refreshAll() {
+            for (Entry entry : entries.values()) {
+                refresh(entry.materialType);
+            }
+        }
+
+        // Under the entry's monitor the last report reads after every change it follows, so no re-read is needed.
+        private void refreshRanked(Entry entry, TypeTotals typeTotals) {
+            synchronized (entry) {
+                MaterialType materialType = entry.materialType;
+                long quantity = warehouse.getMaterialQuantity(materialType);
+                long availableSpace = warehouse.getMaterialAvailableSpace(materialType);
+                if (quantity != entry.quantity || !entry.ranked) {
+                    typeTotals.byQuantity.remove(new RankedWarehouse(warehouse, entry.quantity));
+                    typeTotals.byQuantity.add(new RankedWarehouse(warehouse, quantity));
+                    typeTotals.quantity.add(quantity - entry.quantity);
+                    entry.quantity = quantity;
+                }
+                if (availableSpace != entry.availableSpace || !entry.ranked) {
+                    typeTotals.byAvailableSpace.remove(new RankedWarehouse(warehouse, entry.availableSpace));
+                    typeTotals.byAvailableSpace.add(new RankedWarehouse(warehouse, availableSpace));
+                    typeTotals.availableSpace.add(availableSpace - entry.availableSpace);
+                    entry.availableSpace = availableSpace;
+                }
+                entry.ranked = true;
+            }
+        }
+    }
+
+    private static final class Entry {
+        static final VarHandle QUANTITY;
+        static final VarHandle AVAILABLE_SPACE;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                QUANTITY = lookup.findVarHandle(Entry.class, "quantity", long.class);
+                AVAILABLE_SPACE = lookup.findVarHandle(Entry.class, "availableSpace", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final MaterialType materialType;
+        private volatile long quantity;
+        private volatile long availableSpace;
+        // set once the warehouse is in the orderings of a ranked index
+        private boolean ranked;
+
+        private Entry(MaterialType materialType) {
+            this.materialType = materialType;
+        }
+    }
+
+    private static final class TypeTotals {
+        private final LongAdder quantity = new LongAdder();
+        private final LongAdder availableSpace = new LongAdder();
+        private final ConcurrentSkipListSet<RankedWarehouse> byQuantity;
+        private final ConcurrentSkipListSet<RankedWarehouse> byAvailableSpace;
+
+        private TypeTotals(boolean ranked) {
+            this.byQuantity = ranked ? new ConcurrentSkipListSet<>(BY_VALUE_DESCENDING) : null;
+            this.byAvailableSpace = ranked ? new ConcurrentSkipListSet<>(BY_VALUE_DESCENDING) : null;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Brings one material type of a fleet to a target fill ratio of every warehouse's capacity.
+// The plan splits the fleet in halves down to small ranges; a range matches its own surplus against
+// its own deficit and hands what is left over to its parent, which matches the leftovers of its two
+// halves. Every transfer of a node only touches warehouses of that node's range, and a node runs after
+// both halves are done, so tasks running in parallel never share a warehouse.
+public class FleetRebalancer {
+
+    // warehouses a plan leaf matches serially
+    private static final int LEAF_WAREHOUSES = 64;
+
+    private final ForkJoinPool pool;
+
+    public FleetRebalancer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FleetRebalancer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public Result rebalance(List<? extends Warehouse> fleet, MaterialType materialType, double targetFillRatio) {
+        long started = System.nanoTime();
+        return execute(plan(fleet, materialType, targetFillRatio), started);
+    }
+
+    // Works on the quantities of the moment, warehouses changed before execute may move less than planned.
+    public Plan plan(List<? extends Warehouse> fleet, MaterialType materialType, double targetFillRatio) {
+        if (targetFillRatio < 0 || targetFillRatio > 1)
+            throw new IllegalArgumentException("Target fill ratio must be between 0 and 1.");
+        List<Balance> surplus = new ArrayList<>();
+        List<Balance> deficit = new ArrayList<>();
+        for (Warehouse warehouse : fleet) {
+            long quantity = warehouse.getMaterialQuantity(materialType);
+            long capacity = quantity + warehouse.getMaterialAvailableSpace(materialType);
+            long difference = quantity - (long) (capacity * targetFillRatio);
+            if (difference > 0) surplus.add(new Balance(warehouse, difference));
+            if (difference < 0) deficit.add(new Balance(warehouse, difference));
+        }
+        // alternating the largest surpluses and deficits lets most of them meet inside a leaf
+        surplus.sort(Comparator.comparingLong(balance -> -balance.amount));
+        deficit.sort(Comparator.comparingLong(balance -> balance.amount));
+        Balance[] balances = new Balance[surplus.size() + deficit.size()];
+        for (int i = 0, s = 0, d = 0; i < balances.length; i++) {
+            boolean takeSurplus = d == deficit.size() || (s < surplus.size() && i % 2 == 0);
+            balances[i] = takeSurplus ? surplus.get(s++) : deficit.get(d++);
+        }
+        Node root = planRange(balances, 0, balances.length, new ArrayList<>());
+        return new Plan(materialType, root);
+    }
+
+    public Result execute(Plan plan) {
+        return execute(plan, System.nanoTime());
+    }
+
+    private Result execute(Plan plan, long started) {
+        Execution execution = new Execution(plan.materialType, plan.root);
+        pool.invoke(execution);
+        return new Result(execution.moved.sum(), plan.transfers, (int) execution.failed.sum(),
+                Duration.ofNanos(System.nanoTime() - started));
+    }
+
+    private static Node planRange(Balance[] balances, int from, int to, List<Balance> leftover) {
+        if (to - from <= LEAF_WAREHOUSES) {
+            List<Balance> range = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) range.add(balances[i]);
+            return new Node(null, null, match(range, leftover));
+        }
+        int middle = (from + to) >>> 1;
+        List<Balance> unmatched = new ArrayList<>();
+        Node left = planRange(balances, from, middle, unmatched);
+        Node right = planRange(balances, middle, to, unmatched);
+        return new Node(left, right, match(unmatched, leftover));
+    }
+
+    // Two-pointer matching of surplus against deficit, whatever can't be matched goes to leftover.
+    private static List<Transfer> match(List<Balance> balances, List<Balance> leftover) {
+        List<Balance> surplus = new ArrayList<>();
+        List<Balance> deficit = new ArrayList<>();
+        for (Balance balance : balances) {
+            (balance.amount > 0 ? surplus : deficit).add(balance);
+        }
+        List<Transfer> transfers = new ArrayList<>();
+        int s = 0;
+        int d = 0;
+        while (s < surplus.size() && d < deficit.size()) {
+            Balance source = surplus.get(s);
+            Balance destination = deficit.get(d);
+            long quantity = Math.min(source.amount, -destination.amount);
+            transfers.add(new Transfer(source.warehouse, destination.warehouse, quantity));
+            source.amount -= quantity;
+            destination.amount += quantity;
+            if (source.amount == 0) s++;
+            if (destination.amount == 0) d++;
+        }
+        for (; s < surplus.size(); s++) leftover.add(surplus.get(s));
+        for (; d < deficit.size(); d++) leftover.add(deficit.get(d));
+        return transfers;
+    }
+
+    public record Transfer(Warehouse source, Warehouse destination, long quantity) {
+    }
+
+    // failedTransfers counts transfers that found their source or destination changed since planning
+    public record Result(long movedQuantity, int transfers, int failedTransfers, Duration elapsed) {
+    }
+
+    public static final class Plan {
+        private final MaterialType materialType;
+        private final Node root;
+        private final int transfers;
+        private final long quantity;
+
+        private Plan(MaterialType materialType, Node root) {
+            this.materialType = materialType;
+            this.root = root;
+            List<Transfer> all = getTransfers();
+            this.transfers = all.size();
+            this.quantity = all.stream().mapToLong(Transfer::quantity).sum();
+        }
+
+        public MaterialType getMaterialType() {
+            return materialType;
+        }
+
+        // in the order of a serial run
+        public List<Transfer> getTransfers() {
+            List<Transfer> transfers = new ArrayList<>();
+            collect(root, transfers);
+            return transfers;
+        }
+
+        public long getPlannedQuantity() {
+            return quantity;
+        }
+
+        private static void collect(Node node, List<Transfer> transfers) {
+            if (node.left != null) {
+                collect(node.left, transfers);
+                collect(node.right, transfers);
+            }
+            transfers.addAll(node.transfers);
+        }
+    }
+
+    private record Node(Node left, Node right, List<Transfer> transfers) {
+    }
+
+    private static final class Balance {
+        private final Warehouse warehouse;
+        // positive is surplus, negative is deficit
+        private long amount;
+
+        private Balance(Warehouse warehouse, long amount) {
+            this.warehouse = warehouse;
+            this.amount = amount;
+        }
+    }
+
+    private static final class Execution extends RecursiveAction {
+        private final MaterialType materialType;
+        private final Node node;
+        private final LongAdder moved;
+        private final LongAdder failed;
+
+        private Execution(MaterialType materialType, Node node) {
+            this(materialType, node, new LongAdder(), new LongAdder());
+        }
+
+        private Execution(MaterialType materialType, Node node, LongAdder moved, LongAdder failed) {
+            this.materialType = materialType;
+            this.node = node;
+            this.moved = moved;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.left != null) {
+                invokeAll(new Execution(materialType, node.left, moved, failed),
+                        new Execution(materialType, node.right, moved, failed));
+            }
+            long total = 0;
+            for (Transfer transfer : node.transfers) {
+                try {
+                    long transferred = transfer.source.putMaterialTo(transfer.destination, materialType, transfer.quantity);
+                    total += transferred;
+                    if (transferred < transfer.quantity) failed.increment();
+                } catch (NoEnoughMaterialException | NoEnoughSpaceException e) {
+                    failed.increment();
+                }
+            }
+            moved.add(total);
+        }
+    }
+}
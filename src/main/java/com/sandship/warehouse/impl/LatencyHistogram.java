@@ -0,0 +1,121 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of nanosecond values in the style of HdrHistogram: values below 128 get a
+// bucket each, above that every power of two is split into 64 buckets, so a recorded value is off
+// by less than 1/64 (about 1.6%). Values from 2^44 ns (about 4.9 hours) up share the last bucket.
+// Counts are striped per thread like StripedWarehouseMaterial, recording is a few shifts and one
+// atomic add and never allocates.
+public final class LatencyHistogram {
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_MAGNITUDE = 44;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final long[] counts;
+    private final int stripeMask;
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8)));
+    }
+
+    public LatencyHistogram(int stripes) {
+        if (Integer.bitCount(stripes) != 1) throw new IllegalArgumentException("Stripes must be a power of two.");
+        this.counts = new long[stripes * BUCKETS];
+        this.stripeMask = stripes - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int stripe = System.identityHashCode(Thread.currentThread()) & stripeMask;
+        COUNTS.getAndAdd(counts, stripe * BUCKETS + indexOf(value), 1L);
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    // Concurrent recordings may or may not be included, each bucket is read atomically.
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            long bucketCount = (long) COUNTS.getOpaque(counts, i);
+            merged[i % BUCKETS] += bucketCount;
+            count += bucketCount;
+        }
+        return new Snapshot(merged, count, sum.sum(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude >= MAX_MAGNITUDE) return BUCKETS - 1;
+        // keep the top SUB_BUCKET_BITS bits, the leading one picks the upper half of the sub-buckets
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return subBucket << shift;
+    }
+
+    static long highestValueAt(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValueAt(index + 1) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Highest value equivalent to the bucket the percentile falls into, never above the recorded max.
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValueAt(i), max);
+            }
+            return max;
+        }
+    }
+}
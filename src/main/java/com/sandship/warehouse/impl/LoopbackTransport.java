@@ -0,0 +1,26 @@
+package com.sandship.warehouse.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Transport for nodes living in one JVM, a send calls the target node directly on the caller's thread.
+// Lets multi-node behaviour and the cost of the transfer protocol be measured without a network.
+public class LoopbackTransport implements PartitionTransport {
+
+    private final Map<Integer, PartitionNode> nodes = new ConcurrentHashMap<>();
+
+    public void register(PartitionNode node) {
+        nodes.put(node.getNodeId(), node);
+    }
+
+    public void unregister(PartitionNode node) {
+        nodes.remove(node.getNodeId(), node);
+    }
+
+    @Override
+    public long send(int node, PartitionRequest request) {
+        PartitionNode target = nodes.get(node);
+        if (target == null) throw new IllegalStateException("Node " + node + " is not reachable.");
+        return target.handle(request);
+    }
+}
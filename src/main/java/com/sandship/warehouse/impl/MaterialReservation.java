@@ -0,0 +1,74 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Base of the reservations warehouses hand out. The state moves from ACTIVE exactly once, so commit,
+// release and the timer race on one CAS and only the winner touches the material.
+// The object is also its own timer wheel node, a reservation costs one allocation.
+abstract class MaterialReservation implements Reservation {
+
+    private static final int ACTIVE = 0;
+    private static final int COMMITTED = 1;
+    private static final int RELEASED = 2;
+    private static final int EXPIRED = 3;
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(MaterialReservation.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MaterialType materialType;
+    private final long quantity;
+    private volatile int state;
+    // owned by ReservationTimer: absolute deadline, wheel turns left and the next node in its list
+    long deadline;
+    long remainingRounds;
+    MaterialReservation next;
+
+    MaterialReservation(MaterialType materialType, long quantity) {
+        this.materialType = materialType;
+        this.quantity = quantity;
+    }
+
+    @Override
+    public MaterialType getMaterialType() {
+        return materialType;
+    }
+
+    @Override
+    public long getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public long commit() {
+        if (!STATE.compareAndSet(this, ACTIVE, COMMITTED)) throw new ReservationExpiredException();
+        return applyCommit();
+    }
+
+    @Override
+    public void release() {
+        if (STATE.compareAndSet(this, ACTIVE, RELEASED)) applyRelease();
+    }
+
+    @Override
+    public boolean isActive() {
+        return state == ACTIVE;
+    }
+
+    void expire() {
+        if (STATE.compareAndSet(this, ACTIVE, EXPIRED)) applyRelease();
+    }
+
+    abstract long applyCommit();
+
+    abstract void applyRelease();
+}
@@ -0,0 +1,24 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.WarehouseMaterial;
+
+import java.util.function.Function;
+
+public enum MaterialStorage {
+    // every mutation runs under the material lock
+    SYNCHRONIZED(WarehouseMaterialImpl::new),
+    // non-blocking CAS updates, no lock on add/remove
+    ATOMIC(AtomicWarehouseMaterial::new),
+    // quantity and free space split over per-thread stripes, for write-heavy types
+    STRIPED(StripedWarehouseMaterial::new);
+
+    private final Function<MaterialType, WarehouseMaterial> factory;
+
+    MaterialStorage(Function<MaterialType, WarehouseMaterial> factory) {
+        this.factory = factory;
+    }
+
+    public WarehouseMaterial create(MaterialType materialType) {
+        return factory.apply(materialType);
+    }
+}
@@ -0,0 +1,132 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// Per-warehouse map from material type to value, stored in an array indexed by the interned type id.
+// Lookups are a bounds check and an acquire read; inserts are rare and grow the array under the lock.
+// The array starts empty and grows with the highest id stored, not with every type ever registered.
+final class MaterialTable<T> {
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] slots = EMPTY;
+    private final Collection<T> values = new Values();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    T get(MaterialType materialType) {
+        return get(materialType.id());
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        Object[] current = slots;
+        return id < current.length ? (T) SLOTS.getAcquire(current, id) : null;
+    }
+
+    T computeIfAbsent(MaterialType materialType, Function<MaterialType, T> factory) {
+        T value = get(materialType.id());
+        return value != null ? value : insert(materialType, factory);
+    }
+
+    void put(MaterialType materialType, T value) {
+        lock.lock();
+        try {
+            store(materialType.id(), value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            slots = EMPTY;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Held while inserting, holding it keeps new values out.
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    // Live, unmodifiable view of the stored values in type id order.
+    Collection<T> values() {
+        return values;
+    }
+
+    private T insert(MaterialType materialType, Function<MaterialType, T> factory) {
+        lock.lock();
+        try {
+            int id = materialType.id();
+            T value = get(id);
+            if (value != null) return value;
+            value = factory.apply(materialType);
+            store(id, value);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(int id, T value) {
+        Object[] current = slots;
+        if (id < current.length) {
+            SLOTS.setRelease(current, id, value);
+        } else {
+            Object[] grown = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+            grown[id] = value;
+            slots = grown;
+        }
+    }
+
+    private final class Values extends AbstractCollection<T> {
+        @Override
+        public Iterator<T> iterator() {
+            Object[] snapshot = slots;
+            return new Iterator<>() {
+                private int next = advance(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next < snapshot.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if (next >= snapshot.length) throw new NoSuchElementException();
+                    T value = (T) SLOTS.getAcquire(snapshot, next);
+                    next = advance(next + 1);
+                    return value;
+                }
+
+                private int advance(int from) {
+                    while (from < snapshot.length && SLOTS.getAcquire(snapshot, from) == null) {
+                        from++;
+                    }
+                    return from;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Object value : slots) {
+                if (value != null) size++;
+            }
+            return size;
+        }
+    }
+}
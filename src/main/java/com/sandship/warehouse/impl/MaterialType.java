@@ -1,4 +1,66 @@
 package com.sandship.warehouse.impl;
 
-public record MaterialType(String name, String description, String icon, long initialCapacity) {
+import java.util.Comparator;
+
+// Every material type is interned by MaterialTypeRegistry, so equal types share one dense id.
+// Equality, hashing and the per-warehouse material tables use that id instead of the string fields.
+public final class MaterialType {
+
+    // total order consistent with equals, so several materials can always be locked in the same order
+    public static final Comparator<MaterialType> LOCK_ORDER = Comparator.comparingInt(MaterialType::id);
+
+    private final String name;
+    private final String description;
+    private final String icon;
+    private final long initialCapacity;
+    private final int id;
+
+    public MaterialType(String name, String description, String icon, long initialCapacity) {
+        this(name, description, icon, initialCapacity,
+                MaterialTypeRegistry.intern(name, description, icon, initialCapacity).id());
+    }
+
+    MaterialType(String name, String description, String icon, long initialCapacity, int id) {
+        this.name = name;
+        this.description = description;
+        this.icon = icon;
+        this.initialCapacity = initialCapacity;
+        this.id = id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public String icon() {
+        return icon;
+    }
+
+    public long initialCapacity() {
+        return initialCapacity;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof MaterialType other && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "MaterialType[name=" + name + ", description=" + description + ", icon=" + icon
+                + ", initialCapacity=" + initialCapacity + "]";
+    }
 }
@@ -0,0 +1,54 @@
+package com.sandship.warehouse.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns material types to dense int ids, starting at 0 in registration order.
+// The string fields are hashed once per constructed MaterialType, never on warehouse operations.
+public final class MaterialTypeRegistry {
+
+    private static final ConcurrentHashMap<Key, MaterialType> TYPES_BY_KEY = new ConcurrentHashMap<>();
+    private static volatile MaterialType[] typesById = new MaterialType[16];
+    private static int nextId;
+
+    private MaterialTypeRegistry() {
+    }
+
+    public static MaterialType intern(String name, String description, String icon, long initialCapacity) {
+        Key key = new Key(name, description, icon, initialCapacity);
+        MaterialType materialType = TYPES_BY_KEY.get(key);
+        return materialType != null ? materialType : register(key);
+    }
+
+    // The already registered type with these fields, or null; registers nothing.
+    public static MaterialType find(String name, String description, String icon, long initialCapacity) {
+        return TYPES_BY_KEY.get(new Key(name, description, icon, initialCapacity));
+    }
+
+    public static MaterialType byId(int id) {
+        MaterialType[] types = typesById;
+        return id >= 0 && id < types.length ? types[id] : null;
+    }
+
+    public static int size() {
+        return TYPES_BY_KEY.size();
+    }
+
+    private static synchronized MaterialType register(Key key) {
+        MaterialType materialType = TYPES_BY_KEY.get(key);
+        if (materialType != null) return materialType;
+        int id = nextId++;
+        materialType = new MaterialType(key.name(), key.description(), key.icon(), key.initialCapacity(), id);
+        MaterialType[] types = typesById;
+        if (id == types.length) {
+            types = Arrays.copyOf(types, types.length * 2);
+        }
+        types[id] = materialType;
+        typesById = types;
+        TYPES_BY_KEY.put(key, materialType);
+        return materialType;
+    }
+
+    private record Key(String name, String description, String icon, long initialCapacity) {
+    }
+}
@@ -0,0 +1,236 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseObserver;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Rolling inflow and outflow per (warehouse, material type) over the last minute, five minutes and
+// hour, kept up to date by an observer on every tracked warehouse. Each cell holds two rings of time
+// buckets, one per second and one per minute; an event adds to the current bucket of both, replacing
+// a bucket whose time has passed, so recording is O(1) and allocates at most one bucket per bucket length.
+// A window query sums the buckets it covers, at most 60 of them. The newest bucket is still filling,
+// so a window covers its length minus up to one bucket plus what has passed of the current one.
+public class MovementAnalytics {
+
+    // both rings: BUCKETS references and buckets plus the array and ring headers, and the cell itself
+    public static final long BYTES_PER_CELL = 2 * (16 + Ring.BUCKETS * (Integer.BYTES + Bucket.BYTES) + 24) + 24;
+
+    private final LongSupplier clockMillis;
+    private final Map<Long, Tracker> trackers = new ConcurrentHashMap<>();
+    private final LongAdder cells = new LongAdder();
+
+    public MovementAnalytics() {
+        this(System::currentTimeMillis);
+    }
+
+    public MovementAnalytics(LongSupplier clockMillis) {
+        this.clockMillis = clockMillis;
+    }
+
+    public enum Window {
+        ONE_MINUTE(1_000, 60),
+        FIVE_MINUTES(60_000, 5),
+        ONE_HOUR(60_000, 60);
+
+        private final long bucketMillis;
+        private final int buckets;
+
+        Window(long bucketMillis, int buckets) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+        }
+
+        public Duration getDuration() {
+            return Duration.ofMillis(bucketMillis * buckets);
+        }
+    }
+
+    public record Movement(long inflow, long outflow, Duration window) {
+        public long net() {
+            return inflow - outflow;
+        }
+
+        public double inflowPerSecond() {
+            return inflow * 1000.0 / window.toMillis();
+        }
+
+        public double outflowPerSecond() {
+            return outflow * 1000.0 / window.toMillis();
+        }
+    }
+
+    public void track(Warehouse warehouse) {
+        Tracker tracker = new Tracker();
+        if (trackers.putIfAbsent(warehouse.getId(), tracker) != null)
+            throw new IllegalStateException("Warehouse " + warehouse.getId() + " is tracked already.");
+        warehouse.registerObserver(tracker);
+    }
+
+    public void untrack(Warehouse warehouse) {
+        Tracker tracker = trackers.remove(warehouse.getId());
+        if (tracker == null) return;
+        warehouse.unregisterObserver(tracker);
+        cells.add(-tracker.cells.values().size());
+    }
+
+    public Movement movement(Warehouse warehouse, MaterialType materialType, Window window) {
+        Tracker tracker = trackers.get(warehouse.getId());
+        if (tracker == null) throw new IllegalStateException("Warehouse " + warehouse.getId() + " is not tracked.");
+        Cell cell = tracker.cells.get(materialType);
+        long now = clockMillis.getAsLong();
+        return cell == null
+                ? new Movement(0, 0, window.getDuration())
+                : new Movement(cell.ring(window).sum(now, Ring.INFLOW, window.buckets),
+                        cell.ring(window).sum(now, Ring.OUTFLOW, window.buckets), window.getDuration());
+    }
+
+    // Movement of a material type summed over every tracked warehouse.
+    public Movement movement(MaterialType materialType, Window window) {
+        long now = clockMillis.getAsLong();
+        long inflow = 0;
+        long outflow = 0;
+        for (Tracker tracker : trackers.values()) {
+            Cell cell = tracker.cells.get(materialType);
+            if (cell == null) continue;
+            inflow += cell.ring(window).sum(now, Ring.INFLOW, window.buckets);
+            outflow += cell.ring(window).sum(now, Ring.OUTFLOW, window.buckets);
+        }
+        return new Movement(inflow, outflow, window.getDuration());
+    }
+
+    public long getTrackedCells() {
+        return cells.sum();
+    }
+
+    public long getRetainedBytes() {
+        return cells.sum() * BYTES_PER_CELL;
+    }
+
+    private final class Tracker implements WarehouseObserver {
+        private final MaterialTable<Cell> cells = new MaterialTable<>();
+
+        @Override
+        public void onMaterialAdded(MaterialType materialType, long quantity) {
+            cell(materialType).record(clockMillis.getAsLong(), Ring.INFLOW, quantity);
+        }
+
+        @Override
+        public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            cell(materialType).record(clockMillis.getAsLong(), Ring.OUTFLOW, quantity);
+        }
+
+        private Cell cell(MaterialType materialType) {
+            Cell cell = cells.get(materialType);
+            return cell != null ? cell : cells.computeIfAbsent(materialType, type -> {
+                MovementAnalytics.this.cells.increment();
+                return new Cell();
+            });
+        }
+    }
+
+    private static final class Cell {
+        private final Ring seconds = new Ring(1_000);
+        private final Ring minutes = new Ring(60_000);
+
+        void record(long nowMillis, int column, long quantity) {
+            seconds.record(nowMillis, column, quantity);
+            minutes.record(nowMillis, column, quantity);
+        }
+
+        Ring ring(Window window) {
+            return window.bucketMillis == seconds.bucketMillis ? seconds : minutes;
+        }
+    }
+
+    // The writer that finds a bucket from an earlier lap swaps in a fresh one for its epoch; writers
+    // racing it either win the swap or add to the winner's, none of them waits. Nothing is cleared in
+    // place, so an event of the new epoch can't be swept away with the old one, and a writer that read
+    // the clock a lap ago adds to a bucket nobody reads any more or drops its event.
+    private static final class Ring {
+        private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Bucket[].class);
+        private static final int BUCKETS = 60;
+        private static final int INFLOW = 0;
+        private static final int OUTFLOW = 1;
+
+        private final long bucketMillis;
+        private final Bucket[] slots = new Bucket[BUCKETS];
+
+        private Ring(long bucketMillis) {
+            this.bucketMillis = bucketMillis;
+        }
+
+        void record(long nowMillis, int column, long quantity) {
+            long epoch = nowMillis / bucketMillis;
+            int index = (int) (epoch % BUCKETS);
+            while (true) {
+                Bucket current = (Bucket) SLOTS.getAcquire(slots, index);
+                if (current != null && current.epoch == epoch) {
+                    current.add(column, quantity);
+                    return;
+                }
+                if (current != null && current.epoch > epoch) {
+                    // a writer that read the clock a lap ago, its bucket is gone
+                    return;
+                }
+                if (SLOTS.compareAndSet(slots, index, current, new Bucket(epoch, column, quantity))) return;
+            }
+        }
+
+        long sum(long nowMillis, int column, int buckets) {
+            long newest = nowMillis / bucketMillis;
+            long total = 0;
+            for (long epoch = Math.max(0, newest - buckets + 1); epoch <= newest; epoch++) {
+                Bucket bucket = (Bucket) SLOTS.getAcquire(slots, (int) (epoch % BUCKETS));
+                if (bucket != null && bucket.epoch == epoch) total += bucket.get(column);
+            }
+            return total;
+        }
+    }
+
+    // Movement of one bucket length, the epoch being the bucket's time divided by its length.
+    private static final class Bucket {
+        // header plus epoch, inflow and outflow
+        private static final int BYTES = 16 + 3 * Long.BYTES;
+        private static final VarHandle INFLOW;
+        private static final VarHandle OUTFLOW;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                INFLOW = lookup.findVarHandle(Bucket.class, "inflow", long.class);
+                OUTFLOW = lookup.findVarHandle(Bucket.class, "outflow", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final long epoch;
+        private volatile long inflow;
+        private volatile long outflow;
+
+        // published by the ring's compare-and-set, so the first event needs no atomic add
+        private Bucket(long epoch, int column, long quantity) {
+            this.epoch = epoch;
+            if (column == Ring.INFLOW) {
+                this.inflow = quantity;
+            } else {
+                this.outflow = quantity;
+            }
+        }
+
+        void add(int column, long quantity) {
+            (column == Ring.INFLOW ? INFLOW : OUTFLOW).getAndAdd(this, quantity);
+        }
+
+        long get(int column) {
+            return column == Ring.INFLOW ? inflow : outflow;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.WarehouseObserver;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Copy-on-write observer lists. Registration is rare and copies the affected array under a lock,
+// notification only reads a volatile array (or a per-type array from the map) and allocates nothing.
+class ObserverRegistry {
+
+    private static final WarehouseObserver[] NONE = new WarehouseObserver[0];
+
+    // observers interested in every material type
+    private volatile WarehouseObserver[] observers = NONE;
+    // observers subscribed to a single material type, created on the first typed subscription
+    private volatile ConcurrentHashMap<MaterialType, WarehouseObserver[]> typedObservers;
+
+    synchronized void register(WarehouseObserver observer) {
+        observers = with(observers, observer);
+    }
+
+    synchronized void register(WarehouseObserver observer, MaterialType materialType) {
+        if (typedObservers == null) {
+            typedObservers = new ConcurrentHashMap<>();
+        }
+        typedObservers.put(materialType, with(typedObservers.getOrDefault(materialType, NONE), observer));
+    }
+
+    // Removes the observer together with all of its typed subscriptions.
+    synchronized void unregister(WarehouseObserver observer) {
+        observers = without(observers, observer);
+        if (typedObservers != null) {
+            for (MaterialType materialType : typedObservers.keySet()) {
+                unregister(observer, materialType);
+            }
+        }
+    }
+
+    synchronized void unregister(WarehouseObserver observer, MaterialType materialType) {
+        if (typedObservers == null) return;
+        WarehouseObserver[] remaining = without(typedObservers.getOrDefault(materialType, NONE), observer);
+        if (remaining.length == 0) {
+            typedObservers.remove(materialType);
+        } else {
+            typedObservers.put(materialType, remaining);
+        }
+    }
+
+    void notifyAdded(MaterialType materialType, long quantity) {
+        for (WarehouseObserver observer : observers) {
+            observer.onMaterialAdded(materialType, quantity);
+        }
+        WarehouseObserver[] typed = typed(materialType);
+        if (typed != null) {
+            for (WarehouseObserver observer : typed) {
+                observer.onMaterialAdded(materialType, quantity);
+            }
+        }
+    }
+
+    void notifyRemoved(MaterialType materialType, long quantity) {
+        for (WarehouseObserver observer : observers) {
+            observer.onMaterialRemoved(materialType, quantity);
+        }
+        WarehouseObserver[] typed = typed(materialType);
+        if (typed != null) {
+            for (WarehouseObserver observer : typed) {
+                observer.onMaterialRemoved(materialType, quantity);
+            }
+        }
+    }
+
+    private WarehouseObserver[] typed(MaterialType materialType) {
+        ConcurrentHashMap<MaterialType, WarehouseObserver[]> typedObservers = this.typedObservers;
+        return typedObservers == null ? null : typedObservers.get(materialType);
+    }
+
+    private static WarehouseObserver[] with(WarehouseObserver[] current, WarehouseObserver observer) {
+        for (WarehouseObserver registered : current) {
+            if (registered.equals(observer)) return current;
+        }
+        WarehouseObserver[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = observer;
+        return updated;
+    }
+
+    private static WarehouseObserver[] without(WarehouseObserver[] current, WarehouseObserver observer) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].equals(observer)) {
+                WarehouseObserver[] updated = new WarehouseObserver[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                return updated;
+            }
+        }
+        return current;
+    }
+}
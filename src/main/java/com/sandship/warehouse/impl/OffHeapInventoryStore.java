@@ -0,0 +1,136 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Inventory for a large fleet kept in direct memory instead of per-warehouse object graphs.
+// Warehouses are allocated in chunks; each chunk is one direct buffer holding four long columns
+// (takeable quantity, free space, capacity, held quantity) indexed by (warehouse, material). Warehouses handed out by the
+// store are small handles onto their rows. Ids are unique within a store.
+//
+// Free space is tracked as its own column: a put takes space before adding quantity and a take
+// removes quantity before giving space back, so every step is one CAS or one atomic add and the
+// quantity never exceeds capacity. Capacity is stored plus one, so zeroed memory means "no material".
+// Quantity held by a reservation moves from the takeable column to the held one, the stored quantity
+// is their sum.
+public class OffHeapInventoryStore {
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    static final int QUANTITY = 0;
+    static final int SPACE = 1;
+    static final int CAPACITY = 2;
+    static final int HELD = 3;
+    private static final int COLUMNS = 4;
+    private static final int DEFAULT_WAREHOUSES_PER_CHUNK = 1 << 14;
+
+    private final int materialSlots;
+    private final int warehousesPerChunk;
+    private final long columnBytes;
+    private final MaterialType[] materialTypes;
+    // local material index plus one, by interned type id
+    private volatile int[] materialIndexByTypeId = new int[0];
+    private int materialCount;
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int warehouseCount;
+
+    public OffHeapInventoryStore(int materialSlots) {
+        this(materialSlots, DEFAULT_WAREHOUSES_PER_CHUNK);
+    }
+
+    public OffHeapInventoryStore(int materialSlots, int warehousesPerChunk) {
+        if ((long) materialSlots * warehousesPerChunk * COLUMNS * Long.BYTES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Chunk does not fit into one direct buffer.");
+        this.materialSlots = materialSlots;
+        this.warehousesPerChunk = warehousesPerChunk;
+        this.columnBytes = (long) materialSlots * warehousesPerChunk * Long.BYTES;
+        this.materialTypes = new MaterialType[materialSlots];
+    }
+
+    public synchronized OffHeapWarehouse createWarehouse() {
+        int slot = warehouseCount;
+        int chunkIndex = slot / warehousesPerChunk;
+        Chunk[] current = chunks;
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[chunkIndex] = new Chunk(warehousesPerChunk, (int) columnBytes * COLUMNS);
+            chunks = current;
+        }
+        Chunk chunk = current[chunkIndex];
+        int row = slot % warehousesPerChunk;
+        OffHeapWarehouse warehouse = new OffHeapWarehouse(this, slot, chunk.cells, row * materialSlots * Long.BYTES);
+        chunk.warehouses[row] = warehouse;
+        warehouseCount = slot + 1;
+        return warehouse;
+    }
+
+    public OffHeapWarehouse getWarehouse(long id) {
+        if (id < 0 || id >= warehouseCount) return null;
+        return chunks[(int) (id / warehousesPerChunk)].warehouses[(int) (id % warehousesPerChunk)];
+    }
+
+    public int size() {
+        return warehouseCount;
+    }
+
+    public long getOffHeapBytes() {
+        return chunks.length * columnBytes * COLUMNS;
+    }
+
+    int getMaterialSlots() {
+        return materialSlots;
+    }
+
+    // Byte distance between the columns of one cell.
+    int getColumnBytes() {
+        return (int) columnBytes;
+    }
+
+    MaterialType materialType(int index) {
+        return materialTypes[index];
+    }
+
+    // Local index of the material, or -1 when no warehouse of this store has used it yet.
+    int findMaterialIndex(MaterialType materialType) {
+        int[] indexes = materialIndexByTypeId;
+        int id = materialType.id();
+        return id < indexes.length ? indexes[id] - 1 : -1;
+    }
+
+    int materialIndex(MaterialType materialType) {
+        int index = findMaterialIndex(materialType);
+        return index >= 0 ? index : assignMaterialIndex(materialType);
+    }
+
+    private synchronized int assignMaterialIndex(MaterialType materialType) {
+        int index = findMaterialIndex(materialType);
+        if (index >= 0) return index;
+        if (materialCount == materialSlots)
+            throw new IllegalStateException("Inventory store has no free material slot for " + materialType.name());
+        index = materialCount++;
+        materialTypes[index] = materialType;
+        int[] indexes = materialIndexByTypeId;
+        if (materialType.id() >= indexes.length) {
+            indexes = Arrays.copyOf(indexes, Math.max(materialType.id() + 1, indexes.length * 2));
+        } else {
+            indexes = indexes.clone();
+        }
+        indexes[materialType.id()] = index + 1;
+        materialIndexByTypeId = indexes;
+        return index;
+    }
+
+    private static final class Chunk {
+        final ByteBuffer cells;
+        final OffHeapWarehouse[] warehouses;
+
+        Chunk(int warehouses, int bytes) {
+            // one spare long so the slice can start on an 8 byte boundary, required for atomic access
+            this.cells = ByteBuffer.allocateDirect(bytes + Long.BYTES).alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+            this.warehouses = new OffHeapWarehouse[warehouses];
+        }
+    }
+}
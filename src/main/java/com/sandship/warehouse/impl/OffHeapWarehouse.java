@@ -0,0 +1,604 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.MaterialVisitor;
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.CAPACITY;
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.HELD;
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.LONGS;
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.QUANTITY;
+import static com.sandship.warehouse.impl.OffHeapInventoryStore.SPACE;
+
+// Handle onto one warehouse row of an OffHeapInventoryStore. Created by the store only.
+public class OffHeapWarehouse extends AbstractWarehouseSubject implements Warehouse {
+
+    private final OffHeapInventoryStore store;
+    private final long id;
+    private final ByteBuffer cells;
+    private final int rowOffset;
+    // null means the shared default timer
+    private volatile ReservationTimer reservationTimer;
+    // bumped by emptyWarehouse under the row lock, reservations from an older generation are void
+    private long generation;
+    // Writers of the row's cells hold it shared and emptyWarehouse exclusively, so no write lands in a
+    // cleared cell. Two rows are locked higher warehouse id first.
+    private final StampedLock rowLock = new StampedLock();
+    private final Lock sharedRow = rowLock.asReadLock();
+
+    OffHeapWarehouse(OffHeapInventoryStore store, long id, ByteBuffer cells, int rowOffset) {
+        this.store = store;
+        this.id = id;
+        this.cells = cells;
+        this.rowOffset = rowOffset;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public void setReservationTimer(ReservationTimer reservationTimer) {
+        this.reservationTimer = reservationTimer;
+    }
+
+    @Override
+    public Set<WarehouseMaterial> getAllWarehouseMaterials() {
+        Set<WarehouseMaterial> materials = new HashSet<>();
+        forEachMaterial((materialType, quantity, capacity) ->
+                materials.add(new WarehouseMaterialImpl(materialType, capacity, quantity)));
+        return materials;
+    }
+
+    @Override
+    public long getMaterialQuantity(MaterialType materialType) {
+        int material = store.findMaterialIndex(materialType);
+        return material >= 0 ? stored(material) : 0;
+    }
+
+    @Override
+    public long getMaterialAvailableSpace(MaterialType materialType) {
+        int material = store.findMaterialIndex(materialType);
+        return material >= 0 && exists(material) ? get(material, SPACE) : materialType.initialCapacity();
+    }
+
+    @Override
+    public WarehouseMaterial getMaterial(MaterialType materialType) {
+        int material = store.findMaterialIndex(materialType);
+        if (material < 0 || !exists(material)) return null;
+        return new WarehouseMaterialImpl(materialType, capacity(material), stored(material));
+    }
+
+    // Views are created per call here; keeping one per cell would defeat the point of the store.
+    @Override
+    public WarehouseMaterial getMaterialView(MaterialType materialType) {
+        int material = store.findMaterialIndex(materialType);
+        return material >= 0 && exists(material) ? new MaterialView(material) : null;
+    }
+
+    @Override
+    public Collection<WarehouseMaterial> getMaterialViews() {
+        List<WarehouseMaterial> views = new ArrayList<>();
+        for (int material = 0; material < store.getMaterialSlots(); material++) {
+            if (exists(material)) views.add(new MaterialView(material));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    @Override
+    public void forEachMaterial(MaterialVisitor visitor) {
+        for (int material = 0; material < store.getMaterialSlots(); material++) {
+            if (exists(material)) {
+                visitor.visit(store.materialType(material), stored(material), capacity(material));
+            }
+        }
+    }
+
+    @Override
+    public long addMaterial(MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int material = lockCell(materialType);
+        long newQuantity;
+        try {
+            if (!tryDecrement(material, SPACE, quantity)) throw new NoEnoughSpaceException(materialType);
+            newQuantity = add(material, QUANTITY, quantity) + get(material, HELD);
+        } finally {
+            sharedRow.unlock();
+        }
+        this.notifyObserversMaterialAdded(materialType, quantity);
+        return newQuantity;
+    }
+
+    @Override
+    public long removeMaterial(MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int material = store.findMaterialIndex(materialType);
+        if (material < 0) throw new NoEnoughMaterialException(materialType);
+        long newQuantity;
+        sharedRow.lock();
+        try {
+            if (!tryDecrement(material, QUANTITY, quantity)) throw new NoEnoughMaterialException(materialType);
+            add(material, SPACE, quantity);
+            newQuantity = stored(material);
+        } finally {
+            sharedRow.unlock();
+        }
+        this.notifyObserversMaterialRemoved(materialType, quantity);
+        return newQuantity;
+    }
+
+    @Override
+    public long putMaterialTo(Warehouse destination, MaterialType materialType) {
+        return transfareMaterial(this, sameStore(destination), materialType, getMaterialQuantity(materialType));
+    }
+
+    @Override
+    public long putMaterialTo(Warehouse destination, MaterialType materialType, long quantity) {
+        return transfareMaterial(this, sameStore(destination), materialType, quantity);
+    }
+
+    @Override
+    public long takeMaterialFrom(Warehouse source, MaterialType materialType) {
+        return transfareMaterial(sameStore(source), this, materialType, source.getMaterialQuantity(materialType));
+    }
+
+    @Override
+    public long takeMaterialFrom(Warehouse source, MaterialType materialType, long quantity) {
+        return transfareMaterial(sameStore(source), this, materialType, quantity);
+    }
+
+    @Override
+    public long transferBatch(Warehouse destination, Map<MaterialType, Long> materials) {
+        OffHeapWarehouse target = sameStore(destination);
+        List<MaterialType> materialTypes = new ArrayList<>(materials.size());
+        for (Map.Entry<MaterialType, Long> line : materials.entrySet()) {
+            if (line.getValue() < 0) throw new NegativeTransferringMaterialCount();
+            if (line.getValue() > 0) materialTypes.add(line.getKey());
+        }
+        int lines = materialTypes.size();
+        int[] sourceMaterials = new int[lines];
+        int[] destinationMaterials = new int[lines];
+        long[] quantities = new long[lines];
+        for (int i = 0; i < lines; i++) {
+            MaterialType materialType = materialTypes.get(i);
+            sourceMaterials[i] = store.findMaterialIndex(materialType);
+            if (sourceMaterials[i] < 0) throw new NoEnoughMaterialException(materialType);
+            quantities[i] = materials.get(materialType);
+        }
+        while (true) {
+            for (int i = 0; i < lines; i++) {
+                destinationMaterials[i] = target.ensureMaterial(materialTypes.get(i));
+            }
+            lockRows(this, target);
+            try {
+                if (target.allExist(destinationMaterials)) {
+                    applyBatch(target, materialTypes, sourceMaterials, destinationMaterials, quantities);
+                    break;
+                }
+            } finally {
+                unlockRows(this, target);
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < lines; i++) {
+            this.notifyObserversMaterialRemoved(materialTypes.get(i), quantities[i]);
+            target.notifyObserversMaterialAdded(materialTypes.get(i), quantities[i]);
+            total += quantities[i];
+        }
+        return total;
+    }
+
+    // Called with both rows locked and every destination cell present.
+    private void applyBatch(OffHeapWarehouse target, List<MaterialType> materialTypes, int[] sourceMaterials,
+                            int[] destinationMaterials, long[] quantities) {
+        int lines = quantities.length;
+        // take every line's quantity and destination space first; until the commit both can be
+        // handed back with a plain add, so a failing line undoes the batch without losing anything
+        int prepared = 0;
+        try {
+            for (; prepared < lines; prepared++) {
+                MaterialType materialType = materialTypes.get(prepared);
+                if (!target.tryDecrement(destinationMaterials[prepared], SPACE, quantities[prepared]))
+                    throw new NoEnoughSpaceException(materialType);
+                if (!tryDecrement(sourceMaterials[prepared], QUANTITY, quantities[prepared])) {
+                    target.add(destinationMaterials[prepared], SPACE, quantities[prepared]);
+                    throw new NoEnoughMaterialException(materialType);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < prepared; i++) {
+                target.add(destinationMaterials[i], SPACE, quantities[i]);
+                add(sourceMaterials[i], QUANTITY, quantities[i]);
+            }
+            throw e;
+        }
+        for (int i = 0; i < lines; i++) {
+            target.add(destinationMaterials[i], QUANTITY, quantities[i]);
+            add(sourceMaterials[i], SPACE, quantities[i]);
+        }
+    }
+
+    private boolean allExist(int[] materials) {
+        for (int material : materials) {
+            if (!exists(material)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canPut(MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        return getMaterialAvailableSpace(materialType) >= quantity;
+    }
+
+    @Override
+    public boolean canTake(MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int material = store.findMaterialIndex(materialType);
+        return material >= 0 && exists(material) && get(material, QUANTITY) >= quantity;
+    }
+
+    @Override
+    public Reservation reserve(MaterialType materialType, long quantity, Duration ttl) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        CellReservation reservation;
+        synchronized (this) {
+            int material = store.findMaterialIndex(materialType);
+            if (material < 0 || !exists(material) || !tryDecrement(material, QUANTITY, quantity))
+                throw new NoEnoughMaterialException(materialType);
+            add(material, HELD, quantity);
+            reservation = new CellReservation(materialType, material, quantity, false, generation);
+        }
+        return schedule(reservation, ttl);
+    }
+
+    @Override
+    public Reservation reserveSpace(MaterialType materialType, long quantity, Duration ttl) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        CellReservation reservation;
+        synchronized (this) {
+            int material = ensureMaterial(materialType);
+            if (!tryDecrement(material, SPACE, quantity)) throw new NoEnoughSpaceException(materialType);
+            reservation = new CellReservation(materialType, material, quantity, true, generation);
+        }
+        return schedule(reservation, ttl);
+    }
+
+    private Reservation schedule(CellReservation reservation, Duration ttl) {
+        ReservationTimer timer = this.reservationTimer;
+        try {
+            (timer != null ? timer : ReservationTimer.DEFAULT).schedule(reservation, ttl);
+        } catch (RuntimeException e) {
+            reservation.release();
+            throw e;
+        }
+        return reservation;
+    }
+
+    @Override
+    public void emptyAllMaterialTypes() {
+        sharedRow.lock();
+        try {
+            for (int material = 0; material < store.getMaterialSlots(); material++) {
+                if (exists(material)) empty(material);
+            }
+        } finally {
+            sharedRow.unlock();
+        }
+    }
+
+    // Clears the row once every writer in it is done, writers that come later find the cells gone.
+    // Outstanding reservations are voided, so none of them commits into or releases into the cleared cells.
+    @Override
+    public synchronized void emptyWarehouse() {
+        long stamp = rowLock.writeLock();
+        try {
+            generation++;
+            for (int material = 0; material < store.getMaterialSlots(); material++) {
+                if (exists(material)) {
+                    LONGS.setVolatile(cells, offset(material, CAPACITY), 0L);
+                    LONGS.setVolatile(cells, offset(material, QUANTITY), 0L);
+                    LONGS.setVolatile(cells, offset(material, SPACE), 0L);
+                    LONGS.setVolatile(cells, offset(material, HELD), 0L);
+                }
+            }
+        } finally {
+            rowLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void emptyMaterialType(MaterialType materialType) {
+        int material = store.findMaterialIndex(materialType);
+        if (material < 0) throw new NoEnoughMaterialException(materialType);
+        sharedRow.lock();
+        try {
+            if (!exists(material)) throw new NoEnoughMaterialException(materialType);
+            empty(material);
+        } finally {
+            sharedRow.unlock();
+        }
+    }
+
+    @Override
+    public long increaseMaterialCapacity(MaterialType materialType, long newCapacity) {
+        int material = lockCell(materialType);
+        try {
+            long current;
+            do {
+                current = capacity(material);
+                if (newCapacity <= current)
+                    throw new IllegalArgumentException("New capacity must be greater than existing.");
+            } while (!LONGS.compareAndSet(cells, offset(material, CAPACITY), current + 1, newCapacity + 1));
+            add(material, SPACE, newCapacity - current);
+        } finally {
+            sharedRow.unlock();
+        }
+        return newCapacity;
+    }
+
+    @Override
+    public void printState() {
+        System.out.println("----------------------------");
+        System.out.printf("Warehouse %d state: %n", id);
+        forEachMaterial((materialType, quantity, capacity) -> System.out.println(materialType.name() + ": " + quantity));
+        System.out.println("----------------------------");
+    }
+
+    private static long transfareMaterial(OffHeapWarehouse source, OffHeapWarehouse destination, MaterialType materialType, long quantity) {
+        if (quantity == 0) return 0;
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        if (!source.canTake(materialType, quantity)) throw new NoEnoughMaterialException(materialType);
+        int sourceMaterial = source.store.findMaterialIndex(materialType);
+        long transferringQuantity;
+        while (true) {
+            int destinationMaterial = destination.ensureMaterial(materialType);
+            lockRows(source, destination);
+            try {
+                // emptyWarehouse cleared the destination before its row was locked
+                if (!destination.exists(destinationMaterial)) continue;
+                transferringQuantity = destination.reserveSpace(destinationMaterial, quantity);
+                if (!source.tryDecrement(sourceMaterial, QUANTITY, transferringQuantity)) {
+                    destination.add(destinationMaterial, SPACE, transferringQuantity);
+                    throw new NoEnoughMaterialException(materialType);
+                }
+                destination.add(destinationMaterial, QUANTITY, transferringQuantity);
+                source.add(sourceMaterial, SPACE, transferringQuantity);
+            } finally {
+                unlockRows(source, destination);
+            }
+            break;
+        }
+        source.notifyObserversMaterialRemoved(materialType, transferringQuantity);
+        destination.notifyObserversMaterialAdded(materialType, transferringQuantity);
+        return transferringQuantity;
+    }
+
+    private OffHeapWarehouse sameStore(Warehouse warehouse) {
+        if (warehouse instanceof OffHeapWarehouse offHeapWarehouse && offHeapWarehouse.store == store) {
+            return offHeapWarehouse;
+        }
+        throw new IllegalArgumentException("Off-heap warehouses can only transfer within their own store.");
+    }
+
+    private static void lockRows(OffHeapWarehouse source, OffHeapWarehouse destination) {
+        OffHeapWarehouse first = source.id > destination.id ? source : destination;
+        first.sharedRow.lock();
+        if (destination != source) (first == source ? destination : source).sharedRow.lock();
+    }
+
+    private static void unlockRows(OffHeapWarehouse source, OffHeapWarehouse destination) {
+        source.sharedRow.unlock();
+        if (destination != source) destination.sharedRow.unlock();
+    }
+
+    // Returns with the row shared-locked and the cell present, creating it again if emptyWarehouse
+    // cleared it before the lock was taken. Cells are created outside the row lock, emptyWarehouse
+    // holds the monitor ensureMaterial takes while it waits for the row.
+    private int lockCell(MaterialType materialType) {
+        while (true) {
+            int material = ensureMaterial(materialType);
+            sharedRow.lock();
+            if (exists(material)) return material;
+            sharedRow.unlock();
+        }
+    }
+
+    // Creates the cell on first use. Space is written before the capacity marks the cell as present,
+    // so nobody sees an existing material without its free space.
+    private int ensureMaterial(MaterialType materialType) {
+        int material = store.materialIndex(materialType);
+        if (!exists(material)) {
+            synchronized (this) {
+                if (!exists(material)) {
+                    LONGS.setVolatile(cells, offset(material, SPACE), materialType.initialCapacity());
+                    LONGS.setVolatile(cells, offset(material, CAPACITY), materialType.initialCapacity() + 1);
+                }
+            }
+        }
+        return material;
+    }
+
+    private void empty(int material) {
+        long quantity = (long) LONGS.getAndSet(cells, offset(material, QUANTITY), 0L);
+        add(material, SPACE, quantity);
+    }
+
+    private long reserveSpace(int material, long quantity) {
+        int offset = offset(material, SPACE);
+        long current;
+        long reserving;
+        do {
+            current = (long) LONGS.getVolatile(cells, offset);
+            reserving = Math.min(current, quantity);
+        } while (reserving > 0 && !LONGS.compareAndSet(cells, offset, current, current - reserving));
+        return reserving;
+    }
+
+    private boolean tryDecrement(int material, int column, long quantity) {
+        int offset = offset(material, column);
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(cells, offset);
+            if (current < quantity) return false;
+        } while (!LONGS.compareAndSet(cells, offset, current, current - quantity));
+        return true;
+    }
+
+    private long add(int material, int column, long quantity) {
+        return (long) LONGS.getAndAdd(cells, offset(material, column), quantity) + quantity;
+    }
+
+    private long get(int material, int column) {
+        return (long) LONGS.getVolatile(cells, offset(material, column));
+    }
+
+    private long stored(int material) {
+        return get(material, QUANTITY) + get(material, HELD);
+    }
+
+    private long capacity(int material) {
+        return get(material, CAPACITY) - 1;
+    }
+
+    private boolean exists(int material) {
+        return get(material, CAPACITY) != 0;
+    }
+
+    private int offset(int material, int column) {
+        return column * store.getColumnBytes() + rowOffset + material * Long.BYTES;
+    }
+
+    private final class MaterialView implements WarehouseMaterial {
+        private final int material;
+
+        MaterialView(int material) {
+            this.material = material;
+        }
+
+        @Override
+        public long getQuantity() {
+            return stored(material);
+        }
+
+        @Override
+        public long getCapacity() {
+            return capacity(material);
+        }
+
+        @Override
+        public long getAvailableSpace() {
+            return get(material, SPACE);
+        }
+
+        @Override
+        public MaterialType getMaterialType() {
+            return store.materialType(material);
+        }
+
+        @Override
+        public boolean canPut(long quantity) {
+            if (quantity < 0) throw new NegativeTransferringMaterialCount();
+            return getAvailableSpace() >= quantity;
+        }
+
+        @Override
+        public boolean canTake(long quantity) {
+            if (quantity < 0) throw new NegativeTransferringMaterialCount();
+            return get(material, QUANTITY) >= quantity;
+        }
+
+        @Override
+        public long put(long quantity) {
+            throw new UnsupportedOperationException("Material view is read-only.");
+        }
+
+        @Override
+        public long take(long quantity) {
+            throw new UnsupportedOperationException("Material view is read-only.");
+        }
+
+        @Override
+        public long increaseCapacity(long newCapacity) {
+            throw new UnsupportedOperationException("Material view is read-only.");
+        }
+
+        @Override
+        public void empty() {
+            throw new UnsupportedOperationException("Material view is read-only.");
+        }
+
+        @Override
+        public WarehouseMaterial clone() {
+            return new WarehouseMaterialImpl(getMaterialType(), getCapacity(), getQuantity());
+        }
+    }
+
+    // Reservations taken before the row was cleared fail to commit and give nothing back, the
+    // cells they were taken from no longer exist.
+    private final class CellReservation extends MaterialReservation {
+        private final int material;
+        private final boolean space;
+        private final long generation;
+
+        private CellReservation(MaterialType materialType, int material, long quantity, boolean space, long generation) {
+            super(materialType, quantity);
+            this.material = material;
+            this.space = space;
+            this.generation = generation;
+        }
+
+        @Override
+        long applyCommit() {
+            long quantity = getQuantity();
+            long stored;
+            synchronized (OffHeapWarehouse.this) {
+                if (generation != OffHeapWarehouse.this.generation) throw new ReservationExpiredException();
+                if (space) {
+                    add(material, QUANTITY, quantity);
+                } else {
+                    add(material, HELD, -quantity);
+                    add(material, SPACE, quantity);
+                }
+                stored = stored(material);
+            }
+            if (space) {
+                notifyObserversMaterialAdded(getMaterialType(), quantity);
+            } else {
+                notifyObserversMaterialRemoved(getMaterialType(), quantity);
+            }
+            return stored;
+        }
+
+        @Override
+        void applyRelease() {
+            long quantity = getQuantity();
+            synchronized (OffHeapWarehouse.this) {
+                if (generation != OffHeapWarehouse.this.generation) return;
+                if (space) {
+                    add(material, SPACE, quantity);
+                } else {
+                    add(material, HELD, -quantity);
+                    add(material, QUANTITY, quantity);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.sandship.warehouse.impl.PartitionRequest.Operation.*;
+
+// One node of a partitioned fleet. It hosts the warehouses the hash ring assigns to it and routes
+// operations on any warehouse id to the owning node, calls for its own warehouses stay in-process.
+//
+// A transfer between two warehouses of this node is the ordinary putMaterialTo. Across nodes it is a
+// two-phase transfer built on reservations: the source holds the quantity and the destination sets
+// space aside (prepare), then the destination commits and the source commits. A failed prepare or a
+// failed destination commit releases what was prepared, a failed source commit also takes the quantity
+// back out of the destination. Prepared halves are reservations with a time to live, so the halves of
+// a coordinator that dies in between give themselves back.
+// Unlike a local transfer, which moves as much as fits, a cross-node transfer is all or nothing.
+public class PartitionNode {
+
+    private static final Duration DEFAULT_PREPARE_TTL = Duration.ofSeconds(30);
+    // prepared halves that expired are swept out of the token table every this many prepares
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final int nodeId;
+    private final ConsistentHashRing ring;
+    private final PartitionTransport transport;
+    private final Duration prepareTtl;
+    private final Map<Long, Warehouse> warehouses = new ConcurrentHashMap<>();
+    private final Map<Long, Reservation> prepared = new ConcurrentHashMap<>();
+    private final AtomicLong tokens = new AtomicLong();
+
+    public PartitionNode(int nodeId, ConsistentHashRing ring, PartitionTransport transport) {
+        this(nodeId, ring, transport, DEFAULT_PREPARE_TTL);
+    }
+
+    public PartitionNode(int nodeId, ConsistentHashRing ring, PartitionTransport transport, Duration prepareTtl) {
+        this.nodeId = nodeId;
+        this.ring = ring;
+        this.transport = transport;
+        this.prepareTtl = prepareTtl;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public void host(Warehouse warehouse) {
+        int owner = ring.nodeFor(warehouse.getId());
+        if (owner != nodeId)
+            throw new IllegalArgumentException("Warehouse " + warehouse.getId() + " belongs to node " + owner + ".");
+        warehouses.put(warehouse.getId(), warehouse);
+    }
+
+    // The hosted warehouse, null if it lives on another node or doesn't exist.
+    public Warehouse getLocalWarehouse(long warehouseId) {
+        return warehouses.get(warehouseId);
+    }
+
+    public long getMaterialQuantity(long warehouseId, MaterialType materialType) {
+        return route(warehouseId, PartitionRequest.of(QUANTITY, warehouseId, materialType, 0));
+    }
+
+    public long getMaterialAvailableSpace(long warehouseId, MaterialType materialType) {
+        return route(warehouseId, PartitionRequest.of(AVAILABLE_SPACE, warehouseId, materialType, 0));
+    }
+
+    public long addMaterial(long warehouseId, MaterialType materialType, long quantity) {
+        return route(warehouseId, PartitionRequest.of(ADD, warehouseId, materialType, quantity));
+    }
+
+    public long removeMaterial(long warehouseId, MaterialType materialType, long quantity) {
+        return route(warehouseId, PartitionRequest.of(REMOVE, warehouseId, materialType, quantity));
+    }
+
+    public long takeMaterialFrom(long destinationId, long sourceId, MaterialType materialType, long quantity) {
+        return putMaterialTo(sourceId, destinationId, materialType, quantity);
+    }
+
+    public long putMaterialTo(long sourceId, long destinationId, MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        if (quantity == 0) return 0;
+        int sourceNode = ring.nodeFor(sourceId);
+        int destinationNode = ring.nodeFor(destinationId);
+        if (sourceNode == destinationNode && sourceNode == nodeId) {
+            return warehouse(sourceId).putMaterialTo(warehouse(destinationId), materialType, quantity);
+        }
+        long sourceToken = call(sourceNode, PartitionRequest.of(PREPARE_TAKE, sourceId, materialType, quantity));
+        long destinationToken;
+        try {
+            destinationToken = call(destinationNode, PartitionRequest.of(PREPARE_PUT, destinationId, materialType, quantity));
+            call(destinationNode, PartitionRequest.of(COMMIT, destinationToken));
+        } catch (RuntimeException e) {
+            call(sourceNode, PartitionRequest.of(RELEASE, sourceToken));
+            throw e;
+        }
+        try {
+            call(sourceNode, PartitionRequest.of(COMMIT, sourceToken));
+        } catch (RuntimeException e) {
+            // the destination already took the quantity and the source didn't confirm giving it up, the hold
+            // expired or the commit was lost on the way. Either way the hold is released and the quantity
+            // taken back out of the destination, so the fleet total stays right
+            try {
+                call(sourceNode, PartitionRequest.of(RELEASE, sourceToken));
+            } catch (RuntimeException release) {
+                e.addSuppressed(release);
+            }
+            try {
+                call(destinationNode, PartitionRequest.of(REMOVE, destinationId, materialType, quantity));
+            } catch (RuntimeException compensation) {
+                e.addSuppressed(compensation);
+            }
+            throw e;
+        }
+        return quantity;
+    }
+
+    // Entry point for requests from other nodes, called by the transport.
+    public long handle(PartitionRequest request) {
+        return switch (request.operation()) {
+            case QUANTITY -> warehouse(request.warehouseId()).getMaterialQuantity(request.materialType());
+            case AVAILABLE_SPACE -> warehouse(request.warehouseId()).getMaterialAvailableSpace(request.materialType());
+            case ADD -> warehouse(request.warehouseId()).addMaterial(request.materialType(), request.quantity());
+            case REMOVE -> warehouse(request.warehouseId()).removeMaterial(request.materialType(), request.quantity());
+            case PREPARE_TAKE -> prepare(warehouse(request.warehouseId())
+                    .reserve(request.materialType(), request.quantity(), prepareTtl));
+            case PREPARE_PUT -> prepare(warehouse(request.warehouseId())
+                    .reserveSpace(request.materialType(), request.quantity(), prepareTtl));
+            case COMMIT -> {
+                Reservation reservation = prepared.remove(request.token());
+                if (reservation == null) throw new ReservationExpiredException();
+                yield reservation.commit();
+            }
+            case RELEASE -> {
+                Reservation reservation = prepared.remove(request.token());
+                if (reservation != null) reservation.release();
+                yield 0;
+            }
+        };
+    }
+
+    private long prepare(Reservation reservation) {
+        long token = tokens.incrementAndGet();
+        prepared.put(token, reservation);
+        if (token % SWEEP_INTERVAL == 0) prepared.values().removeIf(held -> !held.isActive());
+        return token;
+    }
+
+    private long route(long warehouseId, PartitionRequest request) {
+        return call(ring.nodeFor(warehouseId), request);
+    }
+
+    private long call(int node, PartitionRequest request) {
+        return node == nodeId ? handle(request) : transport.send(node, request);
+    }
+
+    private Warehouse warehouse(long warehouseId) {
+        Warehouse warehouse = warehouses.get(warehouseId);
+        if (warehouse == null) throw new IllegalArgumentException("Unknown warehouse " + warehouseId + " on node " + nodeId + ".");
+        return warehouse;
+    }
+}
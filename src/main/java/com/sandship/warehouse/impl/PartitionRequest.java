@@ -0,0 +1,27 @@
+package com.sandship.warehouse.impl;
+
+// One request to the node owning a warehouse. token names a prepared transfer half for COMMIT and
+// RELEASE, the other operations address warehouseId.
+public record PartitionRequest(Operation operation, long warehouseId, MaterialType materialType, long quantity, long token) {
+
+    public enum Operation {
+        QUANTITY,
+        AVAILABLE_SPACE,
+        ADD,
+        REMOVE,
+        // holds the quantity in the source warehouse, returns a token
+        PREPARE_TAKE,
+        // sets space aside in the destination warehouse, returns a token
+        PREPARE_PUT,
+        COMMIT,
+        RELEASE
+    }
+
+    static PartitionRequest of(Operation operation, long warehouseId, MaterialType materialType, long quantity) {
+        return new PartitionRequest(operation, warehouseId, materialType, quantity, 0);
+    }
+
+    static PartitionRequest of(Operation operation, long token) {
+        return new PartitionRequest(operation, 0, null, 0, token);
+    }
+}
@@ -0,0 +1,8 @@
+package com.sandship.warehouse.impl;
+
+// Carries requests between the nodes of a partitioned fleet. send returns the value the target
+// node's PartitionNode.handle returned, or throws the exception it threw.
+public interface PartitionTransport {
+
+    long send(int node, PartitionRequest request);
+}
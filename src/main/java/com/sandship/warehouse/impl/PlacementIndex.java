@@ -0,0 +1,200 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Finds a tracked warehouse with room for a quantity of a material type without scanning the fleet.
+// Tracked warehouses get consecutive positions. Per material type the index keeps every position's
+// free space twice: in a skip list ordered by free space, which answers best fit and worst fit, and
+// in a max segment tree over positions, which answers first fit (the earliest tracked warehouse with
+// room). All three queries are O(log n). Warehouses report changes like for FleetAggregateIndex; a
+// report re-reads the free space under a lock striped by position and moves the warehouse in both
+// structures, tree nodes are updated by CAS so reports of different warehouses don't block each other.
+// Answers are a snapshot, the warehouse may be full again by the time the caller puts into it.
+public class PlacementIndex {
+
+    private static final VarHandle NODES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int LOCK_STRIPES = 256;
+    // free space of a position that has no warehouse
+    private static final long VACANT = -1;
+
+    private final int leaves;
+    private final WarehouseImpl[] warehouses;
+    private final MaterialTable<TypePlacement> placements = new MaterialTable<>();
+    private int size;
+
+    // Positions are not reused, maxWarehouses limits how many warehouses can ever be tracked.
+    public PlacementIndex(int maxWarehouses) {
+        if (maxWarehouses <= 0) throw new IllegalArgumentException("Placement index needs room for a warehouse.");
+        this.leaves = maxWarehouses == 1 ? 1 : Integer.highestOneBit(maxWarehouses - 1) << 1;
+        this.warehouses = new WarehouseImpl[maxWarehouses];
+    }
+
+    // A warehouse follows one placement index at a time and takes one position in it, tracking it again
+    // while it is tracked fails instead of leaving its old position behind with stale free space.
+    public synchronized void track(WarehouseImpl warehouse) {
+        if (size == warehouses.length) throw new IllegalStateException("Placement index is full.");
+        Membership membership = new Membership(this, warehouse, size);
+        warehouses[size] = warehouse;
+        if (!warehouse.attachPlacementIndex(membership)) {
+            warehouses[size] = null;
+            throw new IllegalStateException("Warehouse " + warehouse.getId() + " is already tracked by a placement index.");
+        }
+        size++;
+        for (TypePlacement placement : placements.values()) {
+            placement.update(membership.position, warehouse);
+        }
+    }
+
+    // Meant for a warehouse nobody writes to any more.
+    public synchronized void untrack(WarehouseImpl warehouse) {
+        Membership membership = warehouse.getPlacementIndex();
+        if (membership == null || membership.index != this || !warehouse.detachPlacementIndex(membership)) return;
+        for (TypePlacement placement : placements.values()) {
+            placement.update(membership.position, null);
+        }
+    }
+
+    // Warehouse with the least free space that still fits the quantity, null if none fits.
+    public WarehouseImpl bestFit(MaterialType materialType, long quantity) {
+        Slot slot = placement(materialType).bySpace.ceiling(new Slot(quantity, -1));
+        return slot != null ? warehouses[slot.position()] : null;
+    }
+
+    // Earliest tracked warehouse that fits the quantity, null if none fits.
+    public WarehouseImpl firstFit(MaterialType materialType, long quantity) {
+        int position = placement(materialType).firstFit(quantity);
+        return position >= 0 ? warehouses[position] : null;
+    }
+
+    // Warehouse with the most free space, null if even that one can't fit the quantity.
+    public WarehouseImpl worstFit(MaterialType materialType, long quantity) {
+        ConcurrentSkipListSet<Slot> bySpace = placement(materialType).bySpace;
+        Slot slot = bySpace.isEmpty() ? null : bySpace.last();
+        return slot != null && slot.space() >= quantity ? warehouses[slot.position()] : null;
+    }
+
+    private TypePlacement placement(MaterialType materialType) {
+        TypePlacement placement = placements.get(materialType);
+        return placement != null ? placement : createPlacement(materialType);
+    }
+
+    // A type seen for the first time is filled from every tracked warehouse, so it covers warehouses
+    // that never held it. Warehouses tracked later are added by track.
+    private synchronized TypePlacement createPlacement(MaterialType materialType) {
+        TypePlacement placement = placements.get(materialType);
+        if (placement != null) return placement;
+        placement = new TypePlacement(materialType);
+        for (int position = 0; position < size; position++) {
+            WarehouseImpl warehouse = warehouses[position];
+            placement.update(position, warehouse.getPlacementIndex() != null ? warehouse : null);
+        }
+        placements.put(materialType, placement);
+        return placement;
+    }
+
+    private record Slot(long space, int position) implements Comparable<Slot> {
+        @Override
+        public int compareTo(Slot other) {
+            int bySpace = Long.compare(space, other.space);
+            return bySpace != 0 ? bySpace : Integer.compare(position, other.position);
+        }
+    }
+
+    // Index position of one tracked warehouse, attached to the warehouse.
+    static final class Membership {
+        private final PlacementIndex index;
+        private final WarehouseImpl warehouse;
+        private final int position;
+
+        private Membership(PlacementIndex index, WarehouseImpl warehouse, int position) {
+            this.index = index;
+            this.warehouse = warehouse;
+            this.position = position;
+        }
+
+        void refresh(MaterialType materialType) {
+            index.placement(materialType).update(position, warehouse);
+        }
+
+        void refreshAll() {
+            for (TypePlacement placement : index.placements.values()) {
+                placement.update(position, warehouse);
+            }
+        }
+    }
+
+    private final class TypePlacement {
+        private final MaterialType materialType;
+        private final ConcurrentSkipListSet<Slot> bySpace = new ConcurrentSkipListSet<>();
+        // free space last placed per position, guarded by the position's lock stripe
+        private final long[] placed = new long[warehouses.length];
+        // 1-based max segment tree, leaves start at index `leaves`
+        private final long[] nodes = new long[leaves * 2];
+        private final Object[] locks = new Object[LOCK_STRIPES];
+
+        private TypePlacement(MaterialType materialType) {
+            this.materialType = materialType;
+            Arrays.fill(placed, VACANT);
+            Arrays.fill(nodes, VACANT);
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        // null warehouse vacates the position
+        void update(int position, WarehouseImpl warehouse) {
+            synchronized (locks[position & (LOCK_STRIPES - 1)]) {
+                long space = warehouse != null ? warehouse.getMaterialAvailableSpace(materialType) : VACANT;
+                long previous = placed[position];
+                if (space == previous) return;
+                if (previous != VACANT) bySpace.remove(new Slot(previous, position));
+                if (space != VACANT) bySpace.add(new Slot(space, position));
+                placed[position] = space;
+                setLeaf(position, space);
+            }
+        }
+
+        // Parents are recomputed from their children up to the first one that doesn't change. A CAS that
+        // wins with children read before a concurrent change is caught by re-reading them afterwards.
+        private void setLeaf(int position, long space) {
+            int node = leaves + position;
+            NODES.setVolatile(nodes, node, space);
+            for (node >>>= 1; node > 0; node >>>= 1) {
+                long current;
+                long computed;
+                do {
+                    current = (long) NODES.getVolatile(nodes, node);
+                    computed = childMax(node);
+                    if (current == computed) return;
+                } while (!NODES.compareAndSet(nodes, node, current, computed) || computed != childMax(node));
+            }
+        }
+
+        private long childMax(int node) {
+            return Math.max((long) NODES.getVolatile(nodes, node * 2), (long) NODES.getVolatile(nodes, node * 2 + 1));
+        }
+
+        // Walks down to the leftmost leaf that fits. A walk that finds both children too small because
+        // space was taken in the meantime starts over from the root.
+        int firstFit(long quantity) {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                if ((long) NODES.getVolatile(nodes, 1) < quantity) return -1;
+                int node = 1;
+                while (node < leaves) {
+                    if ((long) NODES.getVolatile(nodes, node * 2) >= quantity) {
+                        node = node * 2;
+                    } else if ((long) NODES.getVolatile(nodes, node * 2 + 1) >= quantity) {
+                        node = node * 2 + 1;
+                    } else {
+                        break;
+                    }
+                }
+                if (node >= leaves) return node - leaves;
+            }
+            return -1;
+        }
+    }
+}
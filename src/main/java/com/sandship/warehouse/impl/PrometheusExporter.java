@@ -0,0 +1,86 @@
+package com.sandship.warehouse.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+
+// Writes a WarehouseMetrics snapshot in the Prometheus text exposition format, latencies as
+// summaries in seconds. writeTo replaces the file atomically so a textfile collector never reads half of it.
+public final class PrometheusExporter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private PrometheusExporter() {
+    }
+
+    public static void writeTo(Path file, WarehouseMetrics.Snapshot snapshot) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            write(snapshot, writer);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // e.g. write(metrics.snapshot(), System.out)
+    public static void write(WarehouseMetrics.Snapshot snapshot, Appendable out) throws IOException {
+        out.append("# HELP warehouse_operations_total Warehouse operations by outcome.\n");
+        out.append("# TYPE warehouse_operations_total counter\n");
+        for (WarehouseOperation operation : WarehouseOperation.values()) {
+            String name = operation.name().toLowerCase(Locale.ROOT);
+            sample(out, "warehouse_operations_total{operation=\"" + name + "\",outcome=\"success\"}", snapshot.succeeded().get(operation));
+            sample(out, "warehouse_operations_total{operation=\"" + name + "\",outcome=\"failure\"}", snapshot.failed().get(operation));
+        }
+
+        summary(out, "warehouse_transfer_latency_seconds", "Latency of single material transfers.", snapshot.transferLatency());
+
+        out.append("# HELP warehouse_lock_acquisitions_total Material locks entered by warehouse operations.\n");
+        out.append("# TYPE warehouse_lock_acquisitions_total counter\n");
+        sample(out, "warehouse_lock_acquisitions_total", snapshot.lockAcquisitions());
+        out.append("# HELP warehouse_lock_contended_total Monitor entries that had to wait.\n");
+        out.append("# TYPE warehouse_lock_contended_total counter\n");
+        sample(out, "warehouse_lock_contended_total", snapshot.contendedLockAcquisitions());
+        summary(out, "warehouse_lock_hold_seconds", "Time material locks were held.", snapshot.lockHoldTime());
+
+        out.append("# HELP warehouse_material_operations_total Operations per material type.\n");
+        out.append("# TYPE warehouse_material_operations_total counter\n");
+        for (Map.Entry<MaterialType, WarehouseMetrics.MaterialThroughput> entry : snapshot.materials().entrySet()) {
+            sample(out, "warehouse_material_operations_total{material=\"" + escape(entry.getKey().name()) + "\"}", entry.getValue().operations());
+        }
+        out.append("# HELP warehouse_material_quantity_total Quantity moved per material type.\n");
+        out.append("# TYPE warehouse_material_quantity_total counter\n");
+        for (Map.Entry<MaterialType, WarehouseMetrics.MaterialThroughput> entry : snapshot.materials().entrySet()) {
+            String material = "warehouse_material_quantity_total{material=\"" + escape(entry.getKey().name()) + "\",direction=\"";
+            sample(out, material + "added\"}", entry.getValue().added());
+            sample(out, material + "removed\"}", entry.getValue().removed());
+            sample(out, material + "transferred\"}", entry.getValue().transferred());
+        }
+    }
+
+    private static void summary(Appendable out, String name, String help, LatencyHistogram.Snapshot histogram) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(Double.toString(quantile)).append("\"} ")
+                    .append(seconds(histogram.getPercentile(quantile * 100))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count ").append(Long.toString(histogram.getCount())).append('\n');
+    }
+
+    private static void sample(Appendable out, String series, long value) throws IOException {
+        out.append(series).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
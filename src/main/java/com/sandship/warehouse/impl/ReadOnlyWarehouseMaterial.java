@@ -0,0 +1,74 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.MaterialVisitor;
+import com.sandship.warehouse.api.WarehouseMaterial;
+
+// Flyweight over a live material: reads go straight to the material, mutations are rejected.
+class ReadOnlyWarehouseMaterial implements WarehouseMaterial {
+
+    private final WarehouseMaterial material;
+
+    ReadOnlyWarehouseMaterial(WarehouseMaterial material) {
+        this.material = material;
+    }
+
+    @Override
+    public long getQuantity() {
+        return material.getQuantity();
+    }
+
+    @Override
+    public long getCapacity() {
+        return material.getCapacity();
+    }
+
+    @Override
+    public long getAvailableSpace() {
+        return material.getAvailableSpace();
+    }
+
+    @Override
+    public MaterialType getMaterialType() {
+        return material.getMaterialType();
+    }
+
+    @Override
+    public boolean canPut(long quantity) {
+        return material.canPut(quantity);
+    }
+
+    @Override
+    public boolean canTake(long quantity) {
+        return material.canTake(quantity);
+    }
+
+    @Override
+    public long put(long quantity) {
+        throw new UnsupportedOperationException("Material view is read-only.");
+    }
+
+    @Override
+    public long take(long quantity) {
+        throw new UnsupportedOperationException("Material view is read-only.");
+    }
+
+    @Override
+    public long increaseCapacity(long newCapacity) {
+        throw new UnsupportedOperationException("Material view is read-only.");
+    }
+
+    @Override
+    public void empty() {
+        throw new UnsupportedOperationException("Material view is read-only.");
+    }
+
+    @Override
+    public void accept(MaterialVisitor visitor) {
+        material.accept(visitor);
+    }
+
+    @Override
+    public WarehouseMaterial clone() {
+        return material.clone();
+    }
+}
@@ -0,0 +1,133 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+// Hashed timer wheel that expires reservations. One daemon thread advances the wheel a slot per tick;
+// scheduling only pushes the reservation onto a lock-free stack the thread drains each tick, so holders
+// never contend on a lock and a reservation costs no timer object of its own. Reservations that end
+// early are not unlinked, they are dropped when their slot comes up. Expiry is late by up to one tick.
+public final class ReservationTimer implements AutoCloseable {
+
+    private static final VarHandle PENDING;
+    private static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+    private static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    static {
+        try {
+            PENDING = MethodHandles.lookup().findVarHandle(ReservationTimer.class, "pending", MaterialReservation.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // used by warehouses that were not given their own timer
+    static final ReservationTimer DEFAULT = new ReservationTimer();
+
+    private final long tickNanos;
+    private final int mask;
+    // slot lists, only touched by the timer thread
+    private final MaterialReservation[] wheel;
+    private volatile MaterialReservation pending;
+    private volatile boolean closed;
+    private volatile Thread worker;
+    private long startedAt;
+    private long tick;
+
+    public ReservationTimer() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    // wheelSize is rounded up to a power of two
+    public ReservationTimer(Duration tick, int wheelSize) {
+        if (tick.toNanos() <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("Tick and wheel size must be positive.");
+        this.tickNanos = tick.toNanos();
+        this.wheel = new MaterialReservation[wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1];
+        this.mask = wheel.length - 1;
+    }
+
+    void schedule(MaterialReservation reservation, Duration ttl) {
+        if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("Reservation time must be positive.");
+        if (closed) throw new IllegalStateException("Reservation timer is closed.");
+        if (worker == null) start();
+        reservation.deadline = System.nanoTime() + ttl.toNanos();
+        MaterialReservation head;
+        do {
+            head = pending;
+            reservation.next = head;
+        } while (!PENDING.compareAndSet(this, head, reservation));
+    }
+
+    // Stops the thread. Reservations still waiting are left as they are and never expire.
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        Thread thread = worker;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    private synchronized void start() {
+        if (worker != null) return;
+        startedAt = System.nanoTime();
+        worker = new Thread(this::run, "warehouse-reservation-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            long wait = startedAt + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            transferPending();
+            expireSlot(wheel[(int) (tick & mask)], (int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        MaterialReservation reservation = (MaterialReservation) PENDING.getAndSet(this, null);
+        while (reservation != null) {
+            MaterialReservation following = reservation.next;
+            if (reservation.isActive()) {
+                // the slot of the deadline's tick, never one that has already been passed
+                long due = Math.max(tick, (reservation.deadline - startedAt + tickNanos - 1) / tickNanos);
+                reservation.remainingRounds = (due - tick) / wheel.length;
+                int slot = (int) (due & mask);
+                reservation.next = wheel[slot];
+                wheel[slot] = reservation;
+            }
+            reservation = following;
+        }
+    }
+
+    private void expireSlot(MaterialReservation head, int slot) {
+        MaterialReservation kept = null;
+        for (MaterialReservation reservation = head; reservation != null; ) {
+            MaterialReservation following = reservation.next;
+            if (reservation.isActive() && reservation.remainingRounds > 0) {
+                reservation.remainingRounds--;
+                reservation.next = kept;
+                kept = reservation;
+            } else if (reservation.isActive()) {
+                reservation.next = null;
+                try {
+                    reservation.expire();
+                } catch (RuntimeException e) {
+                    // one failing release must not stop the wheel
+                    worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+                }
+            }
+            reservation = following;
+        }
+        wheel[slot] = kept;
+    }
+}
@@ -0,0 +1,277 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.ConcurrentWarehouseMaterial;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+// LongAdder-style material: quantity and free space are spread over per-thread stripes, each on its
+// own cache line. A stripe owns a budget of free space it can fill without touching the others; when
+// it runs out it refills from the shared unassigned pool and, as a last resort, collects the budgets
+// of other stripes. Totals are exact once writers are quiescent.
+public class StripedWarehouseMaterial implements ConcurrentWarehouseMaterial {
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // 16 longs = 128 bytes between stripes, enough to keep adjacent-line prefetch apart
+    private static final int STRIDE = 16;
+    private static final int QUANTITY = 0;
+    private static final int SPACE = 1;
+    // smallest power of two that gives every processor its own stripe
+    private static final int DEFAULT_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    @Getter
+    private final MaterialType materialType;
+    private final long[] cells;
+    private final int mask;
+    private final long refillChunk;
+    private final AtomicLong capacity;
+    private final AtomicLong unassignedSpace;
+    private final AtomicLong reservedSpace = new AtomicLong();
+    private final AtomicLong heldQuantity = new AtomicLong();
+
+    public StripedWarehouseMaterial(MaterialType materialType) {
+        this(materialType, materialType.initialCapacity(), 0);
+    }
+
+    public StripedWarehouseMaterial(MaterialType materialType, long capacity) {
+        this(materialType, capacity, 0);
+    }
+
+    public StripedWarehouseMaterial(MaterialType materialType, long capacity, long quantity) {
+        this(materialType, capacity, quantity, DEFAULT_STRIPES);
+    }
+
+    public StripedWarehouseMaterial(MaterialType materialType, long capacity, long quantity, int stripes) {
+        if (Integer.bitCount(stripes) != 1) throw new IllegalArgumentException("Stripe count must be a power of two.");
+        if (quantity > capacity) throw new NoEnoughSpaceException(materialType);
+        this.materialType = materialType;
+        this.cells = new long[stripes * STRIDE];
+        this.mask = stripes - 1;
+        this.refillChunk = Math.max(1, capacity / (stripes * 4L));
+        this.capacity = new AtomicLong(capacity);
+        this.unassignedSpace = new AtomicLong(capacity - quantity);
+        this.cells[QUANTITY] = quantity;
+    }
+
+    @Override
+    public long getQuantity() {
+        return sum(QUANTITY) + heldQuantity.get();
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity.get();
+    }
+
+    @Override
+    public long getAvailableSpace() {
+        return unassignedSpace.get() + sum(SPACE);
+    }
+
+    @Override
+    public boolean canPut(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        return getAvailableSpace() >= quantity;
+    }
+
+    @Override
+    public boolean canTake(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        return sum(QUANTITY) >= quantity;
+    }
+
+    @Override
+    public long put(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int stripe = stripe();
+        if (!acquireSpace(stripe, quantity)) throw new NoEnoughSpaceException(materialType);
+        add(stripe, QUANTITY, quantity);
+        return getQuantity();
+    }
+
+    @Override
+    public long take(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int stripe = stripe();
+        if (!tryDecrement(stripe, QUANTITY, quantity) && collect(stripe, QUANTITY, quantity) < quantity) {
+            throw new NoEnoughMaterialException(materialType);
+        }
+        add(stripe, SPACE, quantity);
+        return getQuantity();
+    }
+
+    @Override
+    public synchronized long increaseCapacity(long newCapacity) {
+        long current = capacity.get();
+        if (newCapacity <= current)
+            throw new IllegalArgumentException("New capacity must be greater than existing.");
+        capacity.set(newCapacity);
+        unassignedSpace.addAndGet(newCapacity - current);
+        return newCapacity;
+    }
+
+    @Override
+    public void empty() {
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            long quantity = (long) CELLS.getAndSet(cells, index(stripe, QUANTITY), 0L);
+            add(stripe, SPACE, quantity);
+        }
+    }
+
+    @Override
+    public long reserveSpace(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int stripe = stripe();
+        long reserving = acquireSpace(stripe, quantity) ? quantity : collectAvailable(stripe, SPACE, quantity);
+        reservedSpace.addAndGet(reserving);
+        return reserving;
+    }
+
+    @Override
+    public long commitReservedSpace(long quantity) {
+        releaseReservation(reservedSpace, quantity);
+        add(stripe(), QUANTITY, quantity);
+        return getQuantity();
+    }
+
+    @Override
+    public void releaseReservedSpace(long quantity) {
+        releaseReservation(reservedSpace, quantity);
+        add(stripe(), SPACE, quantity);
+    }
+
+    @Override
+    public long reserveQuantity(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        int stripe = stripe();
+        long holding = tryDecrement(stripe, QUANTITY, quantity) ? quantity : collectAvailable(stripe, QUANTITY, quantity);
+        heldQuantity.addAndGet(holding);
+        return holding;
+    }
+
+    @Override
+    public long commitReservedQuantity(long quantity) {
+        releaseReservation(heldQuantity, quantity);
+        add(stripe(), SPACE, quantity);
+        return getQuantity();
+    }
+
+    @Override
+    public void releaseReservedQuantity(long quantity) {
+        releaseReservation(heldQuantity, quantity);
+        add(stripe(), QUANTITY, quantity);
+    }
+
+    @Override
+    public WarehouseMaterial clone() {
+        return new StripedWarehouseMaterial(materialType, getCapacity(), getQuantity(), mask + 1);
+    }
+
+    private static void releaseReservation(AtomicLong reservation, long quantity) {
+        long current;
+        do {
+            current = reservation.get();
+            if (current < quantity)
+                throw new IllegalStateException("Cannot release more than reserved.");
+        } while (!reservation.compareAndSet(current, current - quantity));
+    }
+
+    private boolean acquireSpace(int stripe, long quantity) {
+        if (tryDecrement(stripe, SPACE, quantity)) return true;
+        // saturated, a quantity near Long.MAX_VALUE must not wrap into a negative request
+        long refill = takeUnassigned(quantity > Long.MAX_VALUE - refillChunk ? quantity : quantity + refillChunk);
+        if (refill >= quantity) {
+            add(stripe, SPACE, refill - quantity);
+            return true;
+        }
+        add(stripe, SPACE, refill);
+        return tryDecrement(stripe, SPACE, quantity) || collect(stripe, SPACE, quantity) >= quantity;
+    }
+
+    // Takes whatever is left of a column, up to the requested quantity.
+    private synchronized long collectAvailable(int stripe, int column, long quantity) {
+        long collected = column == SPACE ? takeUnassigned(quantity) : 0;
+        collected += drain(stripe, column, quantity - collected);
+        return collected;
+    }
+
+    // Gathers the given quantity of a column from every stripe into the caller's one. The caller's
+    // stripe keeps any surplus; if the total is not enough, everything gathered is put back into the
+    // caller's stripe and the result is below the requested quantity.
+    private synchronized long collect(int stripe, int column, long quantity) {
+        long collected = column == SPACE ? takeUnassigned(quantity) : 0;
+        long gathered;
+        do {
+            gathered = drain(stripe, column, quantity - collected);
+            collected += gathered;
+        } while (collected < quantity && gathered > 0);
+        if (collected < quantity) {
+            add(stripe, column, collected);
+            return collected;
+        }
+        return quantity;
+    }
+
+    private long drain(int stripe, int column, long needed) {
+        long drained = 0;
+        for (int i = 0; i <= mask && drained < needed; i++) {
+            int other = (stripe + i) & mask;
+            drained += (long) CELLS.getAndSet(cells, index(other, column), 0L);
+        }
+        if (drained > needed) {
+            add(stripe, column, drained - needed);
+            drained = needed;
+        }
+        return drained;
+    }
+
+    private long takeUnassigned(long wanted) {
+        if (wanted < 0) throw new NegativeTransferringMaterialCount();
+        long current;
+        long taken;
+        do {
+            current = unassignedSpace.get();
+            taken = Math.min(current, wanted);
+            if (taken == 0) return 0;
+        } while (!unassignedSpace.compareAndSet(current, current - taken));
+        return taken;
+    }
+
+    private boolean tryDecrement(int stripe, int column, long quantity) {
+        int index = index(stripe, column);
+        long current;
+        do {
+            current = (long) CELLS.getVolatile(cells, index);
+            if (current < quantity) return false;
+        } while (!CELLS.compareAndSet(cells, index, current, current - quantity));
+        return true;
+    }
+
+    private void add(int stripe, int column, long quantity) {
+        if (quantity != 0) CELLS.getAndAdd(cells, index(stripe, column), quantity);
+    }
+
+    private long sum(int column) {
+        long sum = 0;
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            sum += (long) CELLS.getVolatile(cells, index(stripe, column));
+        }
+        return sum;
+    }
+
+    private int stripe() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static int index(int stripe, int column) {
+        return stripe * STRIDE + column;
+    }
+}
@@ -0,0 +1,347 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseObserver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Edge-triggered alerts on material quantities: a reorder point fires when the quantity falls below
+// it, a fill ratio when the quantity rises above that share of the capacity. An alert fires once when
+// its threshold is crossed and clears once the quantity is back past the threshold by the hysteresis,
+// so a quantity moving around the threshold doesn't flap.
+//
+// Every warehouse with rules gets an observer and a cell per material type with rules. A cell keeps
+// its rules in arrays sorted by the boundaries they fire and clear at, so a change from one quantity
+// to the next only visits the rules whose boundary lies in between. Rule changes swap in new arrays.
+// A change is evaluated under the cell's monitor against the quantity last seen, alerts are delivered
+// after it is released, in the order the boundaries were crossed.
+public class ThresholdAlerts {
+
+    private final Consumer<Alert> listener;
+    private final Map<Long, Tracker> trackers = new ConcurrentHashMap<>();
+
+    public ThresholdAlerts(Consumer<Alert> listener) {
+        this.listener = listener;
+    }
+
+    public enum Direction {
+        BELOW,
+        ABOVE
+    }
+
+    // Rules compare by identity, two rules with the same threshold alert separately.
+    public static final class Rule {
+        private final long warehouseId;
+        private final MaterialType materialType;
+        private final Direction direction;
+        private final long threshold;
+        private final long hysteresis;
+
+        private Rule(long warehouseId, MaterialType materialType, Direction direction, long threshold, long hysteresis) {
+            this.warehouseId = warehouseId;
+            this.materialType = materialType;
+            this.direction = direction;
+            this.threshold = threshold;
+            this.hysteresis = hysteresis;
+        }
+
+        public long getWarehouseId() {
+            return warehouseId;
+        }
+
+        public MaterialType getMaterialType() {
+            return materialType;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public long getThreshold() {
+            return threshold;
+        }
+
+        public long getHysteresis() {
+            return hysteresis;
+        }
+
+        // quantity at which an active rule clears
+        long rearm() {
+            return direction == Direction.BELOW ? threshold + hysteresis : threshold - hysteresis;
+        }
+
+        boolean holds(long quantity) {
+            return direction == Direction.BELOW ? quantity < threshold : quantity > threshold;
+        }
+    }
+
+    // fired is false for the alert that clears a rule
+    public record Alert(Rule rule, long quantity, boolean fired) {
+    }
+
+    // Fires while the quantity is below reorderPoint, clears at reorderPoint + hysteresis.
+    // A rule added while its condition already holds fires right away.
+    public Rule reorderPoint(Warehouse warehouse, MaterialType materialType, long reorderPoint, long hysteresis) {
+        return addRule(warehouse, materialType, Direction.BELOW, reorderPoint, hysteresis);
+    }
+
+    // Fires while the quantity is above ratio of the capacity the material has when the rule is added,
+    // clears at that threshold - hysteresis.
+    public Rule fillRatio(Warehouse warehouse, MaterialType materialType, double ratio, long hysteresis) {
+        if (ratio < 0 || ratio > 1) throw new IllegalArgumentException("Fill ratio must be between 0 and 1.");
+        long capacity = warehouse.getMaterialQuantity(materialType) + warehouse.getMaterialAvailableSpace(materialType);
+        return addRule(warehouse, materialType, Direction.ABOVE, (long) (ratio * capacity), hysteresis);
+    }
+
+    public boolean removeRule(Rule rule) {
+        Tracker tracker = trackers.get(rule.warehouseId);
+        Cell cell = tracker == null ? null : tracker.cells.get(rule.materialType);
+        if (cell == null) return false;
+        synchronized (cell) {
+            RuleIndex without = cell.rules.without(rule);
+            if (without == cell.rules) return false;
+            cell.rules = without;
+            cell.active.remove(rule);
+        }
+        return true;
+    }
+
+    // Drops every rule of the warehouse.
+    public void untrack(Warehouse warehouse) {
+        Tracker tracker = trackers.remove(warehouse.getId());
+        if (tracker != null) warehouse.unregisterObserver(tracker);
+    }
+
+    public boolean isActive(Rule rule) {
+        Tracker tracker = trackers.get(rule.warehouseId);
+        Cell cell = tracker == null ? null : tracker.cells.get(rule.materialType);
+        if (cell == null) return false;
+        synchronized (cell) {
+            return cell.active.contains(rule);
+        }
+    }
+
+    private Rule addRule(Warehouse warehouse, MaterialType materialType, Direction direction, long threshold, long hysteresis) {
+        if (hysteresis < 0) throw new IllegalArgumentException("Hysteresis must not be negative.");
+        if (direction == Direction.BELOW ? threshold > Long.MAX_VALUE - hysteresis : threshold < Long.MIN_VALUE + hysteresis)
+            throw new IllegalArgumentException("Hysteresis puts the clearing boundary out of range.");
+        Rule rule = new Rule(warehouse.getId(), materialType, direction, threshold, hysteresis);
+        Tracker tracker = trackers.computeIfAbsent(warehouse.getId(), id -> {
+            Tracker created = new Tracker(warehouse);
+            warehouse.registerObserver(created);
+            return created;
+        });
+        Cell cell = tracker.cells.computeIfAbsent(materialType, type -> new Cell(warehouse.getMaterialQuantity(type)));
+        Alert alert = null;
+        synchronized (cell) {
+            cell.rules = cell.rules.with(rule);
+            if (rule.holds(cell.quantity)) {
+                cell.active.add(rule);
+                alert = new Alert(rule, cell.quantity, true);
+            }
+        }
+        if (alert != null) listener.accept(alert);
+        return rule;
+    }
+
+    private final class Tracker implements WarehouseObserver {
+        private final Warehouse warehouse;
+        private final MaterialTable<Cell> cells = new MaterialTable<>();
+
+        private Tracker(Warehouse warehouse) {
+            this.warehouse = warehouse;
+        }
+
+        @Override
+        public void onMaterialAdded(MaterialType materialType, long quantity) {
+            evaluate(materialType);
+        }
+
+        @Override
+        public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            evaluate(materialType);
+        }
+
+        // reads the quantity rather than adding the delta, so a change missed or reordered between
+        // observers can't leave the cell off for good
+        private void evaluate(MaterialType materialType) {
+            Cell cell = cells.get(materialType);
+            if (cell == null) return;
+            List<Alert> alerts;
+            synchronized (cell) {
+                long previous = cell.quantity;
+                long current = warehouse.getMaterialQuantity(materialType);
+                if (previous == current) return;
+                cell.quantity = current;
+                alerts = cell.rules.crossed(previous, current, cell.active);
+            }
+            for (int i = 0; i < alerts.size(); i++) {
+                listener.accept(alerts.get(i));
+            }
+        }
+    }
+
+    private static final class Cell {
+        // guarded by the cell's monitor
+        private long quantity;
+        private RuleIndex rules = RuleIndex.EMPTY;
+        private final Set<Rule> active = new HashSet<>();
+
+        private Cell(long quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    // The rules of one cell, sorted by each boundary they react to:
+    //   BELOW fires at threshold going down and clears at threshold + hysteresis going up,
+    //   ABOVE fires above threshold going up and clears at threshold - hysteresis going down.
+    private static final class RuleIndex {
+        private static final RuleIndex EMPTY = new RuleIndex(Boundaries.EMPTY, Boundaries.EMPTY, Boundaries.EMPTY, Boundaries.EMPTY);
+
+        private final Boundaries belowFire;
+        private final Boundaries belowClear;
+        private final Boundaries aboveFire;
+        private final Boundaries aboveClear;
+
+        private RuleIndex(Boundaries belowFire, Boundaries belowClear, Boundaries aboveFire, Boundaries aboveClear) {
+            this.belowFire = belowFire;
+            this.belowClear = belowClear;
+            this.aboveFire = aboveFire;
+            this.aboveClear = aboveClear;
+        }
+
+        // a copy of the two arrays the rule belongs to, the other two are shared
+        RuleIndex with(Rule rule) {
+            return rule.direction == Direction.BELOW
+                    ? new RuleIndex(belowFire.with(rule, rule.threshold), belowClear.with(rule, rule.rearm()), aboveFire, aboveClear)
+                    : new RuleIndex(belowFire, belowClear, aboveFire.with(rule, rule.threshold), aboveClear.with(rule, rule.rearm()));
+        }
+
+        RuleIndex without(Rule rule) {
+            if (rule.direction == Direction.BELOW) {
+                Boundaries fire = belowFire.without(rule, rule.threshold);
+                return fire == belowFire ? this : new RuleIndex(fire, belowClear.without(rule, rule.rearm()), aboveFire, aboveClear);
+            }
+            Boundaries fire = aboveFire.without(rule, rule.threshold);
+            return fire == aboveFire ? this : new RuleIndex(belowFire, belowClear, fire, aboveClear.without(rule, rule.rearm()));
+        }
+
+        // Alerts for a change from previous to current, boundaries visited in the order the quantity passes them.
+        List<Alert> crossed(long previous, long current, Set<Rule> active) {
+            List<Alert> alerts = List.of();
+            if (current < previous) {
+                // BELOW fires when previous >= threshold > current, ABOVE clears when previous > rearm >= current
+                int fireEnd = belowFire.upperBound(current);
+                int clearEnd = aboveClear.lowerBound(current);
+                int fire = belowFire.upperBound(previous) - 1;
+                int clear = aboveClear.lowerBound(previous) - 1;
+                while (fire >= fireEnd || clear >= clearEnd) {
+                    // highest boundary first, a clear before a fire at the same boundary
+                    if (clear >= clearEnd && (fire < fireEnd || aboveClear.bounds[clear] >= belowFire.bounds[fire])) {
+                        alerts = transition(aboveClear.rules[clear--], current, active, false, alerts);
+                    } else {
+                        alerts = transition(belowFire.rules[fire--], current, active, true, alerts);
+                    }
+                }
+            } else {
+                // ABOVE fires when previous <= threshold < current, BELOW clears when previous < rearm <= current
+                int fireEnd = aboveFire.lowerBound(current);
+                int clearEnd = belowClear.upperBound(current);
+                int fire = aboveFire.lowerBound(previous);
+                int clear = belowClear.upperBound(previous);
+                while (fire < fireEnd || clear < clearEnd) {
+                    // lowest boundary first, a clear before a fire at the same boundary
+                    if (clear < clearEnd && (fire >= fireEnd || belowClear.bounds[clear] <= aboveFire.bounds[fire])) {
+                        alerts = transition(belowClear.rules[clear++], current, active, false, alerts);
+                    } else {
+                        alerts = transition(aboveFire.rules[fire++], current, active, true, alerts);
+                    }
+                }
+            }
+            return alerts;
+        }
+
+        private static List<Alert> transition(Rule rule, long quantity, Set<Rule> active, boolean fire, List<Alert> alerts) {
+            if (fire ? !active.add(rule) : !active.remove(rule)) return alerts;
+            if (alerts.isEmpty()) alerts = new ArrayList<>();
+            alerts.add(new Alert(rule, quantity, fire));
+            return alerts;
+        }
+    }
+
+    private static final class Boundaries {
+        private final long[] bounds;
+        private final Rule[] rules;
+
+        private static final Boundaries EMPTY = new Boundaries(new long[0], new Rule[0]);
+
+        private Boundaries(long[] bounds, Rule[] rules) {
+            this.bounds = bounds;
+            this.rules = rules;
+        }
+
+        Boundaries with(Rule rule, long boundary) {
+            int index = lowerBound(boundary);
+            long[] grownBounds = new long[bounds.length + 1];
+            Rule[] grownRules = new Rule[rules.length + 1];
+            System.arraycopy(bounds, 0, grownBounds, 0, index);
+            System.arraycopy(rules, 0, grownRules, 0, index);
+            grownBounds[index] = boundary;
+            grownRules[index] = rule;
+            System.arraycopy(bounds, index, grownBounds, index + 1, bounds.length - index);
+            System.arraycopy(rules, index, grownRules, index + 1, rules.length - index);
+            return new Boundaries(grownBounds, grownRules);
+        }
+
+        // this when the rule isn't here
+        Boundaries without(Rule rule, long boundary) {
+            for (int i = lowerBound(boundary); i < bounds.length && bounds[i] == boundary; i++) {
+                if (rules[i] != rule) continue;
+                long[] shrunkBounds = new long[bounds.length - 1];
+                Rule[] shrunkRules = new Rule[rules.length - 1];
+                System.arraycopy(bounds, 0, shrunkBounds, 0, i);
+                System.arraycopy(rules, 0, shrunkRules, 0, i);
+                System.arraycopy(bounds, i + 1, shrunkBounds, i, bounds.length - i - 1);
+                System.arraycopy(rules, i + 1, shrunkRules, i, rules.length - i - 1);
+                return new Boundaries(shrunkBounds, shrunkRules);
+            }
+            return this;
+        }
+
+        // index of the first boundary >= key
+        int lowerBound(long key) {
+            int low = 0;
+            int high = bounds.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (bounds[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // index of the first boundary > key, not lowerBound(key + 1), which overflows at Long.MAX_VALUE
+        int upperBound(long key) {
+            int low = 0;
+            int high = bounds.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (bounds[middle] <= key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
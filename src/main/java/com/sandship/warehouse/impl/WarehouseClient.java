@@ -0,0 +1,194 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.sandship.warehouse.impl.WarehouseProtocol.*;
+
+// One pipelined connection to a WarehouseServer. Calls don't wait for earlier ones, every call
+// returns a future completed by the connection's reader thread when the response arrives; failures
+// complete it with the exception the warehouse threw. Concurrent callers share the socket, their
+// requests are flushed by whoever finishes writing last. Requests sent from a completion, on the
+// reader thread, are flushed when the reader runs out of responses, so a closed loop of callbacks
+// batches its writes too.
+public class WarehouseClient implements AutoCloseable {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Thread reader;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, Call> calls = new ConcurrentHashMap<>();
+    // this connection's numbering of material types, guarded by out
+    private final Map<MaterialType, Integer> types = new ConcurrentHashMap<>();
+    private final AtomicInteger writers = new AtomicInteger();
+    // written by the reader thread without a flush, guarded by out
+    private boolean unflushed;
+    private volatile boolean closed;
+
+    public WarehouseClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+        this.reader = new Thread(this::read, "warehouse-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public CompletableFuture<Long> getMaterialQuantity(long warehouseId, MaterialType materialType) {
+        return send(QUANTITY, warehouseId, 0, materialType, 0);
+    }
+
+    public CompletableFuture<Long> getMaterialAvailableSpace(long warehouseId, MaterialType materialType) {
+        return send(AVAILABLE_SPACE, warehouseId, 0, materialType, 0);
+    }
+
+    // completes with the new quantity
+    public CompletableFuture<Long> addMaterial(long warehouseId, MaterialType materialType, long quantity) {
+        return send(ADD, warehouseId, 0, materialType, quantity);
+    }
+
+    // completes with the new quantity
+    public CompletableFuture<Long> removeMaterial(long warehouseId, MaterialType materialType, long quantity) {
+        return send(REMOVE, warehouseId, 0, materialType, quantity);
+    }
+
+    // completes with the transferred quantity
+    public CompletableFuture<Long> putMaterialTo(long sourceId, long destinationId, MaterialType materialType, long quantity) {
+        return send(TRANSFER, sourceId, destinationId, materialType, quantity);
+    }
+
+    public CompletableFuture<Boolean> canPut(long warehouseId, MaterialType materialType, long quantity) {
+        return send(CAN_PUT, warehouseId, 0, materialType, quantity).thenApply(value -> value != 0);
+    }
+
+    public CompletableFuture<Boolean> canTake(long warehouseId, MaterialType materialType, long quantity) {
+        return send(CAN_TAKE, warehouseId, 0, materialType, quantity).thenApply(value -> value != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+    }
+
+    private CompletableFuture<Long> send(byte operation, long warehouseId, long destinationId,
+                                         MaterialType materialType, long quantity) {
+        if (closed) return CompletableFuture.failedFuture(new IllegalStateException("Warehouse connection closed."));
+        Call call = new Call(materialType);
+        long requestId = requestIds.incrementAndGet();
+        calls.put(requestId, call);
+        boolean onReader = Thread.currentThread() == reader;
+        writers.incrementAndGet();
+        try {
+            synchronized (out) {
+                int type = typeOf(materialType);
+                boolean hasQuantity = operation != QUANTITY && operation != AVAILABLE_SPACE;
+                int length = 8 + 1 + 8 + 4 + (operation == TRANSFER ? 8 : 0) + (hasQuantity ? 8 : 0);
+                out.writeInt(length);
+                out.writeLong(requestId);
+                out.writeByte(operation);
+                out.writeLong(warehouseId);
+                if (operation == TRANSFER) out.writeLong(destinationId);
+                out.writeInt(type);
+                if (hasQuantity) out.writeLong(quantity);
+                if (writers.decrementAndGet() == 0 && !onReader) {
+                    out.flush();
+                } else {
+                    unflushed |= onReader;
+                }
+            }
+        } catch (IOException e) {
+            calls.remove(requestId);
+            call.future.completeExceptionally(new UncheckedIOException(e));
+        }
+        return call.future;
+    }
+
+    // Caller holds out. The server reads requests in order, so a type defined here is known to every later request.
+    private int typeOf(MaterialType materialType) throws IOException {
+        Integer type = types.get(materialType);
+        if (type != null) return type;
+        type = types.size();
+        long requestId = requestIds.incrementAndGet();
+        calls.put(requestId, new Call(materialType));
+        out.writeInt(8 + 1 + 4 + 8 + stringBytes(materialType.name()) + stringBytes(materialType.description())
+                + stringBytes(materialType.icon()));
+        out.writeLong(requestId);
+        out.writeByte(DEFINE_TYPE);
+        out.writeInt(type);
+        out.writeLong(materialType.initialCapacity());
+        writeString(out, materialType.name());
+        writeString(out, materialType.description());
+        writeString(out, materialType.icon());
+        types.put(materialType, type);
+        return type;
+    }
+
+    private void read() {
+        IOException failure = null;
+        try {
+            while (true) {
+                if (in.available() == 0) flushDeferred();
+                long requestId = in.readLong();
+                byte status = in.readByte();
+                long value = in.readLong();
+                Call call = calls.remove(requestId);
+                if (call != null) call.complete(status, value);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            closed = true;
+            IllegalStateException closedException = new IllegalStateException("Warehouse connection closed.", failure);
+            for (Long requestId : calls.keySet()) {
+                Call call = calls.remove(requestId);
+                if (call != null) call.future.completeExceptionally(closedException);
+            }
+        }
+    }
+
+    private void flushDeferred() throws IOException {
+        synchronized (out) {
+            if (!unflushed) return;
+            unflushed = false;
+            out.flush();
+        }
+    }
+
+    private static final class Call {
+        private final MaterialType materialType;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private Call(MaterialType materialType) {
+            this.materialType = materialType;
+        }
+
+        void complete(byte status, long value) {
+            switch (status) {
+                case OK -> future.complete(value);
+                case NO_MATERIAL -> future.completeExceptionally(new NoEnoughMaterialException(materialType));
+                case NO_SPACE -> future.completeExceptionally(new NoEnoughSpaceException(materialType));
+                case UNKNOWN_WAREHOUSE -> future.completeExceptionally(new IllegalArgumentException("Unknown warehouse."));
+                case BAD_REQUEST -> future.completeExceptionally(new IllegalArgumentException("Bad request."));
+                default -> future.completeExceptionally(new IllegalStateException("Request failed on the server."));
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Single-writer front of one warehouse. Producers push commands onto a lock-free stack and never touch
+// the warehouse; one drain at a time runs on the executor, takes everything pushed so far and applies
+// it as a batch. Inside a batch the commands are grouped by material type in submission order, and a
+// run of adds (or of removes) of one type folds into a single change: one lock acquisition, one
+// observer notification, one journal record and one index refresh for the whole run. If the folded
+// change doesn't fit, the run is applied command by command so only the commands that don't fit fail.
+// Commands of different material types may be applied in a different order than they were submitted.
+public class WarehouseCommandQueue {
+
+    private static final VarHandle PENDING;
+    private static final VarHandle SCHEDULED;
+    // batches one drain applies before it gives its executor thread back
+    private static final int BATCHES_PER_DRAIN = 16;
+    // stable sort keeps the submission order inside a material type
+    private static final Comparator<Command> BY_TYPE = Comparator.comparingInt(command -> command.materialType.id());
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PENDING = lookup.findVarHandle(WarehouseCommandQueue.class, "pending", Command.class);
+            SCHEDULED = lookup.findVarHandle(WarehouseCommandQueue.class, "scheduled", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Warehouse warehouse;
+    private final Executor executor;
+    // newest first
+    private volatile Command pending;
+    private volatile boolean scheduled;
+    // only touched by the drain
+    private Command[] batch = new Command[64];
+
+    public WarehouseCommandQueue(Warehouse warehouse) {
+        this(warehouse, ForkJoinPool.commonPool());
+    }
+
+    public WarehouseCommandQueue(Warehouse warehouse, Executor executor) {
+        this.warehouse = warehouse;
+        this.executor = executor;
+    }
+
+    public Warehouse getWarehouse() {
+        return warehouse;
+    }
+
+    // completes with the quantity right after this add
+    public CompletableFuture<Long> addMaterial(MaterialType materialType, long quantity) {
+        return submit(new Command(Command.ADD, materialType, quantity, null));
+    }
+
+    // completes with the quantity right after this remove
+    public CompletableFuture<Long> removeMaterial(MaterialType materialType, long quantity) {
+        return submit(new Command(Command.REMOVE, materialType, quantity, null));
+    }
+
+    // Never folded, runs in order with the adds and removes of its material type. Completes with the transferred quantity.
+    public CompletableFuture<Long> putMaterialTo(Warehouse destination, MaterialType materialType, long quantity) {
+        return submit(new Command(Command.TRANSFER, materialType, quantity, destination));
+    }
+
+    private CompletableFuture<Long> submit(Command command) {
+        if (command.quantity < 0) return CompletableFuture.failedFuture(new NegativeTransferringMaterialCount());
+        Command head;
+        do {
+            head = pending;
+            command.next = head;
+        } while (!PENDING.compareAndSet(this, head, command));
+        if (!scheduled && SCHEDULED.compareAndSet(this, false, true)) {
+            executor.execute(this::drain);
+        }
+        return command.future;
+    }
+
+    // A producer that pushes while the drain is giving up schedules the next one, so nothing is left behind.
+    // An Error out of a batch ends the drain early, it still gives up its turn so later commands get a drain.
+    private void drain() {
+        boolean handedOver = false;
+        try {
+            for (int batches = 0; batches < BATCHES_PER_DRAIN; batches++) {
+                Command head = (Command) PENDING.getAndSet(this, null);
+                if (head == null) {
+                    scheduled = false;
+                    if (pending == null || !SCHEDULED.compareAndSet(this, false, true)) {
+                        handedOver = true;
+                        return;
+                    }
+                    continue;
+                }
+                apply(head);
+            }
+            handedOver = true;
+            executor.execute(this::drain);
+        } finally {
+            if (!handedOver) {
+                scheduled = false;
+                if (pending != null && SCHEDULED.compareAndSet(this, false, true)) executor.execute(this::drain);
+            }
+        }
+    }
+
+    private void apply(Command head) {
+        int size = 0;
+        for (Command command = head; command != null; command = command.next) {
+            size++;
+        }
+        if (size > batch.length) batch = new Command[Integer.highestOneBit(size - 1) << 1];
+        // the stack is newest first, fill from the back to get submission order
+        int index = size;
+        for (Command command = head; command != null; command = command.next) {
+            batch[--index] = command;
+        }
+        Arrays.sort(batch, 0, size, BY_TYPE);
+        try {
+            int start = 0;
+            while (start < size) {
+                Command first = batch[start];
+                int end = start + 1;
+                if (first.kind != Command.TRANSFER) {
+                    long total = first.quantity;
+                    while (end < size && batch[end].kind == first.kind && batch[end].materialType.equals(first.materialType)
+                            && total <= Long.MAX_VALUE - batch[end].quantity) {
+                        total += batch[end++].quantity;
+                    }
+                    if (end - start > 1) {
+                        applyFolded(start, end, total);
+                    } else {
+                        applySingle(first);
+                    }
+                } else {
+                    applySingle(first);
+                }
+                start = end;
+            }
+        } catch (Error e) {
+            // e.g. from an observer, the commands of the batch that didn't complete yet fail with it
+            for (int i = 0; i < size; i++) {
+                batch[i].future.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            Arrays.fill(batch, 0, size, null);
+        }
+    }
+
+    private void applyFolded(int start, int end, long total) {
+        Command first = batch[start];
+        long quantity;
+        try {
+            quantity = first.kind == Command.ADD
+                    ? warehouse.addMaterial(first.materialType, total)
+                    : warehouse.removeMaterial(first.materialType, total);
+        } catch (NoEnoughSpaceException | NoEnoughMaterialException e) {
+            for (int i = start; i < end; i++) {
+                applySingle(batch[i]);
+            }
+            return;
+        } catch (RuntimeException e) {
+            // the change may already be applied, e.g. when an observer failed, so it isn't retried
+            for (int i = start; i < end; i++) {
+                batch[i].future.completeExceptionally(e);
+            }
+            return;
+        }
+        // hand every command the quantity it would have seen on its own
+        long running = first.kind == Command.ADD ? quantity - total : quantity + total;
+        for (int i = start; i < end; i++) {
+            Command command = batch[i];
+            running += first.kind == Command.ADD ? command.quantity : -command.quantity;
+            command.future.complete(running);
+        }
+    }
+
+    private void applySingle(Command command) {
+        long result;
+        try {
+            result = switch (command.kind) {
+                case Command.ADD -> warehouse.addMaterial(command.materialType, command.quantity);
+                case Command.REMOVE -> warehouse.removeMaterial(command.materialType, command.quantity);
+                default -> warehouse.putMaterialTo(command.destination, command.materialType, command.quantity);
+            };
+        } catch (RuntimeException e) {
+            command.future.completeExceptionally(e);
+            return;
+        }
+        command.future.complete(result);
+    }
+
+    private static final class Command {
+        static final byte ADD = 0;
+        static final byte REMOVE = 1;
+        static final byte TRANSFER = 2;
+
+        private final byte kind;
+        private final MaterialType materialType;
+        private final long quantity;
+        private final Warehouse destination;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private Command next;
+
+        private Command(byte kind, MaterialType materialType, long quantity, Warehouse destination) {
+            this.kind = kind;
+            this.materialType = materialType;
+            this.quantity = quantity;
+            this.destination = destination;
+        }
+    }
+}
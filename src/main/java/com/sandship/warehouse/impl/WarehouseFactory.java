@@ -0,0 +1,104 @@
+package com.sandship.warehouse.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Creates warehouses and finds them again by id. Ids come from per-thread blocks (WarehouseIds), so
+// concurrent creation doesn't contend on a counter. The registry is a directory of fixed-size chunks
+// indexed by id, a lookup is two array loads; chunks are allocated when the first id in their range
+// is registered. Bulk creation takes one range of ids and builds the warehouses in parallel.
+public class WarehouseFactory {
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(WarehouseImpl[].class);
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final MaterialStorage storage;
+    private final Map<MaterialType, MaterialStorage> storageByType;
+    private volatile WarehouseImpl[][] chunks = new WarehouseImpl[0][];
+    private final LongAdder size = new LongAdder();
+
+    public WarehouseFactory() {
+        this(MaterialStorage.SYNCHRONIZED);
+    }
+
+    public WarehouseFactory(MaterialStorage storage) {
+        this(storage, Map.of());
+    }
+
+    public WarehouseFactory(MaterialStorage storage, Map<MaterialType, MaterialStorage> storageByType) {
+        this.storage = storage;
+        this.storageByType = Map.copyOf(storageByType);
+    }
+
+    public WarehouseImpl create() {
+        WarehouseImpl warehouse = new WarehouseImpl(WarehouseIds.next(), storage, storageByType);
+        register(warehouse);
+        return warehouse;
+    }
+
+    // The warehouses get consecutive ids, in array order.
+    public WarehouseImpl[] createBulk(int count) {
+        long first = WarehouseIds.nextRange(count);
+        // chunks are allocated up front, the workers below never take the lock
+        for (long chunkStart = first & ~CHUNK_MASK; chunkStart < first + count; chunkStart += CHUNK_MASK + 1) {
+            chunk(chunkStart);
+        }
+        WarehouseImpl[] warehouses = new WarehouseImpl[count];
+        Arrays.parallelSetAll(warehouses, i -> {
+            WarehouseImpl warehouse = new WarehouseImpl(first + i, storage, storageByType);
+            SLOTS.setRelease(chunk(first + i), (int) ((first + i) & CHUNK_MASK), warehouse);
+            return warehouse;
+        });
+        size.add(count);
+        return warehouses;
+    }
+
+    // Makes a warehouse created elsewhere findable through this factory.
+    public void register(WarehouseImpl warehouse) {
+        long id = warehouse.getId();
+        if (!SLOTS.compareAndSet(chunk(id), (int) (id & CHUNK_MASK), null, warehouse))
+            throw new IllegalStateException("Warehouse " + id + " is registered already.");
+        size.increment();
+    }
+
+    public WarehouseImpl get(long id) {
+        WarehouseImpl[][] current = chunks;
+        long chunkIndex = id >>> CHUNK_SHIFT;
+        if (id < 0 || chunkIndex >= current.length || current[(int) chunkIndex] == null) return null;
+        return (WarehouseImpl) SLOTS.getAcquire(current[(int) chunkIndex], (int) (id & CHUNK_MASK));
+    }
+
+    public boolean remove(long id) {
+        WarehouseImpl warehouse = get(id);
+        if (warehouse == null || !SLOTS.compareAndSet(chunk(id), (int) (id & CHUNK_MASK), warehouse, null)) return false;
+        size.decrement();
+        return true;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    private WarehouseImpl[] chunk(long id) {
+        WarehouseImpl[][] current = chunks;
+        long chunkIndex = id >>> CHUNK_SHIFT;
+        if (chunkIndex < current.length && current[(int) chunkIndex] != null) return current[(int) chunkIndex];
+        return allocateChunk(id);
+    }
+
+    // Readers keep using the directory they loaded, it shares its chunks with the grown one.
+    private synchronized WarehouseImpl[] allocateChunk(long id) {
+        if (id < 0 || (id >>> CHUNK_SHIFT) >= Integer.MAX_VALUE) throw new IllegalArgumentException("Warehouse id out of range.");
+        int chunkIndex = (int) (id >>> CHUNK_SHIFT);
+        WarehouseImpl[][] current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) return current[chunkIndex];
+        WarehouseImpl[][] grown = Arrays.copyOf(current, Math.max(chunkIndex + 1, current.length));
+        grown[chunkIndex] = new WarehouseImpl[CHUNK_MASK + 1];
+        chunks = grown;
+        return grown[chunkIndex];
+    }
+}
@@ -0,0 +1,43 @@
+package com.sandship.warehouse.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Unique warehouse ids without a shared hot counter. A thread takes a block of ids from one atomic
+// counter and hands them out on its own, so concurrent creation touches the counter once per block.
+// Lock ordering between warehouses only needs ids to be unique, not dense or in creation order.
+final class WarehouseIds {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final AtomicLong NEXT = new AtomicLong();
+    private static final ThreadLocal<Block> BLOCKS = ThreadLocal.withInitial(Block::new);
+    // ids below the floor may belong to recovered warehouses, what is left of a block under it is dropped
+    private static volatile long floor;
+
+    private WarehouseIds() {
+    }
+
+    static long next() {
+        Block block = BLOCKS.get();
+        if (block.next >= block.end || block.next < floor) {
+            block.next = NEXT.getAndAdd(BLOCK_SIZE);
+            block.end = block.next + BLOCK_SIZE;
+        }
+        return block.next++;
+    }
+
+    // First id of count consecutive ids.
+    static long nextRange(int count) {
+        return NEXT.getAndAdd(count);
+    }
+
+    // Keeps an id that was handed out before, e.g. by a recovered log, from being handed out again.
+    static synchronized void claim(long id) {
+        NEXT.accumulateAndGet(id + 1, Math::max);
+        if (id >= floor) floor = id + 1;
+    }
+
+    private static final class Block {
+        private long next;
+        private long end;
+    }
+}
@@ -2,27 +2,132 @@ package com.sandship.warehouse.impl;
 
 import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
 import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.ReservationExpiredException;
 import com.sandship.warehouse.api.*;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
-@AllArgsConstructor
 public class WarehouseImpl extends AbstractWarehouseSubject implements Warehouse {
 
-    // LAST_INSTANCE_ID is just for test, id should be generated automatically in db.
-    private static long LAST_INSTANCE_ID = 0;
+    // optimistic transfer attempts before both materials are locked
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+    private static final long CONFLICT = -1;
+    // the unlocked check found too little material, nothing was claimed
+    private static final long INSUFFICIENT = -2;
 
     @Getter
-    private long id;
-    private ConcurrentHashMap<MaterialType, WarehouseMaterial> materialList;
+    private final long id;
+    // indexed by interned material type id, so lookups don't hash or compare the type's strings
+    private final MaterialTable<WarehouseMaterial> materialList = new MaterialTable<>();
+    private final MaterialStorage storage;
+    // storage picked for specific material types, everything else uses the warehouse default
+    private final Map<MaterialType, MaterialStorage> storageByType;
+    // read-only views handed out by getMaterialView, created once per material
+    private final MaterialTable<WarehouseMaterial> materialViews = new MaterialTable<>();
+    // one lock per material type, never cleared, so a material emptied away and created again keeps it.
+    // Not the materials' monitors: observers and log appends run under these locks and may block,
+    // which would pin the carrier of a virtual thread holding a monitor
+    private final MaterialTable<ReentrantLock> materialLocks = new MaterialTable<>();
+    // null means changes are kept in memory only
+    private volatile WriteAheadLog journal;
+    // null means nothing is measured
+    private volatile WarehouseMetrics metrics;
+    // null means the shared default timer
+    private volatile ReservationTimer reservationTimer;
+    // null means no fleet index follows this warehouse
+    private volatile FleetAggregateIndex.Membership aggregateIndex;
+    // null means no placement index follows this warehouse
+    private volatile PlacementIndex.Membership placementIndex;
+    // null means changes are not streamed
+    private volatile ChangeLog changeLog;
 
     public WarehouseImpl() {
-        this(LAST_INSTANCE_ID, new ConcurrentHashMap<>());
-        LAST_INSTANCE_ID++;
+        this(MaterialStorage.SYNCHRONIZED);
+    }
+
+    public WarehouseImpl(MaterialStorage storage) {
+        this(storage, Map.of());
+    }
+
+    public WarehouseImpl(MaterialStorage storage, Map<MaterialType, MaterialStorage> storageByType) {
+        this(WarehouseIds.next(), storage, storageByType);
+    }
+
+    // id must come from WarehouseIds, see restore for ids handed out before
+    WarehouseImpl(long id, MaterialStorage storage, Map<MaterialType, MaterialStorage> storageByType) {
+        this.id = id;
+        this.storage = storage;
+        this.storageByType = Map.copyOf(storageByType);
+    }
+
+    // Changes are appended under the lock of the material they change, before they are applied, so the log
+    // has every material's changes in the order memory saw them. Concurrent materials are written under
+    // their lock as well while a journal is set, so set it before the warehouse is shared.
+    public void setJournal(WriteAheadLog journal) {
+        this.journal = journal;
+    }
+
+    public void setMetrics(WarehouseMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setReservationTimer(ReservationTimer reservationTimer) {
+        this.reservationTimer = reservationTimer;
+    }
+
+    // used by recovery to bring a warehouse back under its logged id
+    static WarehouseImpl restore(long id, MaterialStorage storage) {
+        WarehouseIds.claim(id);
+        return new WarehouseImpl(id, storage, Map.of());
+    }
+
+    // Like the journal, changes are appended under the lock of the material they change, so sequence
+    // numbers follow the order memory saw the changes and every record carries the quantity that change
+    // left. Concurrent materials are written under their lock while a change log is set, so set it
+    // before the warehouse is shared.
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    // Set by FleetAggregateIndex.track. A warehouse reports to one aggregate index at a time, attaching a
+    // second one fails instead of silently leaving the first with stale totals.
+    synchronized boolean attachAggregateIndex(FleetAggregateIndex.Membership aggregateIndex) {
+        if (this.aggregateIndex != null) return false;
+        this.aggregateIndex = aggregateIndex;
+        return true;
+    }
+
+    synchronized boolean detachAggregateIndex(FleetAggregateIndex.Membership aggregateIndex) {
+        if (this.aggregateIndex != aggregateIndex) return false;
+        this.aggregateIndex = null;
+        return true;
+    }
+
+    FleetAggregateIndex.Membership getAggregateIndex() {
+        return aggregateIndex;
+    }
+
+    // Set by PlacementIndex.track, one placement index at a time like the aggregate index.
+    synchronized boolean attachPlacementIndex(PlacementIndex.Membership placementIndex) {
+        if (this.placementIndex != null) return false;
+        this.placementIndex = placementIndex;
+        return true;
+    }
+
+    synchronized boolean detachPlacementIndex(PlacementIndex.Membership placementIndex) {
+        if (this.placementIndex != placementIndex) return false;
+        this.placementIndex = null;
+        return true;
+    }
+
+    PlacementIndex.Membership getPlacementIndex() {
+        return placementIndex;
     }
 
     @Override
@@ -52,50 +157,146 @@ public class WarehouseImpl extends AbstractWarehouseSubject implements Warehouse
     }
 
     @Override
-    public long addMaterial(MaterialType materialType, long quantity) {
+    public WarehouseMaterial getMaterialView(MaterialType materialType) {
+        WarehouseMaterial view = this.materialViews.get(materialType);
+        if (view != null) return view;
         WarehouseMaterial material = this.materialList.get(materialType);
-        if (material == null) {
-            material = new WarehouseMaterialImpl(materialType);
-            this.materialList.put(materialType, material);
+        return material == null ? null : this.materialViews.computeIfAbsent(materialType, type -> new ReadOnlyWarehouseMaterial(material));
+    }
+
+    @Override
+    public Collection<WarehouseMaterial> getMaterialViews() {
+        return materialViews.values();
+    }
+
+    @Override
+    public void forEachMaterial(MaterialVisitor visitor) {
+        for (WarehouseMaterial material : this.materialList.values()) {
+            material.accept(visitor);
         }
-        synchronized (material) {
-            material.put(quantity);
-            this.notifyObserversMaterialAdded(materialType, quantity);
-            return material.getQuantity();
+    }
+
+    @Override
+    public long addMaterial(MaterialType materialType, long quantity) {
+        WarehouseMetrics metrics = this.metrics;
+        WriteAheadLog journal = this.journal;
+        long newQuantity;
+        try {
+            newQuantity = putMaterial(materialType, quantity, metrics, journal, this.changeLog);
+        } catch (RuntimeException e) {
+            if (metrics != null) metrics.recordFailure(WarehouseOperation.ADD);
+            throw e;
+        }
+        if (journal != null) journal.commit();
+        if (metrics != null) metrics.recordAdd(materialType, quantity);
+        indexMaterial(materialType);
+        return newQuantity;
+    }
+
+    private long putMaterial(MaterialType materialType, long quantity, WarehouseMetrics metrics, WriteAheadLog journal,
+                             ChangeLog changeLog) {
+        while (true) {
+            WarehouseMaterial material = this.materialList.computeIfAbsent(materialType, this::createMaterial);
+            if (material instanceof ConcurrentWarehouseMaterial && journal == null && changeLog == null) {
+                long newQuantity = material.put(quantity);
+                this.notifyObserversMaterialAdded(materialType, quantity);
+                return newQuantity;
+            }
+            ReentrantLock lock = lockOf(material);
+            long requested = WarehouseMetrics.now(metrics);
+            lock.lock();
+            long acquired = WarehouseMetrics.now(metrics);
+            try {
+                // emptied out of the warehouse while this writer waited for the lock
+                if (!isCurrent(material)) continue;
+                if (journal != null) {
+                    if (!material.canPut(quantity)) throw new NoEnoughSpaceException(materialType);
+                    journal.logAdd(id, materialType, quantity);
+                }
+                long newQuantity = material.put(quantity);
+                logChange(changeLog, materialType, quantity, newQuantity);
+                this.notifyObserversMaterialAdded(materialType, quantity);
+                return newQuantity;
+            } finally {
+                if (metrics != null) metrics.recordLock(requested, acquired);
+                lock.unlock();
+            }
         }
     }
 
     @Override
     public long removeMaterial(MaterialType materialType, long quantity) {
-        WarehouseMaterial material = this.materialList.get(materialType);
-        if (material == null) {
-            throw new NoEnoughMaterialException(materialType);
+        WarehouseMetrics metrics = this.metrics;
+        WriteAheadLog journal = this.journal;
+        long newQuantity;
+        try {
+            newQuantity = takeMaterial(materialType, quantity, metrics, journal, this.changeLog);
+        } catch (RuntimeException e) {
+            if (metrics != null) metrics.recordFailure(WarehouseOperation.REMOVE);
+            throw e;
         }
-        synchronized (material) {
-            material.take(quantity);
-            this.notifyObserversMaterialRemoved(materialType, quantity);
-            return material.getQuantity();
+        if (journal != null) journal.commit();
+        if (metrics != null) metrics.recordRemove(materialType, quantity);
+        indexMaterial(materialType);
+        return newQuantity;
+    }
+
+    private long takeMaterial(MaterialType materialType, long quantity, WarehouseMetrics metrics, WriteAheadLog journal,
+                              ChangeLog changeLog) {
+        while (true) {
+            WarehouseMaterial material = this.materialList.get(materialType);
+            if (material == null) {
+                throw new NoEnoughMaterialException(materialType);
+            }
+            if (material instanceof ConcurrentWarehouseMaterial && journal == null && changeLog == null) {
+                long newQuantity = material.take(quantity);
+                this.notifyObserversMaterialRemoved(materialType, quantity);
+                return newQuantity;
+            }
+            ReentrantLock lock = lockOf(material);
+            long requested = WarehouseMetrics.now(metrics);
+            lock.lock();
+            long acquired = WarehouseMetrics.now(metrics);
+            try {
+                if (!isCurrent(material)) continue;
+                if (journal != null) {
+                    if (!material.canTake(quantity)) throw new NoEnoughMaterialException(materialType);
+                    journal.logRemove(id, materialType, quantity);
+                }
+                long newQuantity = material.take(quantity);
+                logChange(changeLog, materialType, -quantity, newQuantity);
+                this.notifyObserversMaterialRemoved(materialType, quantity);
+                return newQuantity;
+            } finally {
+                if (metrics != null) metrics.recordLock(requested, acquired);
+                lock.unlock();
+            }
         }
     }
 
     @Override
     public long putMaterialTo(Warehouse destination, MaterialType materialType) {
-        return transfareMaterial(this, destination, materialType, this.getMaterialQuantity(materialType));
+        return transfareMaterial(this, heap(destination), materialType, this.getMaterialQuantity(materialType));
     }
 
     public long putMaterialTo(Warehouse destination, MaterialType materialType, long quantity) {
-        return transfareMaterial(this, destination, materialType, quantity);
+        return transfareMaterial(this, heap(destination), materialType, quantity);
     }
 
     @Override
     public long takeMaterialFrom(Warehouse source, MaterialType materialType) {
-        return transfareMaterial(source, this, materialType, source.getMaterialQuantity(materialType));
+        return transfareMaterial(heap(source), this, materialType, source.getMaterialQuantity(materialType));
     }
 
 
     @Override
     public long takeMaterialFrom(Warehouse source, MaterialType materialType, long quantity) {
-        return transfareMaterial(source, this, materialType, quantity);
+        return transfareMaterial(heap(source), this, materialType, quantity);
+    }
+
+    @Override
+    public long transferBatch(Warehouse destination, Map<MaterialType, Long> materials) {
+        return transfareBatch(this, heap(destination), materials);
     }
 
     @Override
@@ -121,61 +322,635 @@ public class WarehouseImpl extends AbstractWarehouseSubject implements Warehouse
         }
     }
 
+    @Override
+    public Reservation reserve(MaterialType materialType, long quantity, Duration ttl) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        WarehouseMaterial material = this.materialList.get(materialType);
+        if (material == null) throw new NoEnoughMaterialException(materialType);
+        ReservableWarehouseMaterial reservable = (ReservableWarehouseMaterial) material;
+        long held = guarded(reservable, () -> {
+            long holding = reservable.reserveQuantity(quantity);
+            if (holding < quantity) reservable.releaseReservedQuantity(holding);
+            return holding;
+        });
+        if (held < quantity) throw new NoEnoughMaterialException(materialType);
+        return schedule(new HeldReservation(reservable, quantity, false), ttl);
+    }
+
+    @Override
+    public Reservation reserveSpace(MaterialType materialType, long quantity, Duration ttl) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        ReservableWarehouseMaterial reservable =
+                (ReservableWarehouseMaterial) this.materialList.computeIfAbsent(materialType, this::createMaterial);
+        long reserved = guarded(reservable, () -> {
+            long reserving = reservable.reserveSpace(quantity);
+            if (reserving < quantity) reservable.releaseReservedSpace(reserving);
+            return reserving;
+        });
+        if (reserved < quantity) throw new NoEnoughSpaceException(materialType);
+        indexMaterial(materialType);
+        return schedule(new HeldReservation(reservable, quantity, true), ttl);
+    }
+
+    private Reservation schedule(HeldReservation reservation, Duration ttl) {
+        ReservationTimer timer = this.reservationTimer;
+        try {
+            (timer != null ? timer : ReservationTimer.DEFAULT).schedule(reservation, ttl);
+        } catch (RuntimeException e) {
+            reservation.release();
+            throw e;
+        }
+        return reservation;
+    }
+
     @Override
     public void emptyAllMaterialTypes() {
-        this.materialList.values().forEach(WarehouseMaterial::empty);
+        WriteAheadLog journal = this.journal;
+        for (WarehouseMaterial material : this.materialList.values()) {
+            emptyMaterial(material, journal);
+        }
+        if (journal != null) journal.commit();
+        indexAllMaterials();
     }
 
+    // The table lock keeps new materials out and every material's lock is held in lock order,
+    // so writers waiting for one of them find it dropped and start over on the next material.
     @Override
     public void emptyWarehouse() {
-        this.materialList.clear();
+        WriteAheadLog journal = this.journal;
+        ReentrantLock tableLock = this.materialList.lock();
+        tableLock.lock();
+        try {
+            ReentrantLock[] locks = this.materialList.values().stream().map(this::lockOf).toArray(ReentrantLock[]::new);
+            lockedOn(locks, 0, () -> {
+                if (journal != null) journal.logEmptyWarehouse(id);
+                ChangeLog changeLog = this.changeLog;
+                for (WarehouseMaterial material : this.materialList.values()) {
+                    logChange(changeLog, material.getMaterialType(), -material.getQuantity(), 0);
+                }
+                this.materialList.clear();
+                this.materialViews.clear();
+                return 0;
+            });
+        } finally {
+            tableLock.unlock();
+        }
+        if (journal != null) journal.commit();
+        indexAllMaterials();
     }
 
     @Override
     public void emptyMaterialType(MaterialType materialType) {
-        this.materialList.get(materialType).empty();
+        WarehouseMaterial material = this.materialList.get(materialType);
+        WriteAheadLog journal = this.journal;
+        emptyMaterial(material, journal);
+        if (journal != null) journal.commit();
+        indexMaterial(materialType);
+    }
+
+    // Held quantity survives an empty and is logged with it. Only the material knows how much that is,
+    // so the empty is applied first and put back if the log refuses the record.
+    private void emptyMaterial(WarehouseMaterial material, WriteAheadLog journal) {
+        ChangeLog changeLog = this.changeLog;
+        guarded(material, () -> {
+            if (!isCurrent(material)) return 0;
+            if (journal != null) journal.checkOpen();
+            long quantity = material.getQuantity();
+            material.empty();
+            long remaining = material.getQuantity();
+            if (journal != null) {
+                try {
+                    journal.logEmptyMaterial(id, material.getMaterialType(), remaining);
+                } catch (RuntimeException e) {
+                    material.put(quantity - remaining);
+                    throw e;
+                }
+            }
+            logChange(changeLog, material.getMaterialType(), remaining - quantity, remaining);
+            return 0;
+        });
     }
 
     @Override
     public long increaseMaterialCapacity(MaterialType materialType, long newCapacity) {
-        return this.materialList.get(materialType).increaseCapacity(newCapacity);
+        WarehouseMaterial material = this.materialList.get(materialType);
+        WriteAheadLog journal = this.journal;
+        long capacity = guarded(material, () -> {
+            if (journal != null) {
+                if (newCapacity <= material.getCapacity())
+                    throw new IllegalArgumentException("New capacity must be greater than existing.");
+                journal.logCapacity(id, materialType, newCapacity);
+            }
+            return material.increaseCapacity(newCapacity);
+        });
+        if (journal != null) journal.commit();
+        indexMaterial(materialType);
+        return capacity;
     }
 
     @Override
     public void printState() {
         System.out.println("----------------------------");
         System.out.printf("Warehouse %d state: %n", id);
-        materialList.forEach((key, value) -> System.out.println(key.name() + ": " + value.getQuantity()));
+        materialList.values().forEach(value -> System.out.println(value.getMaterialType().name() + ": " + value.getQuantity()));
         System.out.println("----------------------------");
     }
 
-    private static long transfareMaterial(Warehouse source, Warehouse destination, MaterialType materialType, long quantity) {
+    // Puts a material back as it was recorded by a log or checkpoint, without observers or the journal.
+    // A quantity outside the capacity means the log does not match what memory held, so it is not clamped.
+    void restoreMaterial(MaterialType materialType, long capacity, long quantity) {
+        WarehouseMaterial material = this.materialList.computeIfAbsent(materialType, this::createMaterial);
+        if (capacity > material.getCapacity()) material.increaseCapacity(capacity);
+        if (quantity < 0 || quantity > material.getCapacity())
+            throw new IllegalStateException("Recovered quantity " + quantity + " of " + materialType.name()
+                    + " does not fit its capacity " + material.getCapacity() + ".");
+        if (quantity > 0) material.put(quantity);
+    }
+
+    WarehouseMaterial existingMaterial(MaterialType materialType) {
+        return this.materialList.get(materialType);
+    }
+
+    // Held by a transaction touching a material this warehouse doesn't have yet, nothing can create one
+    // while it is held. emptyWarehouse takes it before any material lock, so do transactions.
+    ReentrantLock materialCreationLock() {
+        return this.materialList.lock();
+    }
+
+    // The lock writers of a locking material hold, shared by every material of its type this warehouse has had.
+    ReentrantLock lockOf(WarehouseMaterial material) {
+        return this.materialLocks.computeIfAbsent(material.getMaterialType(), type -> new ReentrantLock());
+    }
+
+    // A material a transaction fills before anyone can see it, published with addCreatedMaterial while
+    // the creation lock is still held.
+    WarehouseMaterial newMaterial(MaterialType materialType) {
+        return storageByType.getOrDefault(materialType, storage).create(materialType);
+    }
+
+    void addCreatedMaterial(WarehouseMaterial material) {
+        this.materialViews.put(material.getMaterialType(), new ReadOnlyWarehouseMaterial(material));
+        this.materialList.put(material.getMaterialType(), material);
+    }
+
+    // A transaction checks every log it writes to, then appends its changes with their materials locked,
+    // before any of them is applied.
+    void checkJournalOpen() {
+        WriteAheadLog journal = this.journal;
+        if (journal != null) journal.checkOpen();
+    }
+
+    void journalChange(MaterialType materialType, long delta) {
+        WriteAheadLog journal = this.journal;
+        if (journal == null) return;
+        if (delta > 0) {
+            journal.logAdd(id, materialType, delta);
+        } else if (delta < 0) {
+            journal.logRemove(id, materialType, -delta);
+        }
+    }
+
+    // Reports a change a transaction applied like the add or remove it stands for, after its locks are released.
+    void transactionApplied(MaterialType materialType, long delta) {
+        WarehouseMetrics metrics = this.metrics;
+        WriteAheadLog journal = this.journal;
+        if (delta > 0) {
+            notifyObserversMaterialAdded(materialType, delta);
+            if (metrics != null) metrics.recordAdd(materialType, delta);
+        } else if (delta < 0) {
+            notifyObserversMaterialRemoved(materialType, -delta);
+            if (metrics != null) metrics.recordRemove(materialType, -delta);
+        }
+        if (journal != null) journal.commit();
+        indexMaterial(materialType);
+    }
+
+    // Called under the lock of the material that changed, after the change was applied.
+    void logChange(MaterialType materialType, long delta, long quantity) {
+        logChange(this.changeLog, materialType, delta, quantity);
+    }
+
+    private void logChange(ChangeLog changeLog, MaterialType materialType, long delta, long quantity) {
+        if (changeLog != null && delta != 0) changeLog.append(id, materialType, delta, quantity);
+    }
+
+    private void indexMaterial(MaterialType materialType) {
+        FleetAggregateIndex.Membership aggregateIndex = this.aggregateIndex;
+        if (aggregateIndex != null) aggregateIndex.refresh(materialType);
+        PlacementIndex.Membership placementIndex = this.placementIndex;
+        if (placementIndex != null) placementIndex.refresh(materialType);
+    }
+
+    private void indexAllMaterials() {
+        FleetAggregateIndex.Membership aggregateIndex = this.aggregateIndex;
+        if (aggregateIndex != null) aggregateIndex.refreshAll();
+        PlacementIndex.Membership placementIndex = this.placementIndex;
+        if (placementIndex != null) placementIndex.refreshAll();
+    }
+
+    // lock-guarded materials are reserved under their lock, concurrent ones are atomic on their own
+    private long underLock(WarehouseMaterial material, LongSupplier action) {
+        if (material instanceof ConcurrentWarehouseMaterial) return action.getAsLong();
+        return locked(material, action);
+    }
+
+    // like underLock, but a journaled or streamed warehouse takes the lock of concurrent materials too
+    private long guarded(WarehouseMaterial material, LongSupplier action) {
+        if (!logged()) return underLock(material, action);
+        return locked(material, action);
+    }
+
+    private long locked(WarehouseMaterial material, LongSupplier action) {
+        ReentrantLock lock = lockOf(material);
+        lock.lock();
+        try {
+            return action.getAsLong();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // false once emptyWarehouse dropped the material, checked under the material's lock
+    private boolean isCurrent(WarehouseMaterial material) {
+        return this.materialList.get(material.getMaterialType()) == material;
+    }
+
+    private WarehouseMaterial createMaterial(MaterialType materialType) {
+        WarehouseMaterial material = newMaterial(materialType);
+        this.materialViews.put(materialType, new ReadOnlyWarehouseMaterial(material));
+        return material;
+    }
+
+    private static WarehouseImpl heap(Warehouse warehouse) {
+        if (warehouse instanceof WarehouseImpl heapWarehouse) return heapWarehouse;
+        throw new IllegalArgumentException("Heap warehouses can only transfer to and from other heap warehouses.");
+    }
+
+    private static long transfareMaterial(WarehouseImpl source, WarehouseImpl destination, MaterialType materialType, long quantity) {
         if (quantity == 0) return 0;
-        Object[] locks = getSynchronizationObjects(source, destination, materialType);
-        synchronized (locks[0]) {
-            synchronized (locks[1]) {
-                if (!source.canTake(materialType, quantity)) throw new NoEnoughMaterialException(materialType);
-                long destinationSpace = destination.getMaterialAvailableSpace(materialType);
-                long transferringQuantity = Math.min(quantity, destinationSpace);
-                source.removeMaterial(materialType, transferringQuantity);
-                destination.addMaterial(materialType, transferringQuantity);
-                return transferringQuantity;
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        WarehouseMetrics metrics = source.metrics;
+        long started = WarehouseMetrics.now(metrics);
+        // the optimistic path has no point where a record could go in before the change, logged pairs lock
+        boolean logged = source.logged() || destination.logged();
+        long transferred = CONFLICT;
+        try {
+            while (transferred == CONFLICT) {
+                WarehouseMaterial sourceMaterial = getSourceWarehouseForLock(source, materialType);
+                ReservableWarehouseMaterial destinationMaterial =
+                        (ReservableWarehouseMaterial) getDestinationWarehouseForLock(destination, materialType);
+                for (int attempt = 0; !logged && attempt < OPTIMISTIC_ATTEMPTS && transferred == CONFLICT; attempt++) {
+                    transferred = transfareOptimistic(source, destination, sourceMaterial, destinationMaterial, quantity, metrics);
+                }
+                if (transferred == INSUFFICIENT) throw new NoEnoughMaterialException(materialType);
+                if (transferred == CONFLICT) {
+                    transferred = transfareLocking(source, destination,
+                            sourceMaterial, destinationMaterial, quantity, metrics);
+                }
+            }
+        } catch (RuntimeException e) {
+            if (metrics != null) metrics.recordTransferFailure(started);
+            throw e;
+        }
+        source.notifyObserversMaterialRemoved(materialType, transferred);
+        destination.notifyObserversMaterialAdded(materialType, transferred);
+        commitJournals(source, destination);
+        if (metrics != null) metrics.recordTransfer(materialType, transferred, started);
+        source.indexMaterial(materialType);
+        destination.indexMaterial(materialType);
+        return transferred;
+    }
+
+    // Optimistic path, no two locks are ever held together. The source is checked without a lock,
+    // destination space is claimed, then the source is taken; each step is one CAS for concurrent
+    // materials or runs under that material's own lock. The take re-validates the check: if another
+    // writer got in between, the claim is handed back and CONFLICT returned, so nothing is lost.
+    // A failed check is an answer on its own, the source lacked the material when it was read, so the
+    // caller throws right away instead of retrying and taking both locks only to fail the same way.
+    private static long transfareOptimistic(WarehouseImpl source, WarehouseImpl destination,
+                                            WarehouseMaterial sourceMaterial, ReservableWarehouseMaterial destinationMaterial,
+                                            long quantity, WarehouseMetrics metrics) {
+        if (!sourceMaterial.canTake(quantity)) return INSUFFICIENT;
+        long transferringQuantity = destination.underLock(destinationMaterial, () -> destinationMaterial.reserveSpace(quantity));
+        if (!source.tryTake(sourceMaterial, transferringQuantity, metrics)) {
+            destination.underLock(destinationMaterial, () -> {
+                destinationMaterial.releaseReservedSpace(transferringQuantity);
+                return 0;
+            });
+            return CONFLICT;
+        }
+        destination.underLock(destinationMaterial, () -> destinationMaterial.commitReservedSpace(transferringQuantity));
+        return transferringQuantity;
+    }
+
+    private boolean tryTake(WarehouseMaterial material, long quantity, WarehouseMetrics metrics) {
+        if (material instanceof ConcurrentWarehouseMaterial) {
+            try {
+                material.take(quantity);
+                return true;
+            } catch (NoEnoughMaterialException e) {
+                return false;
+            }
+        }
+        ReentrantLock lock = lockOf(material);
+        long requested = WarehouseMetrics.now(metrics);
+        lock.lock();
+        long acquired = WarehouseMetrics.now(metrics);
+        try {
+            if (!material.canTake(quantity)) return false;
+            material.take(quantity);
+            return true;
+        } finally {
+            if (metrics != null) metrics.recordLock(requested, acquired);
+            lock.unlock();
+        }
+    }
+
+    // Fallback after repeated conflicts, and the only path for logged warehouses: both locks are
+    // held in lock order, which stops other transfers of the pair, so this attempt can't be starved.
+    // Lock-free writers don't take the locks, so both sides are reserved before anything is applied,
+    // and the journal record goes in between. Returns CONFLICT when emptyWarehouse dropped either material.
+    private static long transfareLocking(WarehouseImpl source, WarehouseImpl destination,
+                                         WarehouseMaterial sourceMaterial, ReservableWarehouseMaterial destinationMaterial,
+                                         long quantity, WarehouseMetrics metrics) {
+        MaterialType materialType = sourceMaterial.getMaterialType();
+        ReentrantLock[] locks = getSynchronizationObjects(source, destination, sourceMaterial, destinationMaterial);
+        long requested = WarehouseMetrics.now(metrics);
+        locks[0].lock();
+        locks[1].lock();
+        long acquired = WarehouseMetrics.now(metrics);
+        try {
+            if (!source.isCurrent(sourceMaterial) || !destination.isCurrent(destinationMaterial)) return CONFLICT;
+            if (!sourceMaterial.canTake(quantity)) throw new NoEnoughMaterialException(materialType);
+            long transferringQuantity = destinationMaterial.reserveSpace(quantity);
+            try {
+                holdQuantity(sourceMaterial, transferringQuantity);
+            } catch (RuntimeException e) {
+                destinationMaterial.releaseReservedSpace(transferringQuantity);
+                throw e;
+            }
+            try {
+                journalTransfer(source, destination, materialType, transferringQuantity);
+            } catch (RuntimeException e) {
+                releaseBatchLine(sourceMaterial, null, transferringQuantity);
+                destinationMaterial.releaseReservedSpace(transferringQuantity);
+                throw e;
+            }
+            takeHeld(sourceMaterial, transferringQuantity);
+            destinationMaterial.commitReservedSpace(transferringQuantity);
+            logTransfer(source, destination, sourceMaterial, destinationMaterial, transferringQuantity);
+            return transferringQuantity;
+        } finally {
+            if (metrics != null) metrics.recordLock(requested, acquired);
+            locks[1].unlock();
+            locks[0].unlock();
+        }
+    }
+
+    // Sets the source quantity aside like prepareBatchLine does, concurrent materials are held.
+    private static void holdQuantity(WarehouseMaterial source, long quantity) {
+        if (!(source instanceof ConcurrentWarehouseMaterial concurrentSource)) return;
+        long held = concurrentSource.reserveQuantity(quantity);
+        if (held < quantity) {
+            concurrentSource.releaseReservedQuantity(held);
+            throw new NoEnoughMaterialException(source.getMaterialType());
+        }
+    }
+
+    private static void takeHeld(WarehouseMaterial source, long quantity) {
+        if (source instanceof ConcurrentWarehouseMaterial concurrentSource) {
+            concurrentSource.commitReservedQuantity(quantity);
+        } else {
+            source.take(quantity);
+        }
+    }
+
+    // A transfer inside one log is a single record, otherwise each journaled side logs its own half.
+    // Called with both materials locked, before the transfer is applied. If the destination's log
+    // refuses its half, the source's half is cancelled in its own log.
+    private static void journalTransfer(WarehouseImpl source, WarehouseImpl destination, MaterialType materialType, long quantity) {
+        if (quantity == 0 || source == destination) return;
+        WriteAheadLog sourceJournal = source.journal;
+        WriteAheadLog destinationJournal = destination.journal;
+        if (sourceJournal != null && sourceJournal == destinationJournal) {
+            sourceJournal.logTransfer(source.id, destination.id, materialType, quantity);
+            return;
+        }
+        if (sourceJournal != null) sourceJournal.logRemove(source.id, materialType, quantity);
+        if (destinationJournal == null) return;
+        try {
+            destinationJournal.logAdd(destination.id, materialType, quantity);
+        } catch (RuntimeException e) {
+            if (sourceJournal != null) sourceJournal.logAdd(source.id, materialType, quantity);
+            throw e;
+        }
+    }
+
+    private static void commitJournals(WarehouseImpl source, WarehouseImpl destination) {
+        WriteAheadLog sourceJournal = source.journal;
+        WriteAheadLog destinationJournal = destination.journal;
+        if (sourceJournal != null) sourceJournal.commit();
+        if (destinationJournal != null && destinationJournal != sourceJournal) destinationJournal.commit();
+    }
+
+    // Called with both materials locked right after the transfer was applied. Nothing else writes either
+    // material while a change log is set and its lock is held, so the quantities are the ones it left.
+    private static void logTransfer(WarehouseImpl source, WarehouseImpl destination,
+                                    WarehouseMaterial sourceMaterial, WarehouseMaterial destinationMaterial, long quantity) {
+        if (source == destination) return;
+        MaterialType materialType = sourceMaterial.getMaterialType();
+        source.logChange(materialType, -quantity, sourceMaterial.getQuantity());
+        destination.logChange(materialType, quantity, destinationMaterial.getQuantity());
+    }
+
+    // writers of a logged warehouse take material locks, so records go in where the change is applied
+    private boolean logged() {
+        return journal != null || changeLog != null;
+    }
+
+    // All materials of both warehouses are locked once, higher warehouse id first and then by
+    // material type, the same order transfareMaterial uses, so batches and single transfers can't deadlock.
+    // Every line is prepared before anything is applied, which keeps the batch all or nothing.
+    private static long transfareBatch(WarehouseImpl source, WarehouseImpl destination, Map<MaterialType, Long> materials) {
+        List<MaterialType> materialTypes = new ArrayList<>(materials.size());
+        for (Map.Entry<MaterialType, Long> line : materials.entrySet()) {
+            if (line.getValue() < 0) throw new NegativeTransferringMaterialCount();
+            if (line.getValue() > 0) materialTypes.add(line.getKey());
+        }
+        materialTypes.sort(MaterialType.LOCK_ORDER);
+        int lines = materialTypes.size();
+        long[] quantities = new long[lines];
+        WarehouseMaterial[] sourceMaterials = new WarehouseMaterial[lines];
+        WarehouseMaterial[] destinationMaterials = new WarehouseMaterial[lines];
+        WarehouseMetrics metrics = source.metrics;
+        long transferred;
+        try {
+            do {
+                for (int i = 0; i < lines; i++) {
+                    quantities[i] = materials.get(materialTypes.get(i));
+                    sourceMaterials[i] = getSourceWarehouseForLock(source, materialTypes.get(i));
+                }
+                for (int i = 0; i < lines; i++) {
+                    destinationMaterials[i] = getDestinationWarehouseForLock(destination, materialTypes.get(i));
+                }
+
+                ReentrantLock[] locks = new ReentrantLock[lines * 2];
+                boolean sourceFirst = source.getId() > destination.getId();
+                for (int i = 0; i < lines; i++) {
+                    ReentrantLock sourceLock = source.lockOf(sourceMaterials[i]);
+                    ReentrantLock destinationLock = destination.lockOf(destinationMaterials[i]);
+                    locks[sourceFirst ? i : lines + i] = sourceLock;
+                    locks[sourceFirst ? lines + i : i] = destinationLock;
+                }
+                transferred = lockedOn(locks, 0, () -> {
+                    // emptyWarehouse dropped one of the materials while the locks were taken
+                    for (int i = 0; i < lines; i++) {
+                        if (!source.isCurrent(sourceMaterials[i]) || !destination.isCurrent(destinationMaterials[i])) return CONFLICT;
+                    }
+                    if (source == destination) return checkBatch(sourceMaterials, quantities);
+                    long applied = applyBatch(sourceMaterials, destinationMaterials, quantities,
+                            () -> journalBatch(source, destination, materialTypes, quantities));
+                    for (int i = 0; i < lines; i++) {
+                        logTransfer(source, destination, sourceMaterials[i], destinationMaterials[i], quantities[i]);
+                    }
+                    return applied;
+                });
+            } while (transferred == CONFLICT);
+        } catch (RuntimeException e) {
+            if (metrics != null) metrics.recordFailure(WarehouseOperation.TRANSFER_BATCH);
+            throw e;
+        }
+        if (source != destination) commitJournals(source, destination);
+        if (metrics != null) metrics.recordTransferBatch(materialTypes, source == destination ? new long[lines] : quantities);
+
+        if (source != destination) {
+            for (int i = 0; i < lines; i++) {
+                source.notifyObserversMaterialRemoved(materialTypes.get(i), quantities[i]);
+                destination.notifyObserversMaterialAdded(materialTypes.get(i), quantities[i]);
+                source.indexMaterial(materialTypes.get(i));
+                destination.indexMaterial(materialTypes.get(i));
+            }
+        }
+        return transferred;
+    }
+
+    // Called with every line prepared and locked, before any of them is applied. Lines logged to two
+    // separate logs can't be taken back once a later line is refused, so both logs are checked first.
+    private static void journalBatch(WarehouseImpl source, WarehouseImpl destination, List<MaterialType> materialTypes, long[] quantities) {
+        WriteAheadLog journal = source.journal;
+        if (journal != null && journal == destination.journal) {
+            if (!materialTypes.isEmpty()) journal.logTransferBatch(source.id, destination.id, materialTypes, quantities);
+            return;
+        }
+        WriteAheadLog destinationJournal = destination.journal;
+        if (journal != null) journal.checkOpen();
+        if (destinationJournal != null) destinationJournal.checkOpen();
+        for (int i = 0; i < materialTypes.size(); i++) {
+            journalTransfer(source, destination, materialTypes.get(i), quantities[i]);
+        }
+    }
+
+    private static long lockedOn(ReentrantLock[] locks, int index, LongSupplier action) {
+        if (index == locks.length) return action.getAsLong();
+        locks[index].lock();
+        try {
+            return lockedOn(locks, index + 1, action);
+        } finally {
+            locks[index].unlock();
+        }
+    }
+
+    private static long checkBatch(WarehouseMaterial[] materials, long[] quantities) {
+        long total = 0;
+        for (int i = 0; i < materials.length; i++) {
+            if (!materials[i].canTake(quantities[i])) throw new NoEnoughMaterialException(materials[i].getMaterialType());
+            total += quantities[i];
+        }
+        return total;
+    }
+
+    private static long applyBatch(WarehouseMaterial[] sourceMaterials, WarehouseMaterial[] destinationMaterials, long[] quantities,
+                                   Runnable journal) {
+        int prepared = 0;
+        try {
+            for (; prepared < quantities.length; prepared++) {
+                prepareBatchLine(sourceMaterials[prepared], destinationMaterials[prepared], quantities[prepared]);
+            }
+            journal.run();
+        } catch (RuntimeException e) {
+            for (int i = 0; i < prepared; i++) {
+                releaseBatchLine(sourceMaterials[i], destinationMaterials[i], quantities[i]);
+            }
+            throw e;
+        }
+        long total = 0;
+        for (int i = 0; i < quantities.length; i++) {
+            commitBatchLine(sourceMaterials[i], destinationMaterials[i], quantities[i]);
+            total += quantities[i];
+        }
+        return total;
+    }
+
+    // Concurrent materials are reserved because lock-free writers don't respect the locks,
+    // lock-guarded materials only need to be checked while their locks are held.
+    private static void prepareBatchLine(WarehouseMaterial source, WarehouseMaterial destination, long quantity) {
+        MaterialType materialType = source.getMaterialType();
+        if (source instanceof ConcurrentWarehouseMaterial concurrentSource) {
+            long held = concurrentSource.reserveQuantity(quantity);
+            if (held < quantity) {
+                concurrentSource.releaseReservedQuantity(held);
+                throw new NoEnoughMaterialException(materialType);
+            }
+        } else if (!source.canTake(quantity)) {
+            throw new NoEnoughMaterialException(materialType);
+        }
+        if (destination instanceof ConcurrentWarehouseMaterial concurrentDestination) {
+            long reserved = concurrentDestination.reserveSpace(quantity);
+            if (reserved < quantity) {
+                concurrentDestination.releaseReservedSpace(reserved);
+                releaseBatchLine(source, null, quantity);
+                throw new NoEnoughSpaceException(materialType);
             }
+        } else if (!destination.canPut(quantity)) {
+            releaseBatchLine(source, null, quantity);
+            throw new NoEnoughSpaceException(materialType);
+        }
+    }
+
+    private static void releaseBatchLine(WarehouseMaterial source, WarehouseMaterial destination, long quantity) {
+        if (source instanceof ConcurrentWarehouseMaterial concurrentSource) {
+            concurrentSource.releaseReservedQuantity(quantity);
+        }
+        if (destination instanceof ConcurrentWarehouseMaterial concurrentDestination) {
+            concurrentDestination.releaseReservedSpace(quantity);
+        }
+    }
+
+    private static void commitBatchLine(WarehouseMaterial source, WarehouseMaterial destination, long quantity) {
+        if (source instanceof ConcurrentWarehouseMaterial concurrentSource) {
+            concurrentSource.commitReservedQuantity(quantity);
+        } else {
+            source.take(quantity);
+        }
+        if (destination instanceof ConcurrentWarehouseMaterial concurrentDestination) {
+            concurrentDestination.commitReservedSpace(quantity);
+        } else {
+            destination.put(quantity);
         }
     }
 
     // this method returns synchronization objects in same order regardless of the order of the warehouses.
     // by these we avoid deadlock.
-    private static Object[] getSynchronizationObjects(Warehouse source, Warehouse destination, MaterialType materialType) {
-        Object[] locks = new Object[2];
-        WarehouseMaterial sourceWarehouseMaterial = getSourceWarehouseForLock((WarehouseImpl) source, materialType);
-        WarehouseMaterial destinationWarehouseMaterial = getDestinationWarehouseForLock((WarehouseImpl) destination, materialType);
+    private static ReentrantLock[] getSynchronizationObjects(WarehouseImpl source, WarehouseImpl destination,
+                                                             WarehouseMaterial sourceWarehouseMaterial,
+                                                             WarehouseMaterial destinationWarehouseMaterial) {
+        ReentrantLock[] locks = new ReentrantLock[2];
         if (source.getId() > destination.getId()) {
-            locks[0] = sourceWarehouseMaterial;
-            locks[1] = destinationWarehouseMaterial;
+            locks[0] = source.lockOf(sourceWarehouseMaterial);
+            locks[1] = destination.lockOf(destinationWarehouseMaterial);
         } else {
-            locks[1] = sourceWarehouseMaterial;
-            locks[0] = destinationWarehouseMaterial;
+            locks[1] = source.lockOf(sourceWarehouseMaterial);
+            locks[0] = destination.lockOf(destinationWarehouseMaterial);
         }
         return locks;
     }
@@ -189,10 +964,85 @@ public class WarehouseImpl extends AbstractWarehouseSubject implements Warehouse
     }
 
     private static WarehouseMaterial getDestinationWarehouseForLock(WarehouseImpl destination, MaterialType materialType) {
-        if (destination.getMaterial(materialType) == null) {
-            destination.addMaterial(materialType, 0);
+        return destination.materialList.computeIfAbsent(materialType, destination::createMaterial);
+    }
+
+    // A committed reservation is reported, journaled and measured like the add or remove it stands for.
+    // Reservations outstanding when the warehouse is emptied stay with the dropped material and fail
+    // to commit, the commit takes the material's lock so it can't slip in while emptyWarehouse runs.
+    private final class HeldReservation extends MaterialReservation {
+        private final ReservableWarehouseMaterial material;
+        private final boolean space;
+
+        private HeldReservation(ReservableWarehouseMaterial material, long quantity, boolean space) {
+            super(material.getMaterialType(), quantity);
+            this.material = material;
+            this.space = space;
+        }
+
+        @Override
+        long applyCommit() {
+            MaterialType materialType = getMaterialType();
+            long quantity = getQuantity();
+            WriteAheadLog journal = WarehouseImpl.this.journal;
+            long newQuantity;
+            ReentrantLock lock = lockOf(material);
+            lock.lock();
+            try {
+                if (!isCurrent(material)) throw new ReservationExpiredException();
+                if (journal != null) journalCommit(journal);
+                if (space) {
+                    newQuantity = material.commitReservedSpace(quantity);
+                    notifyObserversMaterialAdded(materialType, quantity);
+                } else {
+                    newQuantity = material.commitReservedQuantity(quantity);
+                    notifyObserversMaterialRemoved(materialType, quantity);
+                }
+                logChange(materialType, space ? quantity : -quantity, newQuantity);
+            } finally {
+                lock.unlock();
+            }
+            if (journal != null) journal.commit();
+            WarehouseMetrics metrics = WarehouseImpl.this.metrics;
+            if (space) {
+                if (metrics != null) metrics.recordAdd(materialType, quantity);
+            } else {
+                if (metrics != null) metrics.recordRemove(materialType, quantity);
+            }
+            indexMaterial(materialType);
+            return newQuantity;
+        }
+
+        // A log that refuses the record gets the reservation handed back instead of leaking it.
+        private void journalCommit(WriteAheadLog journal) {
+            try {
+                if (space) {
+                    journal.logAdd(id, getMaterialType(), getQuantity());
+                } else {
+                    journal.logRemove(id, getMaterialType(), getQuantity());
+                }
+            } catch (RuntimeException e) {
+                if (space) {
+                    material.releaseReservedSpace(getQuantity());
+                } else {
+                    material.releaseReservedQuantity(getQuantity());
+                }
+                throw e;
+            }
         }
-        return destination.materialList.get(materialType);
 
+        @Override
+        void applyRelease() {
+            long quantity = getQuantity();
+            guarded(material, () -> {
+                if (space) {
+                    material.releaseReservedSpace(quantity);
+                } else {
+                    material.releaseReservedQuantity(quantity);
+                }
+                return 0;
+            });
+            if (space) indexMaterial(getMaterialType());
+        }
     }
 }
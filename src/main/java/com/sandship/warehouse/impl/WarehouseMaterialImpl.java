@@ -1,18 +1,22 @@
 package com.sandship.warehouse.impl;
 
+import com.sandship.warehouse.api.ReservableWarehouseMaterial;
 import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
 import com.sandship.warehouse.exception.NoEnoughMaterialException;
 import com.sandship.warehouse.exception.NoEnoughSpaceException;
 import com.sandship.warehouse.api.WarehouseMaterial;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 
-@AllArgsConstructor
+// Not thread-safe, callers that share it hold its lock, reservations included.
 @Getter
-public class WarehouseMaterialImpl implements WarehouseMaterial {
+public class WarehouseMaterialImpl implements ReservableWarehouseMaterial {
     private MaterialType materialType;
     private long capacity;
     private long quantity;
+    // space promised to incoming puts
+    private long reserved;
+    // stored quantity promised to outgoing takes
+    private long held;
 
     public WarehouseMaterialImpl(MaterialType materialType) {
         this(materialType, materialType.initialCapacity(), 0);
@@ -22,20 +26,32 @@ public class WarehouseMaterialImpl implements WarehouseMaterial {
         this(materialType, capacity, 0);
     }
 
+    public WarehouseMaterialImpl(MaterialType materialType, long capacity, long quantity) {
+        this(materialType, capacity, quantity, 0, 0);
+    }
+
+    private WarehouseMaterialImpl(MaterialType materialType, long capacity, long quantity, long reserved, long held) {
+        this.materialType = materialType;
+        this.capacity = capacity;
+        this.quantity = quantity;
+        this.reserved = reserved;
+        this.held = held;
+    }
+
     public long getAvailableSpace() {
-        return capacity - quantity;
+        return capacity - quantity - reserved;
     }
 
     @Override
     public boolean canPut(long quantity) {
         if (quantity < 0) throw new NegativeTransferringMaterialCount();
-        return this.capacity - this.quantity >= quantity;
+        return getAvailableSpace() >= quantity;
     }
 
     @Override
     public boolean canTake(long quantity) {
         if (quantity < 0) throw new NegativeTransferringMaterialCount();
-        return this.quantity >= quantity;
+        return this.quantity - this.held >= quantity;
     }
 
     public long put(long quantity) {
@@ -59,13 +75,58 @@ public class WarehouseMaterialImpl implements WarehouseMaterial {
         return capacity;
     }
 
+    // held quantity stays until its reservation ends
     @Override
     public void empty() {
-        this.quantity = 0;
+        this.quantity = held;
+    }
+
+    @Override
+    public long reserveSpace(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        long reserving = Math.max(0, Math.min(quantity, getAvailableSpace()));
+        reserved += reserving;
+        return reserving;
+    }
+
+    @Override
+    public long commitReservedSpace(long quantity) {
+        if (reserved < quantity) throw new IllegalStateException("Cannot commit more space than reserved.");
+        reserved -= quantity;
+        this.quantity += quantity;
+        return this.quantity;
+    }
+
+    @Override
+    public void releaseReservedSpace(long quantity) {
+        if (reserved < quantity) throw new IllegalStateException("Cannot release more space than reserved.");
+        reserved -= quantity;
+    }
+
+    @Override
+    public long reserveQuantity(long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        long holding = Math.max(0, Math.min(quantity, this.quantity - held));
+        held += holding;
+        return holding;
+    }
+
+    @Override
+    public long commitReservedQuantity(long quantity) {
+        if (held < quantity) throw new IllegalStateException("Cannot commit more quantity than reserved.");
+        held -= quantity;
+        this.quantity -= quantity;
+        return this.quantity;
+    }
+
+    @Override
+    public void releaseReservedQuantity(long quantity) {
+        if (held < quantity) throw new IllegalStateException("Cannot release more quantity than reserved.");
+        held -= quantity;
     }
 
     @Override
     public WarehouseMaterial clone() {
-        return new WarehouseMaterialImpl(materialType, capacity, quantity);
+        return new WarehouseMaterialImpl(materialType, capacity, quantity, reserved, held);
     }
 }
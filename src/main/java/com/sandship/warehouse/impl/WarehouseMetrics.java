@@ -0,0 +1,131 @@
+package com.sandship.warehouse.impl;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms for warehouses that have it set, usually one instance per fleet.
+// Recording goes to LongAdders, striped histograms and per material type counters created on first
+// use, so after warm-up it doesn't allocate. Nothing is recorded and no clock is read while a
+// warehouse has no metrics. snapshot() pulls the current values.
+public class WarehouseMetrics {
+
+    // a lock that took longer than this to acquire is counted as contended
+    private static final long CONTENDED_WAIT_NANOS = 1_000;
+    private static final WarehouseOperation[] OPERATIONS = WarehouseOperation.values();
+
+    private final LongAdder[] succeeded = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] failed = new LongAdder[OPERATIONS.length];
+    private final LatencyHistogram transferLatency = new LatencyHistogram();
+    private final LatencyHistogram lockHoldTime = new LatencyHistogram();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder contendedLockAcquisitions = new LongAdder();
+    private final MaterialTable<MaterialCounters> materials = new MaterialTable<>();
+
+    public WarehouseMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            succeeded[i] = new LongAdder();
+            failed[i] = new LongAdder();
+        }
+    }
+
+    public Snapshot snapshot() {
+        Map<WarehouseOperation, Long> succeededByOperation = new EnumMap<>(WarehouseOperation.class);
+        Map<WarehouseOperation, Long> failedByOperation = new EnumMap<>(WarehouseOperation.class);
+        for (WarehouseOperation operation : OPERATIONS) {
+            succeededByOperation.put(operation, succeeded[operation.ordinal()].sum());
+            failedByOperation.put(operation, failed[operation.ordinal()].sum());
+        }
+        Map<MaterialType, MaterialThroughput> throughput = new LinkedHashMap<>();
+        for (MaterialCounters counters : materials.values()) {
+            throughput.put(counters.materialType, counters.snapshot());
+        }
+        return new Snapshot(succeededByOperation, failedByOperation, transferLatency.snapshot(),
+                lockAcquisitions.sum(), contendedLockAcquisitions.sum(), lockHoldTime.snapshot(), throughput);
+    }
+
+    // System.nanoTime() when metrics are on, so callers only read the clock for metered warehouses
+    static long now(WarehouseMetrics metrics) {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    void recordAdd(MaterialType materialType, long quantity) {
+        succeeded[WarehouseOperation.ADD.ordinal()].increment();
+        MaterialCounters counters = counters(materialType);
+        counters.operations.increment();
+        counters.added.add(quantity);
+    }
+
+    void recordRemove(MaterialType materialType, long quantity) {
+        succeeded[WarehouseOperation.REMOVE.ordinal()].increment();
+        MaterialCounters counters = counters(materialType);
+        counters.operations.increment();
+        counters.removed.add(quantity);
+    }
+
+    void recordTransfer(MaterialType materialType, long quantity, long startedNanos) {
+        transferLatency.record(System.nanoTime() - startedNanos);
+        succeeded[WarehouseOperation.TRANSFER.ordinal()].increment();
+        MaterialCounters counters = counters(materialType);
+        counters.operations.increment();
+        counters.transferred.add(quantity);
+    }
+
+    void recordTransferFailure(long startedNanos) {
+        transferLatency.record(System.nanoTime() - startedNanos);
+        failed[WarehouseOperation.TRANSFER.ordinal()].increment();
+    }
+
+    void recordTransferBatch(List<MaterialType> materialTypes, long[] quantities) {
+        succeeded[WarehouseOperation.TRANSFER_BATCH.ordinal()].increment();
+        for (int i = 0; i < quantities.length; i++) {
+            MaterialCounters counters = counters(materialTypes.get(i));
+            counters.operations.increment();
+            counters.transferred.add(quantities[i]);
+        }
+    }
+
+    void recordFailure(WarehouseOperation operation) {
+        failed[operation.ordinal()].increment();
+    }
+
+    // Called right before the lock is released.
+    void recordLock(long requestedNanos, long acquiredNanos) {
+        lockAcquisitions.increment();
+        if (acquiredNanos - requestedNanos > CONTENDED_WAIT_NANOS) contendedLockAcquisitions.increment();
+        lockHoldTime.record(System.nanoTime() - acquiredNanos);
+    }
+
+    private MaterialCounters counters(MaterialType materialType) {
+        MaterialCounters counters = materials.get(materialType);
+        return counters != null ? counters : materials.computeIfAbsent(materialType, MaterialCounters::new);
+    }
+
+    public record Snapshot(Map<WarehouseOperation, Long> succeeded,
+                           Map<WarehouseOperation, Long> failed,
+                           LatencyHistogram.Snapshot transferLatency,
+                           long lockAcquisitions,
+                           long contendedLockAcquisitions,
+                           LatencyHistogram.Snapshot lockHoldTime,
+                           Map<MaterialType, MaterialThroughput> materials) {
+    }
+
+    // operations counts adds, removes, transfers and batch lines of the type
+    public record MaterialThroughput(long operations, long added, long removed, long transferred) {
+    }
+
+    private static final class MaterialCounters {
+        private final MaterialType materialType;
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder added = new LongAdder();
+        private final LongAdder removed = new LongAdder();
+        private final LongAdder transferred = new LongAdder();
+
+        private MaterialCounters(MaterialType materialType) {
+            this.materialType = materialType;
+        }
+
+        private MaterialThroughput snapshot() {
+            return new MaterialThroughput(operations.sum(), added.sum(), removed.sum(), transferred.sum());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.sandship.warehouse.impl;
+
+// Operations counted by WarehouseMetrics.
+public enum WarehouseOperation {
+    ADD,
+    REMOVE,
+    TRANSFER,
+    TRANSFER_BATCH
+}
@@ -0,0 +1,58 @@
+package com.sandship.warehouse.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Binary protocol between WarehouseServer and WarehouseClient, all numbers big-endian.
+// Request: [int length][long requestId][byte operation][operands], length counts what follows it.
+// Operands: DEFINE_TYPE  int type, long initialCapacity, name, description, icon (short length + UTF-8)
+//           QUANTITY, AVAILABLE_SPACE  long warehouse, int type
+//           ADD, REMOVE, CAN_PUT, CAN_TAKE  long warehouse, int type, long quantity
+//           TRANSFER  long source, long destination, int type, long quantity
+// Response: [long requestId][byte status][long value], answered in completion order, not request order.
+// Material types are numbered per connection by DEFINE_TYPE, like in every segment of the write-ahead log,
+// so client and server don't need to agree on interned ids.
+final class WarehouseProtocol {
+
+    static final byte DEFINE_TYPE = 1;
+    static final byte QUANTITY = 2;
+    static final byte AVAILABLE_SPACE = 3;
+    static final byte ADD = 4;
+    static final byte REMOVE = 5;
+    static final byte TRANSFER = 6;
+    static final byte CAN_PUT = 7;
+    static final byte CAN_TAKE = 8;
+
+    static final byte OK = 0;
+    static final byte NO_MATERIAL = 1;
+    static final byte NO_SPACE = 2;
+    static final byte UNKNOWN_WAREHOUSE = 3;
+    static final byte BAD_REQUEST = 4;
+    static final byte FAILED = 5;
+
+    static final int RESPONSE_BYTES = 8 + 1 + 8;
+    // requests are small, anything longer is a broken stream
+    static final int MAX_REQUEST_BYTES = 1 << 16;
+    static final int MAX_TYPES = 1 << 16;
+
+    private WarehouseProtocol() {
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int stringBytes(String value) {
+        return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
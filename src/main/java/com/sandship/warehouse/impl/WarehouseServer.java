@@ -0,0 +1,299 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sandship.warehouse.impl.WarehouseProtocol.*;
+
+// TCP front end over a fleet of warehouses, speaking WarehouseProtocol. Every connection has one
+// reader thread that parses requests and hands each one to the executor, so a client can pipeline
+// as many requests as it likes and a slow one doesn't hold up the rest. Responses are written as
+// requests complete and flushed once the connection has nothing left in flight.
+// Warehouses are looked up in the given map on every request, a concurrent map can change while serving.
+// A reader stops reading once its connection has maxInFlight requests outstanding, so a client that
+// sends faster than the warehouses answer is held back by TCP instead of filling the server's memory.
+// Observers registered on the warehouses run on the executor, some of them while a material's lock is held.
+// Those are ReentrantLocks, like the journal's, so an observer or log append that blocks under one parks a
+// virtual thread instead of pinning its carrier.
+// Material types are interned process-wide and never freed, so clients may only add maxNewTypes
+// types that weren't registered yet, all connections together.
+public class WarehouseServer implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    public static final int DEFAULT_MAX_NEW_TYPES = 1024;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    // requests the server's own pool queues, past that the reader runs them itself
+    private static final int QUEUED_REQUESTS = 4096;
+
+    private final Map<Long, ? extends Warehouse> warehouses;
+    private final Executor executor;
+    // executor created by the server, shut down with it
+    private final ExecutorService ownExecutor;
+    private final ServerSocket serverSocket;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final int maxInFlight;
+    private final int maxNewTypes;
+    // types clients registered that weren't known before
+    private final AtomicInteger newTypes = new AtomicInteger();
+    private volatile boolean closed;
+
+    // Listens on the loopback interface, port 0 picks a free port.
+    public WarehouseServer(int port, Map<Long, ? extends Warehouse> warehouses) throws IOException {
+        this(port, warehouses, null);
+    }
+
+    // Requests run on the executor, a direct executor (Runnable::run) runs them on the connection's reader.
+    public WarehouseServer(int port, Map<Long, ? extends Warehouse> warehouses, Executor executor) throws IOException {
+        this(port, warehouses, executor, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_NEW_TYPES);
+    }
+
+    public WarehouseServer(int port, Map<Long, ? extends Warehouse> warehouses, Executor executor,
+                           int maxInFlight, int maxNewTypes) throws IOException {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("A connection needs room for one request in flight.");
+        this.warehouses = warehouses;
+        this.maxInFlight = maxInFlight;
+        this.maxNewTypes = maxNewTypes;
+        int workers = Runtime.getRuntime().availableProcessors();
+        // a full queue runs the request on the reader, which stops that connection from reading more
+        this.ownExecutor = executor == null ? new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUED_REQUESTS), runnable -> {
+            Thread thread = new Thread(runnable, "warehouse-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy()) : null;
+        this.executor = executor != null ? executor : ownExecutor;
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "warehouse-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        if (ownExecutor != null) ownExecutor.shutdown();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(connection, "warehouse-server-connection-" + connectionCount.incrementAndGet());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) throw new IllegalStateException("Warehouse server stopped accepting connections.", e);
+            }
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Semaphore room = new Semaphore(maxInFlight);
+        // types this connection defined, by its own numbering; only the reader touches it
+        private MaterialType[] types = new MaterialType[16];
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int length = in.readInt();
+                    if (length < 9 || length > MAX_REQUEST_BYTES) throw new IOException("Bad request length " + length + ".");
+                    long requestId = in.readLong();
+                    byte operation = in.readByte();
+                    room.acquire();
+                    inFlight.incrementAndGet();
+                    if (operation == DEFINE_TYPE) {
+                        define(requestId);
+                    } else {
+                        dispatch(requestId, operation, length - 9);
+                    }
+                }
+            } catch (EOFException e) {
+                // client closed the connection
+            } catch (IOException e) {
+                // malformed request or broken socket, either way the connection is dropped below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        // Validated before anything is interned, a type the registry doesn't know yet counts against maxNewTypes.
+        private void define(long requestId) throws IOException {
+            int type = in.readInt();
+            long initialCapacity = in.readLong();
+            String name = readString(in);
+            String description = readString(in);
+            String icon = readString(in);
+            if (type < 0 || type >= MAX_TYPES || initialCapacity < 0) {
+                respond(requestId, BAD_REQUEST, 0);
+                return;
+            }
+            MaterialType materialType = MaterialTypeRegistry.find(name, description, icon, initialCapacity);
+            if (materialType == null) {
+                if (newTypes.incrementAndGet() > maxNewTypes) {
+                    newTypes.decrementAndGet();
+                    respond(requestId, BAD_REQUEST, 0);
+                    return;
+                }
+                materialType = new MaterialType(name, description, icon, initialCapacity);
+            }
+            if (type >= types.length) types = Arrays.copyOf(types, Math.max(type + 1, types.length * 2));
+            types[type] = materialType;
+            respond(requestId, OK, materialType.id());
+        }
+
+        private void dispatch(long requestId, byte operation, int operandBytes) throws IOException {
+            long warehouseId;
+            long destinationId = 0;
+            MaterialType materialType;
+            long quantity = 0;
+            switch (operation) {
+                case QUANTITY, AVAILABLE_SPACE -> {
+                    warehouseId = in.readLong();
+                    materialType = type(in.readInt());
+                }
+                case ADD, REMOVE, CAN_PUT, CAN_TAKE -> {
+                    warehouseId = in.readLong();
+                    materialType = type(in.readInt());
+                    quantity = in.readLong();
+                }
+                case TRANSFER -> {
+                    warehouseId = in.readLong();
+                    destinationId = in.readLong();
+                    materialType = type(in.readInt());
+                    quantity = in.readLong();
+                }
+                default -> {
+                    in.skipNBytes(operandBytes);
+                    respond(requestId, BAD_REQUEST, 0);
+                    return;
+                }
+            }
+            if (materialType == null) {
+                respond(requestId, BAD_REQUEST, 0);
+                return;
+            }
+            long source = warehouseId;
+            long destination = destinationId;
+            long amount = quantity;
+            try {
+                executor.execute(() -> execute(requestId, operation, source, destination, materialType, amount));
+            } catch (RejectedExecutionException e) {
+                respond(requestId, FAILED, 0);
+            }
+        }
+
+        private void execute(long requestId, byte operation, long warehouseId, long destinationId,
+                             MaterialType materialType, long quantity) {
+            Warehouse warehouse = warehouses.get(warehouseId);
+            Warehouse destination = operation == TRANSFER ? warehouses.get(destinationId) : null;
+            if (warehouse == null || (operation == TRANSFER && destination == null)) {
+                respond(requestId, UNKNOWN_WAREHOUSE, 0);
+                return;
+            }
+            byte status = OK;
+            long value;
+            try {
+                value = switch (operation) {
+                    case QUANTITY -> warehouse.getMaterialQuantity(materialType);
+                    case AVAILABLE_SPACE -> warehouse.getMaterialAvailableSpace(materialType);
+                    case ADD -> warehouse.addMaterial(materialType, quantity);
+                    case REMOVE -> warehouse.removeMaterial(materialType, quantity);
+                    case CAN_PUT -> warehouse.canPut(materialType, quantity) ? 1 : 0;
+                    case CAN_TAKE -> warehouse.canTake(materialType, quantity) ? 1 : 0;
+                    default -> warehouse.putMaterialTo(destination, materialType, quantity);
+                };
+            } catch (NoEnoughMaterialException e) {
+                status = NO_MATERIAL;
+                value = 0;
+            } catch (NoEnoughSpaceException e) {
+                status = NO_SPACE;
+                value = 0;
+            } catch (IllegalArgumentException e) {
+                status = BAD_REQUEST;
+                value = 0;
+            } catch (RuntimeException e) {
+                status = FAILED;
+                value = 0;
+            }
+            respond(requestId, status, value);
+        }
+
+        private MaterialType type(int type) {
+            return type >= 0 && type < types.length ? types[type] : null;
+        }
+
+        // The last response of a burst flushes, earlier ones stay in the buffer.
+        private void respond(long requestId, byte status, long value) {
+            room.release();
+            try {
+                synchronized (out) {
+                    out.writeLong(requestId);
+                    out.writeByte(status);
+                    out.writeLong(value);
+                    if (inFlight.decrementAndGet() == 0) out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            connections.remove(this);
+            // a reader waiting for room must not wait on responses that will never be written
+            room.release(maxInFlight);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.sandship.warehouse.impl;
+
+import com.sandship.warehouse.api.ConcurrentWarehouseMaterial;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.exception.NegativeTransferringMaterialCount;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.TransactionConflictException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Reads and writes any number of (warehouse, material) cells as one unit. Writes are buffered as
+// deltas and nothing is visible until commit. Commit locks the touched materials in the usual order,
+// higher warehouse id first and then by material type, checks that every value the body read is still
+// current and applies all deltas or none. A stale read makes execute run the body again, missing
+// material or space fails the transaction without a retry. A warehouse that lacks one of the touched
+// materials has its material table locked first, so nobody creates that material under a read of it;
+// the transaction creates the ones it writes only once every cell validated.
+public final class WarehouseTransaction {
+
+    static final int MAX_ATTEMPTS = 16;
+    private static final long NOT_READ = Long.MIN_VALUE;
+    private static final Comparator<Cell> COMMIT_ORDER = Comparator
+            .comparingLong((Cell cell) -> -cell.warehouse.getId())
+            .thenComparing(cell -> cell.materialType, MaterialType.LOCK_ORDER);
+
+    private final Map<CellKey, Cell> cells = new HashMap<>();
+
+    private WarehouseTransaction() {
+    }
+
+    public static <T> T execute(Function<WarehouseTransaction, T> body) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            WarehouseTransaction transaction = new WarehouseTransaction();
+            T result = body.apply(transaction);
+            if (transaction.commit()) return result;
+            backOff(attempt);
+        }
+        throw new TransactionConflictException(MAX_ATTEMPTS);
+    }
+
+    public static void run(Consumer<WarehouseTransaction> body) {
+        execute(transaction -> {
+            body.accept(transaction);
+            return null;
+        });
+    }
+
+    // Quantity as this transaction sees it, the committed value plus its own buffered changes.
+    public long getQuantity(Warehouse warehouse, MaterialType materialType) {
+        Cell cell = cell(warehouse, materialType);
+        if (cell.read == NOT_READ) cell.read = cell.warehouse.getMaterialQuantity(materialType);
+        return cell.read + cell.delta;
+    }
+
+    public void add(Warehouse warehouse, MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        Cell cell = cell(warehouse, materialType);
+        cell.delta = Math.addExact(cell.delta, quantity);
+    }
+
+    public void remove(Warehouse warehouse, MaterialType materialType, long quantity) {
+        if (quantity < 0) throw new NegativeTransferringMaterialCount();
+        Cell cell = cell(warehouse, materialType);
+        cell.delta = Math.subtractExact(cell.delta, quantity);
+    }
+
+    public void transfer(Warehouse source, Warehouse destination, MaterialType materialType, long quantity) {
+        remove(source, materialType, quantity);
+        add(destination, materialType, quantity);
+    }
+
+    private Cell cell(Warehouse warehouse, MaterialType materialType) {
+        if (!(warehouse instanceof WarehouseImpl impl))
+            throw new IllegalArgumentException("Transactions only span WarehouseImpl warehouses.");
+        return cells.computeIfAbsent(new CellKey(impl.getId(), materialType), key -> new Cell(impl, materialType));
+    }
+
+    // false when a read went stale, the caller runs the body again
+    private boolean commit() {
+        if (cells.isEmpty()) return true;
+        Cell[] ordered = cells.values().toArray(new Cell[0]);
+        Arrays.sort(ordered, COMMIT_ORDER);
+        // creation locks go first, the same order emptyWarehouse takes them in, materials follow in commit order
+        List<ReentrantLock> locks = new ArrayList<>(ordered.length);
+        List<ReentrantLock> materials = new ArrayList<>(ordered.length);
+        for (Cell cell : ordered) {
+            cell.material = cell.warehouse.existingMaterial(cell.materialType);
+            if (cell.material == null) {
+                if (cell.delta < 0) throw new NoEnoughMaterialException(cell.materialType);
+                ReentrantLock creationLock = cell.warehouse.materialCreationLock();
+                if (locks.isEmpty() || locks.get(locks.size() - 1) != creationLock) locks.add(creationLock);
+            } else {
+                // concurrent materials are locked too, which orders transactions among themselves, lock-free
+                // writers don't respect the locks, so their writes are reserved below as well
+                materials.add(cell.warehouse.lockOf(cell.material));
+            }
+        }
+        locks.addAll(materials);
+        if (!lockedOn(locks.toArray(new ReentrantLock[0]), 0, () -> validateAndApply(ordered))) return false;
+
+        for (Cell cell : ordered) {
+            if (cell.delta != 0) cell.warehouse.transactionApplied(cell.materialType, cell.delta);
+        }
+        return true;
+    }
+
+    private static boolean lockedOn(ReentrantLock[] locks, int index, BooleanSupplier action) {
+        if (index == locks.length) return action.getAsBoolean();
+        locks[index].lock();
+        try {
+            return lockedOn(locks, index + 1, action);
+        } finally {
+            locks[index].unlock();
+        }
+    }
+
+    // Every write is prepared and journaled before anything is applied, which keeps the transaction all
+    // or nothing. A material emptied away or created since it was looked up starts the commit over.
+    private static boolean validateAndApply(Cell[] cells) {
+        for (Cell cell : cells) {
+            if (cell.warehouse.existingMaterial(cell.materialType) != cell.material) return false;
+            if (cell.read != NOT_READ && cell.read != cell.warehouse.getMaterialQuantity(cell.materialType)) return false;
+        }
+        int prepared = 0;
+        try {
+            for (; prepared < cells.length; prepared++) {
+                prepare(cells[prepared]);
+            }
+            journal(cells);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < prepared; i++) {
+                release(cells[i]);
+            }
+            throw e;
+        }
+        for (Cell cell : cells) {
+            apply(cell);
+        }
+        return true;
+    }
+
+    private static void prepare(Cell cell) {
+        WarehouseMaterial material = cell.material;
+        if (material == null) {
+            if (cell.delta > cell.materialType.initialCapacity()) throw new NoEnoughSpaceException(cell.materialType);
+        } else if (cell.delta < 0) {
+            long quantity = -cell.delta;
+            if (material instanceof ConcurrentWarehouseMaterial concurrent) {
+                long held = concurrent.reserveQuantity(quantity);
+                if (held < quantity) {
+                    concurrent.releaseReservedQuantity(held);
+                    throw new NoEnoughMaterialException(cell.materialType);
+                }
+            } else if (!material.canTake(quantity)) {
+                throw new NoEnoughMaterialException(cell.materialType);
+            }
+        } else if (cell.delta > 0) {
+            if (material instanceof ConcurrentWarehouseMaterial concurrent) {
+                long reserved = concurrent.reserveSpace(cell.delta);
+                if (reserved < cell.delta) {
+                    concurrent.releaseReservedSpace(reserved);
+                    throw new NoEnoughSpaceException(cell.materialType);
+                }
+            } else if (!material.canPut(cell.delta)) {
+                throw new NoEnoughSpaceException(cell.materialType);
+            }
+        }
+    }
+
+    // Every log is checked before the first record goes in. A log that still refuses a record has the
+    // records already appended cancelled in their own logs, like a transfer between two logs.
+    private static void journal(Cell[] cells) {
+        for (Cell cell : cells) {
+            if (cell.delta != 0) cell.warehouse.checkJournalOpen();
+        }
+        int journaled = 0;
+        try {
+            for (; journaled < cells.length; journaled++) {
+                cells[journaled].warehouse.journalChange(cells[journaled].materialType, cells[journaled].delta);
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < journaled; i++) {
+                cells[i].warehouse.journalChange(cells[i].materialType, -cells[i].delta);
+            }
+            throw e;
+        }
+    }
+
+    private static void release(Cell cell) {
+        if (!(cell.material instanceof ConcurrentWarehouseMaterial concurrent)) return;
+        if (cell.delta < 0) {
+            concurrent.releaseReservedQuantity(-cell.delta);
+        } else if (cell.delta > 0) {
+            concurrent.releaseReservedSpace(cell.delta);
+        }
+    }
+
+    private static void apply(Cell cell) {
+        WarehouseMaterial material = cell.material;
+        if (material == null) {
+            if (cell.delta == 0) return;
+            // nobody sees the new material before it is filled, its creation lock is still held
+            material = cell.warehouse.newMaterial(cell.materialType);
+            cell.quantity = material.put(cell.delta);
+            cell.warehouse.addCreatedMaterial(material);
+        } else if (cell.delta < 0) {
+            cell.quantity = material instanceof ConcurrentWarehouseMaterial concurrent
+                    ? concurrent.commitReservedQuantity(-cell.delta)
+                    : material.take(-cell.delta);
+        } else if (cell.delta > 0) {
+            cell.quantity = material instanceof ConcurrentWarehouseMaterial concurrent
+                    ? concurrent.commitReservedSpace(cell.delta)
+                    : material.put(cell.delta);
+        }
+        cell.warehouse.logChange(cell.materialType, cell.delta, cell.quantity);
+    }
+
+    // short spins first, conflicts under skew tend to clear within a few commits
+    private static void backOff(int attempt) {
+        if (attempt > 6) {
+            Thread.yield();
+            return;
+        }
+        int spins = ThreadLocalRandom.current().nextInt(1 << (attempt + 3));
+        for (int i = 0; i < spins; i++) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private record CellKey(long warehouseId, MaterialType materialType) {
+    }
+
+    private static final class Cell {
+        private final WarehouseImpl warehouse;
+        private final MaterialType materialType;
+        private long read = NOT_READ;
+        private long delta;
+        private WarehouseMaterial material;
+        private long quantity;
+
+        private Cell(WarehouseImpl warehouse, MaterialType materialType) {
+            this.warehouse = warehouse;
+            this.materialType = materialType;
+        }
+    }
+}
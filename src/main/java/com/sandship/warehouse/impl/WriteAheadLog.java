@@ -0,0 +1,591 @@
+package com.sandship.warehouse.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only log of warehouse changes. Records go into preallocated memory-mapped segment files
+// as [payload length][crc32c][payload]; the unused tail of a segment stays zero, so replay of a
+// segment stops at the first zero length or bad checksum (a torn write) and continues with the next one.
+// Every segment defines the material types its records use, so segments can be read on their own.
+// checkpoint() folds sealed segments into a Checkpoint file and drops them, recovery then loads the
+// checkpoint and replays only the segments written after it.
+public class WriteAheadLog implements AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(5);
+
+    static final byte DEFINE_TYPE = 1;
+    static final byte ADD = 2;
+    static final byte REMOVE = 3;
+    static final byte TRANSFER = 4;
+    static final byte TRANSFER_BATCH = 5;
+    static final byte CAPACITY = 6;
+    static final byte EMPTY_MATERIAL = 7;
+    // only replayed, emptying all materials is now logged as one EMPTY_MATERIAL per material
+    static final byte EMPTY_ALL_MATERIALS = 8;
+    static final byte EMPTY_WAREHOUSE = 9;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int CELL_RECORD_BYTES = 1 + 8 + 4 + 8;
+    private static final int TRANSFER_RECORD_BYTES = 1 + 8 + 8 + 4 + 8;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final Durability durability;
+    private final int segmentBytes;
+    // segments written before this log was opened and not covered by a checkpoint, they are what recover replays
+    private final List<Path> recoverableSegments;
+    // the first segment this instance writes, checkpoints up to here don't contain its own records
+    private final long firstOwnSegment;
+    private final CRC32C checksum = new CRC32C();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private final Thread flusher;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // guarded by checkpointLock
+    private Path latestCheckpoint;
+
+    // ReentrantLocks rather than monitors: appends can roll a segment and forces wait on the disk,
+    // a virtual thread blocked in either would otherwise pin its carrier
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // guarded by appendLock
+    private long nextSegmentIndex;
+    private MappedByteBuffer segment;
+    private ByteBuffer checksumView;
+    private int position;
+    private long segmentStart;
+    private boolean[] definedTypes = new boolean[0];
+    private boolean closed;
+
+    // log sequence numbers, the count of bytes appended by this instance
+    private volatile long appendedLsn;
+    private volatile long durableLsn;
+
+    public WriteAheadLog(Path directory, Durability durability) throws IOException {
+        this(directory, durability, DEFAULT_SEGMENT_BYTES, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public WriteAheadLog(Path directory, Durability durability, int segmentBytes, Duration flushInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+        List<Path> checkpoints = listFiles(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        this.latestCheckpoint = checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+        long covered = coveredSegment(latestCheckpoint);
+        List<Path> segments = listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        this.recoverableSegments = segments.stream()
+                .filter(path -> index(path, SEGMENT_PREFIX, SEGMENT_SUFFIX) >= covered)
+                .collect(Collectors.toList());
+        this.nextSegmentIndex = segments.isEmpty() ? covered
+                : Math.max(covered, index(segments.get(segments.size() - 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) + 1);
+        this.firstOwnSegment = nextSegmentIndex;
+        if (durability == Durability.BATCHED) {
+            long intervalNanos = flushInterval.toNanos();
+            this.flusher = new Thread(() -> flushEvery(intervalNanos), "warehouse-wal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    // Rebuilds the warehouses from the latest checkpoint and the segments written after it that existed
+    // when the log was opened, keyed by their original id, and journals their further changes to this log.
+    public Map<Long, WarehouseImpl> recover(MaterialStorage storage) throws IOException {
+        Map<Long, Map<MaterialType, Cell>> cells = new HashMap<>();
+        checkpointLock.lock();
+        try {
+            if (coveredSegment(latestCheckpoint) > firstOwnSegment)
+                throw new IllegalStateException("Log was checkpointed before it was recovered.");
+            long covered = coveredSegment(latestCheckpoint);
+            if (latestCheckpoint != null) loadCheckpoint(latestCheckpoint, cells);
+            for (Path path : recoverableSegments) {
+                if (index(path, SEGMENT_PREFIX, SEGMENT_SUFFIX) >= covered) replaySegment(path, cells);
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+        Map<Long, WarehouseImpl> warehouses = new TreeMap<>();
+        for (Map.Entry<Long, Map<MaterialType, Cell>> entry : cells.entrySet()) {
+            WarehouseImpl warehouse = WarehouseImpl.restore(entry.getKey(), storage);
+            entry.getValue().forEach((materialType, cell) -> warehouse.restoreMaterial(materialType, cell.capacity, cell.quantity));
+            warehouse.setJournal(this);
+            warehouses.put(entry.getKey(), warehouse);
+        }
+        return warehouses;
+    }
+
+    // Seals the current segment and folds the previous checkpoint and every sealed segment into a
+    // new checkpoint, then deletes what it replaced. The image is exactly the state at the seal,
+    // writers only wait for the seal and keep appending to a fresh segment while the file is built.
+    public void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            long sealed = seal();
+            Path previous = latestCheckpoint;
+            long covered = coveredSegment(previous);
+            Map<Long, Map<MaterialType, Cell>> cells = new TreeMap<>();
+            if (previous != null) loadCheckpoint(previous, cells);
+            List<Path> folded = new ArrayList<>();
+            for (Path path : listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                long index = index(path, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (index >= sealed) continue;
+                if (index >= covered) replaySegment(path, cells);
+                folded.add(path);
+            }
+            Path next = directory.resolve(fileName(CHECKPOINT_PREFIX, sealed, CHECKPOINT_SUFFIX));
+            Checkpoint.write(next, sealed, rows -> cells.forEach((warehouseId, materials) -> {
+                if (materials.isEmpty()) rows.row(warehouseId, null, 0, 0);
+                materials.forEach((materialType, cell) -> rows.row(warehouseId, materialType, cell.capacity, cell.quantity));
+            }));
+            latestCheckpoint = next;
+            if (previous != null && !previous.equals(next)) Files.deleteIfExists(previous);
+            for (Path path : folded) {
+                Files.deleteIfExists(path);
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // Forces everything appended so far to disk.
+    public void sync() {
+        forceLock.lock();
+        try {
+            forceAppended();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        appendLock.lock();
+        try {
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            flusher.join();
+        }
+        sync();
+    }
+
+    // The log* methods only append. Writers call them under the lock of the material they change and
+    // before applying it, so a closed log rejects the change and every material's records are in the
+    // order its changes were applied. commit() is called after the lock is released, so with SYNC
+    // durability concurrent writers can share one force.
+    void logAdd(long warehouseId, MaterialType materialType, long quantity) {
+        appendCell(ADD, warehouseId, materialType, quantity);
+    }
+
+    void logRemove(long warehouseId, MaterialType materialType, long quantity) {
+        appendCell(REMOVE, warehouseId, materialType, quantity);
+    }
+
+    void logCapacity(long warehouseId, MaterialType materialType, long newCapacity) {
+        appendCell(CAPACITY, warehouseId, materialType, newCapacity);
+    }
+
+    // remaining is the held quantity an empty leaves behind, logs written before it was recorded have 0 here
+    void logEmptyMaterial(long warehouseId, MaterialType materialType, long remaining) {
+        appendCell(EMPTY_MATERIAL, warehouseId, materialType, remaining);
+    }
+
+    void logEmptyWarehouse(long warehouseId) {
+        appendWarehouse(EMPTY_WAREHOUSE, warehouseId);
+    }
+
+    void logTransfer(long sourceId, long destinationId, MaterialType materialType, long quantity) {
+        appendTransfer(sourceId, destinationId, materialType, quantity);
+    }
+
+    void logTransferBatch(long sourceId, long destinationId, List<MaterialType> materialTypes, long[] quantities) {
+        appendTransferBatch(sourceId, destinationId, materialTypes, quantities);
+    }
+
+    // Fails like an append would once the log is closed, for changes that can only be logged after they are applied.
+    void checkOpen() {
+        appendLock.lock();
+        try {
+            if (closed) throw new IllegalStateException("Write-ahead log is closed.");
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Waits until everything appended so far is as durable as the log's durability asks for.
+    void commit() {
+        if (durability == Durability.SYNC) awaitDurable(appendedLsn);
+    }
+
+    // Group commit: the first waiter forces everything appended so far, writers that queued up
+    // behind it usually find their record already covered and return without forcing again.
+    private void awaitDurable(long lsn) {
+        if (durableLsn >= lsn) return;
+        forceLock.lock();
+        try {
+            if (durableLsn >= lsn) return;
+            forceAppended();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    // caller holds forceLock, older segments were forced when the log rolled over them
+    private void forceAppended() {
+        MappedByteBuffer current;
+        int length;
+        long target;
+        appendLock.lock();
+        try {
+            current = segment;
+            length = position;
+            target = appendedLsn;
+        } finally {
+            appendLock.unlock();
+        }
+        if (current != null) current.force(0, length);
+        durableLsn = target;
+    }
+
+    private void flushEvery(long intervalNanos) {
+        while (!isClosed()) {
+            LockSupport.parkNanos(intervalNanos);
+            if (durableLsn < appendedLsn) sync();
+        }
+    }
+
+    // Everything before the returned segment index is on disk and will not be written again.
+    private long seal() {
+        appendLock.lock();
+        try {
+            if (segment != null) {
+                segment.force(0, position);
+                segment = null;
+            }
+            return nextSegmentIndex;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private boolean isClosed() {
+        appendLock.lock();
+        try {
+            return closed;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long appendCell(byte kind, long warehouseId, MaterialType materialType, long value) {
+        appendLock.lock();
+        try {
+            prepare(HEADER_BYTES + CELL_RECORD_BYTES, materialType);
+            int at = position + HEADER_BYTES;
+            segment.put(at, kind);
+            segment.putLong(at + 1, warehouseId);
+            segment.putInt(at + 9, materialType.id());
+            segment.putLong(at + 13, value);
+            return finish(CELL_RECORD_BYTES);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long appendWarehouse(byte kind, long warehouseId) {
+        appendLock.lock();
+        try {
+            prepare(HEADER_BYTES + 9, null);
+            int at = position + HEADER_BYTES;
+            segment.put(at, kind);
+            segment.putLong(at + 1, warehouseId);
+            return finish(9);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long appendTransfer(long sourceId, long destinationId, MaterialType materialType, long quantity) {
+        appendLock.lock();
+        try {
+            prepare(HEADER_BYTES + TRANSFER_RECORD_BYTES, materialType);
+            int at = position + HEADER_BYTES;
+            segment.put(at, TRANSFER);
+            segment.putLong(at + 1, sourceId);
+            segment.putLong(at + 9, destinationId);
+            segment.putInt(at + 17, materialType.id());
+            segment.putLong(at + 21, quantity);
+            return finish(TRANSFER_RECORD_BYTES);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long appendTransferBatch(long sourceId, long destinationId, List<MaterialType> materialTypes, long[] quantities) {
+        appendLock.lock();
+        try {
+            checkOpen();
+            int lines = materialTypes.size();
+            int payloadBytes = 1 + 8 + 8 + 4 + lines * 12;
+            int needed = HEADER_BYTES + payloadBytes;
+            for (MaterialType materialType : materialTypes) {
+                needed += definitionBytes(materialType);
+            }
+            if (!hasRoom(needed)) {
+                roll();
+                needed = HEADER_BYTES + payloadBytes;
+                for (MaterialType materialType : materialTypes) {
+                    needed += definitionBytes(materialType);
+                }
+                if (!hasRoom(needed)) throw new IllegalArgumentException("Record does not fit into a log segment.");
+            }
+            for (MaterialType materialType : materialTypes) {
+                define(materialType);
+            }
+            int at = position + HEADER_BYTES;
+            segment.put(at, TRANSFER_BATCH);
+            segment.putLong(at + 1, sourceId);
+            segment.putLong(at + 9, destinationId);
+            segment.putInt(at + 17, lines);
+            for (int i = 0; i < lines; i++) {
+                segment.putInt(at + 21 + i * 12, materialTypes.get(i).id());
+                segment.putLong(at + 25 + i * 12, quantities[i]);
+            }
+            return finish(payloadBytes);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Makes sure the record and the definition of its material type fit into the current segment,
+    // rolling to a new one when they don't, and writes the definition if the segment lacks it.
+    private void prepare(int recordBytes, MaterialType materialType) {
+        checkOpen();
+        if (!hasRoom(recordBytes + definitionBytes(materialType))) {
+            roll();
+            if (!hasRoom(recordBytes + definitionBytes(materialType)))
+                throw new IllegalArgumentException("Record does not fit into a log segment.");
+        }
+        define(materialType);
+    }
+
+    private boolean hasRoom(int bytes) {
+        return segment != null && position + bytes <= segmentBytes;
+    }
+
+    private boolean isDefined(MaterialType materialType) {
+        return materialType == null || materialType.id() < definedTypes.length && definedTypes[materialType.id()];
+    }
+
+    private int definitionBytes(MaterialType materialType) {
+        if (isDefined(materialType)) return 0;
+        return HEADER_BYTES + 1 + 4 + 8 + 6 + utf8(materialType.name()).length
+                + utf8(materialType.description()).length + utf8(materialType.icon()).length;
+    }
+
+    private void define(MaterialType materialType) {
+        if (isDefined(materialType)) return;
+        byte[] name = utf8(materialType.name());
+        byte[] description = utf8(materialType.description());
+        byte[] icon = utf8(materialType.icon());
+        int payloadBytes = 1 + 4 + 8 + 6 + name.length + description.length + icon.length;
+        int at = position + HEADER_BYTES;
+        segment.put(at, DEFINE_TYPE);
+        segment.putInt(at + 1, materialType.id());
+        segment.putLong(at + 5, materialType.initialCapacity());
+        at = putString(at + 13, name);
+        at = putString(at, description);
+        putString(at, icon);
+        finish(payloadBytes);
+        if (materialType.id() >= definedTypes.length) {
+            definedTypes = Arrays.copyOf(definedTypes, Math.max(materialType.id() + 1, definedTypes.length * 2));
+        }
+        definedTypes[materialType.id()] = true;
+    }
+
+    private int putString(int at, byte[] value) {
+        segment.putShort(at, (short) value.length);
+        segment.put(at + 2, value);
+        return at + 2 + value.length;
+    }
+
+    // The length goes in last, it is what makes the record visible to replay.
+    private long finish(int payloadBytes) {
+        int start = position + HEADER_BYTES;
+        checksumView.limit(start + payloadBytes).position(start);
+        checksum.reset();
+        checksum.update(checksumView);
+        segment.putInt(position + 4, (int) checksum.getValue());
+        segment.putInt(position, payloadBytes);
+        position = start + payloadBytes;
+        appendedLsn = segmentStart + position;
+        return appendedLsn;
+    }
+
+    // Mapping the whole segment up front sizes the file once, so appends never change file metadata.
+    private void roll() {
+        try {
+            if (segment != null) segment.force(0, position);
+            Path path = directory.resolve(fileName(SEGMENT_PREFIX, nextSegmentIndex++, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checksumView = segment.duplicate();
+        segmentStart = appendedLsn;
+        position = 0;
+        definedTypes = new boolean[definedTypes.length];
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Material type field is too long for the log.");
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String prefix, long index, String suffix) {
+        return String.format("%s%016d%s", prefix, index, suffix);
+    }
+
+    private static long index(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    // a checkpoint's index is the first segment it does not cover
+    private static long coveredSegment(Path checkpoint) {
+        return checkpoint == null ? 0 : index(checkpoint, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+    }
+
+    private static List<Path> listFiles(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(prefix) && name.endsWith(suffix);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void loadCheckpoint(Path checkpoint, Map<Long, Map<MaterialType, Cell>> warehouses) throws IOException {
+        Checkpoint.read(checkpoint, (warehouseId, materialType, capacity, quantity) -> {
+            Map<MaterialType, Cell> materials = cells(warehouses, warehouseId);
+            if (materialType == null) return;
+            Cell cell = new Cell(capacity);
+            cell.quantity = quantity;
+            materials.put(materialType, cell);
+        });
+    }
+
+    private static void replaySegment(Path path, Map<Long, Map<MaterialType, Cell>> warehouses) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CRC32C checksum = new CRC32C();
+        Map<Integer, MaterialType> typesById = new HashMap<>();
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            int start = position + HEADER_BYTES;
+            if (length <= 0 || length > buffer.limit() - start) break;
+            ByteBuffer record = buffer.slice(start, length);
+            checksum.reset();
+            checksum.update(record.duplicate());
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) break;
+            apply(record, typesById, warehouses);
+            position = start + length;
+        }
+    }
+
+    private static void apply(ByteBuffer record, Map<Integer, MaterialType> typesById, Map<Long, Map<MaterialType, Cell>> warehouses) {
+        byte kind = record.get();
+        switch (kind) {
+            case DEFINE_TYPE -> {
+                int id = record.getInt();
+                long initialCapacity = record.getLong();
+                typesById.put(id, new MaterialType(getString(record), getString(record), getString(record), initialCapacity));
+            }
+            case ADD -> cell(warehouses, record.getLong(), typesById.get(record.getInt())).quantity += record.getLong();
+            case REMOVE -> cell(warehouses, record.getLong(), typesById.get(record.getInt())).quantity -= record.getLong();
+            case CAPACITY -> cell(warehouses, record.getLong(), typesById.get(record.getInt())).capacity = record.getLong();
+            case EMPTY_MATERIAL -> cell(warehouses, record.getLong(), typesById.get(record.getInt())).quantity = record.getLong();
+            case EMPTY_ALL_MATERIALS -> cells(warehouses, record.getLong()).values().forEach(cell -> cell.quantity = 0);
+            case EMPTY_WAREHOUSE -> cells(warehouses, record.getLong()).clear();
+            case TRANSFER -> {
+                long sourceId = record.getLong();
+                long destinationId = record.getLong();
+                MaterialType materialType = typesById.get(record.getInt());
+                long quantity = record.getLong();
+                cell(warehouses, sourceId, materialType).quantity -= quantity;
+                cell(warehouses, destinationId, materialType).quantity += quantity;
+            }
+            case TRANSFER_BATCH -> {
+                long sourceId = record.getLong();
+                long destinationId = record.getLong();
+                int lines = record.getInt();
+                for (int i = 0; i < lines; i++) {
+                    MaterialType materialType = typesById.get(record.getInt());
+                    long quantity = record.getLong();
+                    cell(warehouses, sourceId, materialType).quantity -= quantity;
+                    cell(warehouses, destinationId, materialType).quantity += quantity;
+                }
+            }
+            default -> throw new IllegalStateException("Unknown log record kind " + kind + ".");
+        }
+    }
+
+    private static Map<MaterialType, Cell> cells(Map<Long, Map<MaterialType, Cell>> warehouses, long warehouseId) {
+        return warehouses.computeIfAbsent(warehouseId, id -> new HashMap<>());
+    }
+
+    private static Cell cell(Map<Long, Map<MaterialType, Cell>> warehouses, long warehouseId, MaterialType materialType) {
+        if (materialType == null) throw new IllegalStateException("Log record uses an undefined material type.");
+        return cells(warehouses, warehouseId).computeIfAbsent(materialType, type -> new Cell(type.initialCapacity()));
+    }
+
+    // Replay applies records as plain arithmetic. A material's records were appended under its lock in the
+    // order they were applied, so each cell passes through the same states memory did.
+    private static final class Cell {
+        private long quantity;
+        private long capacity;
+
+        private Cell(long capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.WarehouseObserver;
+import com.sandship.warehouse.impl.AsyncObserverDispatcher;
+import com.sandship.warehouse.impl.BackpressurePolicy;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncObserverDispatcherTest {
+    private final MaterialType ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1_000_000);
+    private final MaterialType copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1_000_000);
+
+    @Test
+    void eventsAreDeliveredOnDispatcherThread() throws InterruptedException {
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(64, BackpressurePolicy.BLOCK, Duration.ofMillis(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setObserverDispatcher(dispatcher);
+            RecordingObserver observer = new RecordingObserver();
+            warehouse.registerObserver(observer);
+
+            warehouse.addMaterial(ironType, 500);
+            dispatcher.flush();
+            assertEquals(500, observer.total(ironType));
+            assertNotSame(Thread.currentThread(), observer.lastThread);
+        }
+    }
+
+    @Test
+    void eventsAreCoalescedPerMaterialWithinBatch() throws InterruptedException {
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(64, BackpressurePolicy.BLOCK, Duration.ofSeconds(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setObserverDispatcher(dispatcher);
+            RecordingObserver observer = new RecordingObserver();
+            warehouse.registerObserver(observer);
+
+            for (int i = 0; i < 10; i++) {
+                warehouse.addMaterial(ironType, 10);
+                warehouse.addMaterial(copperType, 1);
+            }
+            warehouse.removeMaterial(ironType, 30);
+            dispatcher.flush();
+            assertEquals(70, observer.total(ironType));
+            assertEquals(10, observer.total(copperType));
+            assertTrue(observer.events() < 22);
+        }
+    }
+
+    @Test
+    void blockPolicyLosesNothing() throws InterruptedException {
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(4, BackpressurePolicy.BLOCK, Duration.ofMillis(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+            warehouse.setObserverDispatcher(dispatcher);
+            RecordingObserver observer = new RecordingObserver();
+            warehouse.registerObserver(observer);
+
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 2_000; i++) warehouse.addMaterial(ironType, 1);
+            });
+            dispatcher.flush();
+            assertEquals(16_000, observer.total(ironType));
+            assertEquals(0, dispatcher.getDroppedEvents());
+        }
+    }
+
+    @Test
+    void coalescePolicyKeepsNetQuantity() throws InterruptedException {
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(2, BackpressurePolicy.COALESCE, Duration.ofMillis(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+            warehouse.setObserverDispatcher(dispatcher);
+            SlowObserver observer = new SlowObserver();
+            warehouse.registerObserver(observer);
+
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 500; i++) {
+                    warehouse.addMaterial(ironType, 3);
+                    warehouse.removeMaterial(ironType, 1);
+                }
+            });
+            dispatcher.flush();
+            assertEquals(warehouse.getMaterialQuantity(ironType), observer.total(ironType));
+            assertEquals(0, dispatcher.getDroppedEvents());
+        }
+    }
+
+    @Test
+    void dropOldestPolicyDoesNotBlockWriters() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(4, BackpressurePolicy.DROP_OLDEST, Duration.ofMillis(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setObserverDispatcher(dispatcher);
+            warehouse.registerObserver(new WarehouseObserver() {
+                @Override
+                public void onMaterialAdded(MaterialType materialType, long quantity) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void onMaterialRemoved(MaterialType materialType, long quantity) {
+                }
+            });
+
+            for (int i = 0; i < 100; i++) {
+                warehouse.addMaterial(ironType, 1);
+            }
+            assertEquals(100, warehouse.getMaterialQuantity(ironType));
+            assertTrue(dispatcher.getDroppedEvents() > 0);
+            release.countDown();
+        }
+    }
+
+    @Test
+    void orderIsKeptPerWarehouseAndMaterial() throws InterruptedException {
+        try (AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(8, BackpressurePolicy.COALESCE, Duration.ofMillis(1))) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setObserverDispatcher(dispatcher);
+            RecordingObserver observer = new RecordingObserver();
+            warehouse.registerObserver(observer);
+
+            for (int i = 0; i < 5_000; i++) {
+                warehouse.addMaterial(ironType, 2);
+                warehouse.removeMaterial(ironType, 2);
+            }
+            dispatcher.flush();
+            // running total as seen by the observer never goes negative when events keep their order
+            assertTrue(observer.minimum >= 0);
+            assertEquals(0, observer.total(ironType));
+        }
+    }
+
+    @Test
+    void closedDispatcherDeliversSynchronously() throws InterruptedException {
+        AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(4, BackpressurePolicy.BLOCK, Duration.ofMillis(1));
+        WarehouseImpl warehouse = new WarehouseImpl();
+        warehouse.setObserverDispatcher(dispatcher);
+        RecordingObserver observer = new RecordingObserver();
+        warehouse.registerObserver(observer);
+        dispatcher.close();
+        assertEquals(1, warehouse.addMaterial(ironType, 1));
+        assertEquals(0, warehouse.removeMaterial(ironType, 1));
+        assertEquals(0, observer.total(ironType));
+        assertEquals(2, observer.events());
+        assertSame(Thread.currentThread(), observer.lastThread);
+    }
+
+    @Test
+    void closingUnderLoadLosesAndReordersNothing() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            AsyncObserverDispatcher dispatcher = new AsyncObserverDispatcher(2, BackpressurePolicy.BLOCK, Duration.ofMillis(1));
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setObserverDispatcher(dispatcher);
+            RecordingObserver observer = new RecordingObserver();
+            warehouse.registerObserver(observer);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < 5_000; i++) {
+                        warehouse.addMaterial(ironType, 1);
+                        warehouse.removeMaterial(ironType, 1);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+            dispatcher.close();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            // a lost event leaves the total off, an overtaking remove drives it below zero
+            assertEquals(0, observer.total(ironType), "round " + round);
+            assertTrue(observer.minimum >= 0, "round " + round);
+        }
+    }
+
+    private static class RecordingObserver implements WarehouseObserver {
+        private final List<Object[]> events = new ArrayList<>();
+        volatile Thread lastThread;
+        long running;
+        long minimum;
+
+        @Override
+        public synchronized void onMaterialAdded(MaterialType materialType, long quantity) {
+            record(materialType, quantity);
+        }
+
+        @Override
+        public synchronized void onMaterialRemoved(MaterialType materialType, long quantity) {
+            record(materialType, -quantity);
+        }
+
+        private void record(MaterialType materialType, long delta) {
+            lastThread = Thread.currentThread();
+            events.add(new Object[]{materialType, delta});
+            running += delta;
+            minimum = Math.min(minimum, running);
+        }
+
+        synchronized long total(MaterialType materialType) {
+            return events.stream().filter(e -> e[0].equals(materialType)).mapToLong(e -> (long) e[1]).sum();
+        }
+
+        synchronized int events() {
+            return events.size();
+        }
+    }
+
+    private static class SlowObserver extends RecordingObserver {
+        @Override
+        public synchronized void onMaterialAdded(MaterialType materialType, long quantity) {
+            super.onMaterialAdded(materialType, quantity);
+            LockSupport.parkNanos(50_000);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.ConcurrentWarehouseMaterial;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.AtomicWarehouseMaterial;
+import com.sandship.warehouse.impl.MaterialType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AtomicWarehouseMaterialTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20_000;
+
+    MaterialType metal = new MaterialType("Metal", "description for metal", "icon name", 1000);
+
+    @Test
+    void putAndTakeTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100);
+        assertEquals(60, material.put(60));
+        assertEquals(40, material.take(20));
+        assertEquals(60, material.getAvailableSpace());
+    }
+
+    @Test
+    void putOverCapacityTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        Exception exception = assertThrows(NoEnoughSpaceException.class, () -> material.put(60));
+        assertEquals("Not enough space for material: " + metal.name(), exception.getMessage());
+        assertEquals(50, material.getQuantity());
+    }
+
+    @Test
+    void takeMoreThanStoredTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        assertThrows(NoEnoughMaterialException.class, () -> material.take(60));
+        assertEquals(50, material.getQuantity());
+    }
+
+    @Test
+    void negativeQuantityTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        assertThrows(IllegalArgumentException.class, () -> material.put(-1));
+        assertThrows(IllegalArgumentException.class, () -> material.take(-1));
+    }
+
+    @Test
+    void decreaseCapacityTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> material.increaseCapacity(50));
+        assertEquals("New capacity must be greater than existing.", exception.getMessage());
+    }
+
+    @Test
+    void reservedSpaceIsNotAvailableTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        assertEquals(30, material.reserveSpace(30));
+        assertEquals(20, material.getAvailableSpace());
+        assertFalse(material.canPut(30));
+        assertEquals(20, material.reserveSpace(30));
+
+        material.releaseReservedSpace(20);
+        assertEquals(80, material.commitReservedSpace(30));
+        assertEquals(20, material.getAvailableSpace());
+    }
+
+    @Test
+    void reservedQuantityCannotBeTakenTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        assertEquals(30, material.reserveQuantity(30));
+        assertFalse(material.canTake(30));
+        assertEquals(50, material.getQuantity());
+        assertEquals(20, material.reserveQuantity(30));
+
+        material.releaseReservedQuantity(20);
+        assertEquals(20, material.commitReservedQuantity(30));
+        assertEquals(80, material.getAvailableSpace());
+    }
+
+    @Test
+    void cloneIsSnapshotTest() {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 100, 50);
+        var snapshot = material.clone();
+        material.put(10);
+        assertEquals(50, snapshot.getQuantity());
+        assertEquals(60, material.getQuantity());
+    }
+
+    @Test
+    void concurrentPutsAreNotLostTest() throws InterruptedException {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, (long) THREADS * ITERATIONS);
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) material.put(1);
+        });
+        assertEquals((long) THREADS * ITERATIONS, material.getQuantity());
+    }
+
+    @Test
+    void concurrentPutsNeverOverflowCapacityTest() throws InterruptedException {
+        long capacity = ITERATIONS / 2;
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, capacity);
+        AtomicLong accepted = new AtomicLong();
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                try {
+                    material.put(3);
+                    accepted.addAndGet(3);
+                } catch (NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+        assertEquals(accepted.get(), material.getQuantity());
+        assertTrue(material.getQuantity() <= capacity);
+        assertTrue(capacity - material.getQuantity() < 3);
+    }
+
+    @Test
+    void concurrentPutAndTakeTest() throws InterruptedException {
+        ConcurrentWarehouseMaterial material = new AtomicWarehouseMaterial(metal, 1000, 500);
+        AtomicLong net = new AtomicLong();
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                try {
+                    if (i % 2 == 0) {
+                        material.put(7);
+                        net.addAndGet(7);
+                    } else {
+                        material.take(5);
+                        net.addAndGet(-5);
+                    }
+                } catch (NoEnoughSpaceException | NoEnoughMaterialException ignored) {
+                }
+                long quantity = material.getQuantity();
+                assertTrue(quantity >= 0 && quantity <= material.getCapacity());
+            }
+        });
+        assertEquals(500 + net.get(), material.getQuantity());
+    }
+
+    static void runConcurrently(Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable t) {
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.ChangeLog;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeLogTest {
+
+    // four 40 byte records per segment
+    private static final int SEGMENT_BYTES = 160;
+
+    private MaterialType ironType;
+    private WarehouseImpl warehouse1;
+    private WarehouseImpl warehouse2;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        warehouse1 = new WarehouseImpl();
+        warehouse2 = new WarehouseImpl();
+    }
+
+    @Test
+    void cursorsReplayChangesAtTheirOwnPace() {
+        ChangeLog changeLog = new ChangeLog();
+        warehouse1.setChangeLog(changeLog);
+        warehouse2.setChangeLog(changeLog);
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.removeMaterial(ironType, 100);
+        warehouse1.putMaterialTo(warehouse2, ironType, 150);
+
+        ChangeLog.Cursor cursor = changeLog.cursor(0);
+        assertEquals(new ChangeLog.Change(0, warehouse1.getId(), ironType, 500, 500), cursor.poll());
+        assertEquals(new ChangeLog.Change(1, warehouse1.getId(), ironType, -100, 400), cursor.poll());
+        assertEquals(new ChangeLog.Change(2, warehouse1.getId(), ironType, -150, 250), cursor.poll());
+        assertEquals(new ChangeLog.Change(3, warehouse2.getId(), ironType, 150, 150), cursor.poll());
+        assertNull(cursor.poll());
+
+        ChangeLog.Cursor replay = changeLog.cursor(2);
+        assertEquals(2, replay.poll().sequence());
+        warehouse2.emptyWarehouse();
+        assertEquals(new ChangeLog.Change(4, warehouse2.getId(), ironType, -150, 0), cursor.poll());
+        assertEquals(3, replay.poll().sequence());
+        assertEquals(4, replay.poll().sequence());
+        assertNull(replay.poll());
+    }
+
+    @Test
+    void retentionRecyclesTheOldestSegment() {
+        ChangeLog changeLog = new ChangeLog(SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        warehouse1.setChangeLog(changeLog);
+        ChangeLog.Cursor cursor = changeLog.cursor(0);
+        for (int i = 1; i <= 20; i++) {
+            warehouse1.addMaterial(ironType, 1);
+        }
+        assertEquals(12, changeLog.getFirstSequence());
+        assertEquals(2 * SEGMENT_BYTES, changeLog.getRetainedBytes());
+        ChangeLog.Change change = cursor.poll();
+        assertEquals(12, change.sequence());
+        assertEquals(13, change.quantity());
+        assertEquals(12, cursor.getMissed());
+        int read = 1;
+        while (cursor.poll() != null) read++;
+        assertEquals(8, read);
+    }
+
+    @Test
+    void consumerKeepsUpWithConcurrentWriters() throws InterruptedException {
+        MaterialType bulkType = new MaterialType("Bulk", "A bulk material", "bulk_icon", 1_000_000);
+        ChangeLog changeLog = new ChangeLog();
+        ChangeLog.Cursor cursor = changeLog.tail();
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            warehouse.setChangeLog(changeLog);
+            writers.add(new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    warehouse.addMaterial(bulkType, 1);
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        long total = 0;
+        long expectedSequence = cursor.getSequence();
+        while (total < 40_000) {
+            ChangeLog.Change change = cursor.poll();
+            if (change == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            assertEquals(expectedSequence++, change.sequence());
+            total += change.delta();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(cursor.poll());
+        assertEquals(0, cursor.getMissed());
+    }
+
+    @Test
+    void recordsFollowTheOrderChangesWereApplied() throws InterruptedException {
+        ChangeLog changeLog = new ChangeLog();
+        WarehouseImpl striped = new WarehouseImpl(MaterialStorage.STRIPED);
+        WarehouseImpl other = new WarehouseImpl(MaterialStorage.STRIPED);
+        striped.setChangeLog(changeLog);
+        other.setChangeLog(changeLog);
+        striped.addMaterial(ironType, 500);
+        other.addMaterial(ironType, 500);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 2_000; i++) {
+                try {
+                    switch (random.nextInt(5)) {
+                        case 0 -> striped.addMaterial(ironType, random.nextInt(1, 20));
+                        case 1 -> striped.removeMaterial(ironType, random.nextInt(1, 20));
+                        case 2 -> striped.putMaterialTo(other, ironType, random.nextInt(1, 20));
+                        case 3 -> other.putMaterialTo(striped, ironType, random.nextInt(1, 20));
+                        default -> {
+                            if (i % 100 == 0) other.emptyMaterialType(ironType);
+                        }
+                    }
+                } catch (NoEnoughMaterialException | NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+
+        // every record must leave the quantity the previous record of its warehouse left, plus its delta
+        Map<Long, Long> quantities = new HashMap<>();
+        ChangeLog.Cursor cursor = changeLog.cursor(0);
+        for (ChangeLog.Change change = cursor.poll(); change != null; change = cursor.poll()) {
+            long before = quantities.getOrDefault(change.warehouseId(), 0L);
+            assertEquals(before + change.delta(), change.quantity(), "record " + change.sequence());
+            quantities.put(change.warehouseId(), change.quantity());
+        }
+        assertEquals(striped.getMaterialQuantity(ironType), (long) quantities.get(striped.getId()));
+        assertEquals(other.getMaterialQuantity(ironType), (long) quantities.get(other.getId()));
+    }
+}
@@ -0,0 +1,145 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.Checkpoint;
+import com.sandship.warehouse.impl.Durability;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WriteAheadLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointTest {
+
+    private Path directory;
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("warehouse-checkpoint");
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void liveWarehousesRoundTrip() throws IOException {
+        WarehouseImpl warehouse1 = new WarehouseImpl();
+        WarehouseImpl warehouse2 = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl empty = new WarehouseImpl();
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 700);
+        warehouse2.addMaterial(ironType, 1000);
+        warehouse2.increaseMaterialCapacity(ironType, 2500);
+        Path file = directory.resolve("warehouses.bin");
+
+        Checkpoint.write(file, List.of(warehouse1, warehouse2, empty));
+        Map<Long, WarehouseImpl> loaded = Checkpoint.load(file, MaterialStorage.STRIPED);
+
+        assertEquals(3, loaded.size());
+        Warehouse restored1 = loaded.get(warehouse1.getId());
+        Warehouse restored2 = loaded.get(warehouse2.getId());
+        assertEquals(500, restored1.getMaterialQuantity(ironType));
+        assertEquals(700, restored1.getMaterialQuantity(copperType));
+        assertEquals(1000, restored2.getMaterialQuantity(ironType));
+        assertEquals(1500, restored2.getMaterialAvailableSpace(ironType));
+        assertTrue(loaded.get(empty.getId()).getAllWarehouseMaterials().isEmpty());
+    }
+
+    @Test
+    void loadRejectsOtherFiles() throws IOException {
+        Path file = Files.write(directory.resolve("other.bin"), new byte[64]);
+        assertThrows(IOException.class, () -> Checkpoint.load(file, MaterialStorage.SYNCHRONIZED));
+    }
+
+    @Test
+    void logCheckpointReplacesFoldedSegments() throws Exception {
+        WarehouseImpl warehouse1 = new WarehouseImpl();
+        WarehouseImpl warehouse2 = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC, 256, Duration.ofMillis(1))) {
+            warehouse1.setJournal(log);
+            warehouse2.setJournal(log);
+            for (int i = 0; i < 50; i++) {
+                warehouse1.addMaterial(ironType, 10);
+                warehouse1.putMaterialTo(warehouse2, ironType, 4);
+            }
+            log.checkpoint();
+            assertEquals(1, files("checkpoint-").size());
+            assertTrue(files("wal-").isEmpty());
+            warehouse2.emptyWarehouse();
+            warehouse1.addMaterial(copperType, 30);
+            log.checkpoint();
+            warehouse1.removeMaterial(ironType, 100);
+        }
+        assertEquals(1, files("checkpoint-").size());
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(200, recovered.get(warehouse1.getId()).getMaterialQuantity(ironType));
+            assertEquals(30, recovered.get(warehouse1.getId()).getMaterialQuantity(copperType));
+            assertTrue(recovered.get(warehouse2.getId()).getAllWarehouseMaterials().isEmpty());
+            recovered.get(warehouse1.getId()).addMaterial(ironType, 1);
+            log.checkpoint();
+            assertThrows(IllegalStateException.class, () -> log.recover(MaterialStorage.SYNCHRONIZED));
+        }
+    }
+
+    @Test
+    void checkpointDoesNotStopWriters() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC, 4096, Duration.ofMillis(1))) {
+            warehouse.setJournal(log);
+            warehouse.addMaterial(ironType, 0);
+            warehouse.increaseMaterialCapacity(ironType, 1_000_000);
+            Thread checkpointer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        log.checkpoint();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            checkpointer.start();
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    warehouse.addMaterial(ironType, 3);
+                    warehouse.removeMaterial(ironType, 1);
+                }
+            });
+            checkpointer.join();
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            assertEquals(16000, log.recover(MaterialStorage.SYNCHRONIZED).get(warehouse.getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.FleetAggregateIndex;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FleetAggregateIndexTest {
+
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @Test
+    void totalsFollowEveryKindOfChange() {
+        FleetAggregateIndex index = new FleetAggregateIndex();
+        WarehouseImpl first = new WarehouseImpl();
+        WarehouseImpl second = new WarehouseImpl(MaterialStorage.ATOMIC);
+        first.addMaterial(ironType, 300);
+        index.track(first);
+        index.track(second);
+        assertEquals(300, index.getTotalQuantity(ironType));
+
+        second.addMaterial(ironType, 200);
+        first.putMaterialTo(second, ironType, 100);
+        first.transferBatch(second, Map.of(ironType, 50L));
+        second.addMaterial(copperType, 70);
+        assertEquals(500, index.getTotalQuantity(ironType));
+        assertEquals(1500, index.getTotalAvailableSpace(ironType));
+        assertEquals(70, index.getTotalQuantity(copperType));
+
+        first.increaseMaterialCapacity(ironType, 2000);
+        assertEquals(2500, index.getTotalAvailableSpace(ironType));
+        second.emptyAllMaterialTypes();
+        assertEquals(150, index.getTotalQuantity(ironType));
+        assertEquals(0, index.getTotalQuantity(copperType));
+        first.emptyWarehouse();
+        assertEquals(0, index.getTotalQuantity(ironType));
+
+        index.untrack(second);
+        assertEquals(0, index.getTotalQuantity(copperType));
+        second.addMaterial(copperType, 10);
+        assertEquals(0, index.getTotalQuantity(copperType));
+    }
+
+    @Test
+    void warehouseFollowsOneIndexAtATime() {
+        FleetAggregateIndex first = new FleetAggregateIndex();
+        FleetAggregateIndex second = new FleetAggregateIndex();
+        WarehouseImpl warehouse = new WarehouseImpl();
+        warehouse.addMaterial(ironType, 100);
+        first.track(warehouse);
+        assertThrows(IllegalStateException.class, () -> second.track(warehouse));
+        assertThrows(IllegalStateException.class, () -> first.track(warehouse));
+        warehouse.addMaterial(ironType, 50);
+        assertEquals(150, first.getTotalQuantity(ironType));
+        assertEquals(0, second.getTotalQuantity(ironType));
+
+        second.untrack(warehouse);
+        first.untrack(warehouse);
+        second.track(warehouse);
+        assertEquals(0, first.getTotalQuantity(ironType));
+        assertEquals(150, second.getTotalQuantity(ironType));
+    }
+
+    @Test
+    void topWarehousesByQuantityAndSpace() {
+        FleetAggregateIndex index = new FleetAggregateIndex(true);
+        WarehouseImpl[] fleet = new WarehouseImpl[5];
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = new WarehouseImpl();
+            index.track(fleet[i]);
+            fleet[i].addMaterial(ironType, 100 * (i + 1));
+        }
+        fleet[0].addMaterial(ironType, 800);
+
+        List<FleetAggregateIndex.RankedWarehouse> top = index.getTopByQuantity(ironType, 2);
+        assertEquals(2, top.size());
+        assertSame(fleet[0], top.get(0).warehouse());
+        assertEquals(900, top.get(0).value());
+        assertSame(fleet[4], top.get(1).warehouse());
+        assertSame(fleet[1], index.getTopByAvailableSpace(ironType, 1).get(0).warehouse());
+        assertEquals(5, index.getTopByQuantity(ironType, 10).size());
+        assertThrows(IllegalStateException.class, () -> new FleetAggregateIndex().getTopByQuantity(ironType, 1));
+    }
+
+    @Test
+    void totalsMatchWarehousesAfterConcurrentTransfers() throws InterruptedException {
+        for (boolean ranked : new boolean[]{false, true}) {
+            FleetAggregateIndex index = new FleetAggregateIndex(ranked);
+            WarehouseImpl[] fleet = new WarehouseImpl[4];
+            for (int i = 0; i < fleet.length; i++) {
+                fleet[i] = new WarehouseImpl(i % 2 == 0 ? MaterialStorage.ATOMIC : MaterialStorage.SYNCHRONIZED);
+                index.track(fleet[i]);
+                fleet[i].addMaterial(ironType, 500);
+            }
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    WarehouseImpl warehouse = fleet[random.nextInt(fleet.length)];
+                    try {
+                        if (random.nextBoolean()) {
+                            warehouse.putMaterialTo(fleet[random.nextInt(fleet.length)], ironType, random.nextLong(1, 100));
+                        } else {
+                            warehouse.removeMaterial(ironType, random.nextLong(1, 10));
+                            warehouse.addMaterial(ironType, random.nextLong(1, 10));
+                        }
+                    } catch (NoEnoughMaterialException | NoEnoughSpaceException ignored) {
+                    }
+                }
+            });
+            long total = 0;
+            long space = 0;
+            for (WarehouseImpl warehouse : fleet) {
+                total += warehouse.getMaterialQuantity(ironType);
+                space += warehouse.getMaterialAvailableSpace(ironType);
+            }
+            assertEquals(total, index.getTotalQuantity(ironType));
+            assertEquals(space, index.getTotalAvailableSpace(ironType));
+        }
+    }
+}
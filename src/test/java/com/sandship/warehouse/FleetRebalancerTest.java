@@ -0,0 +1,104 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseObserver;
+import com.sandship.warehouse.impl.FleetRebalancer;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FleetRebalancerTest {
+
+    private MaterialType ironType;
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        pool = new ForkJoinPool(4);
+    }
+
+    @Test
+    void bringsEveryWarehouseToTarget() {
+        List<Warehouse> fleet = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long quantity = random.nextInt(1001);
+            fleet.add(warehouse(quantity));
+            fleet.add(warehouse(1000 - quantity));
+        }
+        FleetRebalancer.Plan plan = new FleetRebalancer(pool).plan(fleet, ironType, 0.5);
+        FleetRebalancer.Result result = new FleetRebalancer(pool).execute(plan);
+        assertEquals(plan.getPlannedQuantity(), result.movedQuantity());
+        assertEquals(plan.getTransfers().size(), result.transfers());
+        assertEquals(0, result.failedTransfers());
+        for (Warehouse warehouse : fleet) {
+            assertEquals(500, warehouse.getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void fillsDeficitsAsFarAsSurplusGoes() {
+        List<Warehouse> fleet = List.of(warehouse(900), warehouse(100), warehouse(0), warehouse(300));
+        FleetRebalancer.Result result = new FleetRebalancer(pool).rebalance(fleet, ironType, 0.5);
+        assertEquals(400, result.movedQuantity());
+        assertEquals(500, fleet.get(0).getMaterialQuantity(ironType));
+        assertEquals(1300, fleet.stream().mapToLong(warehouse -> warehouse.getMaterialQuantity(ironType)).sum());
+        assertTrue(result.elapsed().toNanos() > 0);
+    }
+
+    @Test
+    void parallelTasksNeverShareAWarehouse() {
+        List<Warehouse> fleet = new ArrayList<>();
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            WarehouseImpl warehouse = warehouse(random.nextInt(1001));
+            AtomicInteger inside = new AtomicInteger();
+            warehouse.registerObserver(new WarehouseObserver() {
+                @Override
+                public void onMaterialAdded(MaterialType materialType, long quantity) {
+                    check();
+                }
+
+                @Override
+                public void onMaterialRemoved(MaterialType materialType, long quantity) {
+                    check();
+                }
+
+                private void check() {
+                    if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                    concurrent.incrementAndGet();
+                    Thread.onSpinWait();
+                    inside.decrementAndGet();
+                }
+            });
+            fleet.add(warehouse);
+        }
+        new FleetRebalancer(pool).rebalance(fleet, ironType, 0.3);
+        assertTrue(concurrent.get() > 0);
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    void rejectsTargetOutsideCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new FleetRebalancer(pool).plan(List.of(), ironType, 1.5));
+    }
+
+    private WarehouseImpl warehouse(long quantity) {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        warehouse.addMaterial(ironType, quantity);
+        return warehouse;
+    }
+}
@@ -0,0 +1,62 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.MaterialTypeRegistry;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MaterialTypeTest {
+
+    @Test
+    void equalTypesShareId() {
+        MaterialType first = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        MaterialType second = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        assertEquals(first.id(), second.id());
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    void differentTypesGetDifferentIds() {
+        MaterialType iron = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        MaterialType biggerIron = new MaterialType("Iron", "A metal material", "iron_icon", 2000);
+        assertNotEquals(iron.id(), biggerIron.id());
+        assertNotEquals(iron, biggerIron);
+    }
+
+    @Test
+    void registryLooksUpTypesById() {
+        MaterialType copper = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+        MaterialType registered = MaterialTypeRegistry.byId(copper.id());
+        assertEquals(copper, registered);
+        assertEquals("Copper", registered.name());
+        assertNull(MaterialTypeRegistry.byId(-1));
+        assertNull(MaterialTypeRegistry.byId(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void idsAreDense() {
+        MaterialType first = new MaterialType("Dense 1", "dense id material", "icon", 10);
+        MaterialType second = new MaterialType("Dense 2", "dense id material", "icon", 10);
+        assertTrue(second.id() < MaterialTypeRegistry.size());
+        assertTrue(first.id() < second.id());
+    }
+
+    @Test
+    void keepsRecordStyleToString() {
+        MaterialType iron = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        assertEquals("MaterialType[name=Iron, description=A metal material, icon=iron_icon, initialCapacity=1000]", iron.toString());
+    }
+
+    @Test
+    void warehouseHoldsTypesRegisteredAfterIt() {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        for (int i = 0; i < 100; i++) {
+            warehouse.addMaterial(new MaterialType("Late " + i, "registered after warehouse", "icon", 1000), i);
+        }
+        assertEquals(100, warehouse.getMaterialViews().size());
+        assertEquals(99, warehouse.getMaterialQuantity(new MaterialType("Late 99", "registered after warehouse", "icon", 1000)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.MovementAnalytics;
+import com.sandship.warehouse.impl.MovementAnalytics.Movement;
+import com.sandship.warehouse.impl.MovementAnalytics.Window;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MovementAnalyticsTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private MovementAnalytics analytics;
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() {
+        analytics = new MovementAnalytics(clock::get);
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @Test
+    void eventsLeaveEachWindowWhenItHasPassed() {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        analytics.track(warehouse);
+        warehouse.addMaterial(ironType, 100);
+        clock.addAndGet(30_000);
+        warehouse.addMaterial(ironType, 50);
+        warehouse.removeMaterial(ironType, 30);
+
+        Movement minute = analytics.movement(warehouse, ironType, Window.ONE_MINUTE);
+        assertEquals(150, minute.inflow());
+        assertEquals(30, minute.outflow());
+        assertEquals(120, minute.net());
+        assertEquals(2.5, minute.inflowPerSecond());
+
+        clock.addAndGet(45_000);
+        assertEquals(50, analytics.movement(warehouse, ironType, Window.ONE_MINUTE).inflow());
+        assertEquals(150, analytics.movement(warehouse, ironType, Window.FIVE_MINUTES).inflow());
+        clock.addAndGet(10 * 60_000);
+        assertEquals(0, analytics.movement(warehouse, ironType, Window.FIVE_MINUTES).inflow());
+        assertEquals(30, analytics.movement(warehouse, ironType, Window.ONE_HOUR).outflow());
+        clock.addAndGet(60 * 60_000);
+        assertEquals(new Movement(0, 0, Window.ONE_HOUR.getDuration()), analytics.movement(warehouse, ironType, Window.ONE_HOUR));
+    }
+
+    @Test
+    void transfersAreTrackedPerWarehouseAndFleetWide() {
+        WarehouseImpl source = new WarehouseImpl();
+        WarehouseImpl destination = new WarehouseImpl(MaterialStorage.ATOMIC);
+        analytics.track(source);
+        analytics.track(destination);
+        assertThrows(IllegalStateException.class, () -> analytics.track(source));
+        source.addMaterial(ironType, 500);
+        source.addMaterial(copperType, 10);
+        source.putMaterialTo(destination, ironType, 200);
+
+        assertEquals(200, analytics.movement(source, ironType, Window.ONE_MINUTE).outflow());
+        assertEquals(200, analytics.movement(destination, ironType, Window.ONE_MINUTE).inflow());
+        assertEquals(new Movement(700, 200, Window.ONE_MINUTE.getDuration()), analytics.movement(ironType, Window.ONE_MINUTE));
+        assertEquals(3, analytics.getTrackedCells());
+        assertEquals(3 * MovementAnalytics.BYTES_PER_CELL, analytics.getRetainedBytes());
+
+        analytics.untrack(source);
+        assertEquals(1, analytics.getTrackedCells());
+        source.addMaterial(ironType, 1);
+        assertThrows(IllegalStateException.class, () -> analytics.movement(source, ironType, Window.ONE_MINUTE));
+        assertEquals(new Movement(200, 0, Window.ONE_MINUTE.getDuration()), analytics.movement(ironType, Window.ONE_MINUTE));
+    }
+
+    @Test
+    void concurrentWritersAcrossBucketBoundariesLoseNothing() throws InterruptedException {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.STRIPED);
+        MaterialType bulkType = new MaterialType("Bulk", "A bulk material", "bulk_icon", Long.MAX_VALUE / 2);
+        analytics.track(warehouse);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    // every event moves the clock, 80 seconds in all
+                    clock.incrementAndGet();
+                    warehouse.addMaterial(bulkType, 1);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, analytics.movement(warehouse, bulkType, Window.ONE_HOUR).inflow());
+    }
+}
@@ -0,0 +1,266 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.api.WarehouseMaterial;
+import com.sandship.warehouse.api.WarehouseObserver;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.OffHeapInventoryStore;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapWarehouseTest {
+
+    private OffHeapInventoryStore store;
+    private Warehouse warehouse1;
+    private Warehouse warehouse2;
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() {
+        store = new OffHeapInventoryStore(4, 2);
+        warehouse1 = store.createWarehouse();
+        warehouse2 = store.createWarehouse();
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @Test
+    void addAndRemoveMaterial() {
+        assertEquals(500, warehouse1.addMaterial(ironType, 500));
+        assertEquals(300, warehouse1.removeMaterial(ironType, 200));
+        assertEquals(300, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(700, warehouse1.getMaterialAvailableSpace(ironType));
+        assertEquals(0, warehouse2.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void addBeyondCapacity() {
+        warehouse1.addMaterial(ironType, 800);
+        assertThrows(NoEnoughSpaceException.class, () -> warehouse1.addMaterial(ironType, 300));
+        assertEquals(800, warehouse1.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void removeNonExistingMaterial() {
+        assertThrows(NoEnoughMaterialException.class, () -> warehouse1.removeMaterial(ironType, 1));
+        assertThrows(IllegalArgumentException.class, () -> warehouse1.removeMaterial(ironType, -1));
+    }
+
+    @Test
+    void increaseMaterialCapacity() {
+        warehouse1.addMaterial(ironType, 1000);
+        assertEquals(1500, warehouse1.increaseMaterialCapacity(ironType, 1500));
+        assertTrue(warehouse1.canPut(ironType, 500));
+        assertFalse(warehouse1.canPut(ironType, 501));
+        assertThrows(IllegalArgumentException.class, () -> warehouse1.increaseMaterialCapacity(ironType, 1500));
+    }
+
+    @Test
+    void materialsAndViews() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 700);
+        assertEquals(2, warehouse1.getAllWarehouseMaterials().size());
+        WarehouseMaterial view = warehouse1.getMaterialView(ironType);
+        warehouse1.addMaterial(ironType, 100);
+        assertEquals(600, view.getQuantity());
+        assertEquals(600, warehouse1.getMaterial(ironType).getQuantity());
+        assertThrows(UnsupportedOperationException.class, () -> view.put(1));
+        assertNull(warehouse2.getMaterial(ironType));
+    }
+
+    @Test
+    void emptyWarehouse() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 700);
+        warehouse1.emptyMaterialType(ironType);
+        assertEquals(0, warehouse1.getMaterialQuantity(ironType));
+        warehouse1.emptyWarehouse();
+        assertTrue(warehouse1.getAllWarehouseMaterials().isEmpty());
+        assertEquals(1000, warehouse1.getMaterialAvailableSpace(copperType));
+    }
+
+    @Test
+    void reservationsDoNotSurviveEmptyWarehouse() {
+        warehouse1.addMaterial(ironType, 500);
+        Reservation space = warehouse1.reserveSpace(ironType, 200, Duration.ofMinutes(1));
+        Reservation held = warehouse1.reserve(ironType, 100, Duration.ofMinutes(1));
+        warehouse1.emptyWarehouse();
+        assertThrows(ReservationExpiredException.class, space::commit);
+        held.release();
+        // the recreated cell starts from its full capacity, untouched by the old reservations
+        assertEquals(1000, warehouse1.getMaterialAvailableSpace(ironType));
+        assertEquals(1000, warehouse1.addMaterial(ironType, 1000));
+        assertThrows(NoEnoughSpaceException.class, () -> warehouse1.addMaterial(ironType, 1));
+    }
+
+    @Test
+    void writersRacingEmptyWarehouseKeepQuantityWithinCapacity() throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        Runnable writes = () -> {
+            while (!stop.get()) {
+                try {
+                    warehouse1.addMaterial(ironType, 10);
+                    warehouse2.putMaterialTo(warehouse1, ironType, 5);
+                    warehouse1.removeMaterial(ironType, 3);
+                } catch (NoEnoughMaterialException | NoEnoughSpaceException ignored) {
+                }
+            }
+        };
+        Thread[] writers = {new Thread(writes), new Thread(writes)};
+        for (Thread writer : writers) writer.start();
+        for (int i = 0; i < 20_000; i++) {
+            warehouse2.addMaterial(ironType, 5);
+            warehouse1.emptyWarehouse();
+            warehouse2.emptyMaterialType(ironType);
+        }
+        stop.set(true);
+        for (Thread writer : writers) writer.join();
+        // a write that landed in the cleared row would show up once the cell is created again
+        warehouse1.emptyAllMaterialTypes();
+        warehouse1.addMaterial(ironType, 1);
+        assertEquals(1, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(warehouse1.getMaterial(ironType).getCapacity() - 1, warehouse1.getMaterialAvailableSpace(ironType));
+    }
+
+    @Test
+    void putMaterialTo() {
+        warehouse1.addMaterial(ironType, 1000);
+        warehouse2.addMaterial(ironType, 400);
+        assertEquals(600, warehouse1.putMaterialTo(warehouse2, ironType));
+        assertEquals(400, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(1000, warehouse2.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void transferMoreThanAvailableMaterial() {
+        warehouse1.addMaterial(ironType, 500);
+        assertThrows(NoEnoughMaterialException.class, () -> warehouse1.putMaterialTo(warehouse2, ironType, 1000));
+        assertEquals(500, warehouse1.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void transferToOtherBackendIsRejected() {
+        warehouse1.addMaterial(ironType, 500);
+        assertThrows(IllegalArgumentException.class, () -> warehouse1.putMaterialTo(new WarehouseImpl(), ironType, 100));
+    }
+
+    @Test
+    void heapWarehouseRejectsOffHeapWarehouses() {
+        WarehouseImpl heap = new WarehouseImpl();
+        heap.addMaterial(ironType, 500);
+        warehouse1.addMaterial(ironType, 500);
+        assertThrows(IllegalArgumentException.class, () -> heap.putMaterialTo(warehouse1, ironType, 100));
+        assertThrows(IllegalArgumentException.class, () -> heap.takeMaterialFrom(warehouse1, ironType, 100));
+        assertThrows(IllegalArgumentException.class, () -> heap.transferBatch(warehouse1, Map.of(ironType, 100L)));
+        assertEquals(500, heap.getMaterialQuantity(ironType));
+        assertEquals(500, warehouse1.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void transferBatchIsAllOrNothing() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 500);
+        warehouse2.addMaterial(copperType, 900);
+        assertThrows(NoEnoughSpaceException.class,
+                () -> warehouse1.transferBatch(warehouse2, Map.of(ironType, 200L, copperType, 300L)));
+        assertEquals(500, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(0, warehouse2.getMaterialQuantity(ironType));
+        assertEquals(1000, warehouse2.getMaterialAvailableSpace(ironType));
+
+        assertEquals(300, warehouse1.transferBatch(warehouse2, Map.of(ironType, 200L, copperType, 100L)));
+        assertEquals(1000, warehouse2.getMaterialQuantity(copperType));
+        assertEquals(200, warehouse2.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void observersAreNotified() {
+        long[] added = new long[1];
+        warehouse2.registerObserver(new WarehouseObserver() {
+            @Override
+            public void onMaterialAdded(MaterialType materialType, long quantity) {
+                added[0] += quantity;
+            }
+
+            @Override
+            public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            }
+        });
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.putMaterialTo(warehouse2, ironType, 200);
+        assertEquals(200, added[0]);
+    }
+
+    @Test
+    void storeLooksUpWarehousesById() {
+        Warehouse third = store.createWarehouse();
+        assertSame(third, store.getWarehouse(third.getId()));
+        assertSame(warehouse1, store.getWarehouse(warehouse1.getId()));
+        assertNull(store.getWarehouse(store.size()));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void storeRejectsTooManyMaterialTypes() {
+        OffHeapInventoryStore smallStore = new OffHeapInventoryStore(1, 2);
+        Warehouse warehouse = smallStore.createWarehouse();
+        warehouse.addMaterial(ironType, 1);
+        assertThrows(IllegalStateException.class, () -> warehouse.addMaterial(copperType, 1));
+    }
+
+    @Test
+    void concurrentAddsNeverOverflowCapacity() throws InterruptedException {
+        AtomicLong accepted = new AtomicLong();
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 1_000; i++) {
+                try {
+                    warehouse1.addMaterial(ironType, 7);
+                    accepted.addAndGet(7);
+                } catch (NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+        assertEquals(accepted.get(), warehouse1.getMaterialQuantity(ironType));
+        assertTrue(warehouse1.getMaterialQuantity(ironType) <= 1000);
+        assertEquals(1000, warehouse1.getMaterialQuantity(ironType) + warehouse1.getMaterialAvailableSpace(ironType));
+    }
+
+    @Test
+    void concurrentTransfersKeepTotal() throws InterruptedException {
+        Warehouse[] fleet = new Warehouse[6];
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = store.createWarehouse();
+            fleet[i].addMaterial(ironType, 500);
+        }
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 10_000; i++) {
+                Warehouse source = fleet[random.nextInt(fleet.length)];
+                Warehouse destination = fleet[random.nextInt(fleet.length)];
+                try {
+                    source.putMaterialTo(destination, ironType, random.nextLong(1, 100));
+                } catch (NoEnoughMaterialException ignored) {
+                }
+            }
+        });
+        long total = 0;
+        for (Warehouse warehouse : fleet) {
+            total += warehouse.getMaterialQuantity(ironType);
+            assertEquals(1000, warehouse.getMaterialQuantity(ironType) + warehouse.getMaterialAvailableSpace(ironType));
+        }
+        assertEquals(3000, total);
+    }
+}
@@ -0,0 +1,147 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+import com.sandship.warehouse.impl.ConsistentHashRing;
+import com.sandship.warehouse.impl.LoopbackTransport;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.PartitionNode;
+import com.sandship.warehouse.impl.PartitionRequest;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionNodeTest {
+
+    private MaterialType ironType;
+    private ConsistentHashRing ring;
+    private PartitionNode[] nodes;
+    private List<WarehouseImpl> fleet;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        ring = new ConsistentHashRing(List.of(0, 1, 2));
+        LoopbackTransport transport = new LoopbackTransport();
+        nodes = new PartitionNode[3];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new PartitionNode(i, ring, transport);
+            transport.register(nodes[i]);
+        }
+        fleet = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            WarehouseImpl warehouse = new WarehouseImpl();
+            nodes[ring.nodeFor(warehouse.getId())].host(warehouse);
+            fleet.add(warehouse);
+        }
+    }
+
+    @Test
+    void ringWithOneMoreNodeOnlyAssignsIdsToIt() {
+        ConsistentHashRing larger = new ConsistentHashRing(List.of(0, 1, 2, 3));
+        int moved = 0;
+        for (int id = 0; id < 10_000; id++) {
+            int owner = larger.nodeFor(id);
+            if (owner != ring.nodeFor(id)) {
+                assertEquals(3, owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1000 && moved < 4000, "moved " + moved);
+    }
+
+    @Test
+    void transfersAcrossNodesFromAnyCoordinator() {
+        WarehouseImpl source = fleet.get(0);
+        WarehouseImpl destination = otherNode(source);
+        PartitionNode coordinator = nodes[3 - ring.nodeFor(source.getId()) - ring.nodeFor(destination.getId())];
+        assertEquals(500, coordinator.addMaterial(source.getId(), ironType, 500));
+        assertEquals(200, coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 200));
+        assertEquals(300, source.getMaterialQuantity(ironType));
+        assertEquals(200, destination.getMaterialQuantity(ironType));
+        assertEquals(100, nodes[0].takeMaterialFrom(source.getId(), destination.getId(), ironType, 100));
+        assertEquals(400, nodes[1].getMaterialQuantity(source.getId(), ironType));
+        assertEquals(900, nodes[2].getMaterialAvailableSpace(destination.getId(), ironType));
+    }
+
+    @Test
+    void failedPrepareReleasesTheOtherHalf() {
+        WarehouseImpl source = fleet.get(0);
+        WarehouseImpl destination = otherNode(source);
+        PartitionNode coordinator = nodes[ring.nodeFor(source.getId())];
+        source.addMaterial(ironType, 500);
+        destination.addMaterial(ironType, 900);
+        assertThrows(NoEnoughSpaceException.class,
+                () -> coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 200));
+        assertThrows(NoEnoughMaterialException.class,
+                () -> coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 600));
+        // nothing stays held or set aside
+        assertTrue(source.canTake(ironType, 500));
+        assertEquals(100, destination.getMaterialAvailableSpace(ironType));
+        assertEquals(100, coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 100));
+        assertEquals(1000, destination.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void failedCompensationStaysAttachedToTheExpiredCommit() {
+        WarehouseImpl source = fleet.get(0);
+        WarehouseImpl destination = otherNode(source);
+        int sourceNode = ring.nodeFor(source.getId());
+        int coordinatorNode = 3 - sourceNode - ring.nodeFor(destination.getId());
+        LoopbackTransport loopback = new LoopbackTransport();
+        for (PartitionNode node : nodes) {
+            loopback.register(node);
+        }
+        // the source's hold expires on commit and the destination refuses to give the quantity back
+        PartitionNode coordinator = new PartitionNode(coordinatorNode, ring, (node, request) -> {
+            if (request.operation() == PartitionRequest.Operation.COMMIT && node == sourceNode)
+                throw new ReservationExpiredException();
+            if (request.operation() == PartitionRequest.Operation.REMOVE)
+                throw new NoEnoughMaterialException(request.materialType());
+            return loopback.send(node, request);
+        });
+        source.addMaterial(ironType, 500);
+        ReservationExpiredException thrown = assertThrows(ReservationExpiredException.class,
+                () -> coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 200));
+        assertEquals(1, thrown.getSuppressed().length);
+        assertTrue(thrown.getSuppressed()[0] instanceof NoEnoughMaterialException);
+    }
+
+    @Test
+    void lostSourceCommitIsTakenBackOutOfTheDestination() {
+        WarehouseImpl source = fleet.get(0);
+        WarehouseImpl destination = otherNode(source);
+        int sourceNode = ring.nodeFor(source.getId());
+        int coordinatorNode = 3 - sourceNode - ring.nodeFor(destination.getId());
+        LoopbackTransport loopback = new LoopbackTransport();
+        for (PartitionNode node : nodes) {
+            loopback.register(node);
+        }
+        // the source's commit never reaches it
+        PartitionNode coordinator = new PartitionNode(coordinatorNode, ring, (node, request) -> {
+            if (request.operation() == PartitionRequest.Operation.COMMIT && node == sourceNode)
+                throw new UncheckedIOException(new IOException("Connection reset"));
+            return loopback.send(node, request);
+        });
+        source.addMaterial(ironType, 500);
+        UncheckedIOException thrown = assertThrows(UncheckedIOException.class,
+                () -> coordinator.putMaterialTo(source.getId(), destination.getId(), ironType, 200));
+        assertEquals(0, thrown.getSuppressed().length);
+        assertEquals(500, source.getMaterialQuantity(ironType));
+        assertTrue(source.canTake(ironType, 500));
+        assertEquals(0, destination.getMaterialQuantity(ironType));
+    }
+
+    private WarehouseImpl otherNode(WarehouseImpl warehouse) {
+        int node = ring.nodeFor(warehouse.getId());
+        return fleet.stream().filter(other -> ring.nodeFor(other.getId()) != node).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,125 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.PlacementIndex;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlacementIndexTest {
+
+    private MaterialType ironType;
+    private PlacementIndex index;
+    private WarehouseImpl[] fleet;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        index = new PlacementIndex(10);
+        fleet = new WarehouseImpl[4];
+        long[] quantities = {900, 300, 600, 950};
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = new WarehouseImpl();
+            fleet[i].addMaterial(ironType, quantities[i]);
+            index.track(fleet[i]);
+        }
+    }
+
+    @Test
+    void fitQueries() {
+        // free space 100, 700, 400, 50
+        assertSame(fleet[2], index.bestFit(ironType, 300));
+        assertSame(fleet[0], index.firstFit(ironType, 60));
+        assertSame(fleet[1], index.firstFit(ironType, 101));
+        assertSame(fleet[1], index.worstFit(ironType, 1));
+        assertNull(index.bestFit(ironType, 701));
+        assertNull(index.firstFit(ironType, 701));
+        assertNull(index.worstFit(ironType, 701));
+    }
+
+    @Test
+    void warehouseFollowsOnePlacementIndexAtATime() {
+        PlacementIndex other = new PlacementIndex(10);
+        assertThrows(IllegalStateException.class, () -> index.track(fleet[1]));
+        assertThrows(IllegalStateException.class, () -> other.track(fleet[1]));
+        // still one position, the one that follows its changes
+        fleet[1].addMaterial(ironType, 650);
+        assertSame(fleet[2], index.worstFit(ironType, 1));
+        assertNull(index.bestFit(ironType, 401));
+        assertNull(other.worstFit(ironType, 1));
+
+        other.untrack(fleet[1]);
+        index.untrack(fleet[1]);
+        other.track(fleet[1]);
+        assertSame(fleet[1], other.worstFit(ironType, 50));
+        assertNull(index.bestFit(ironType, 401));
+        fleet[1].removeMaterial(ironType, 950);
+        assertSame(fleet[1], other.worstFit(ironType, 1000));
+        assertNull(index.bestFit(ironType, 401));
+    }
+
+    @Test
+    void followsPutTakeAndCapacity() {
+        fleet[1].addMaterial(ironType, 600);
+        assertSame(fleet[2], index.worstFit(ironType, 1));
+        fleet[3].removeMaterial(ironType, 950);
+        assertSame(fleet[3], index.worstFit(ironType, 1000));
+        fleet[0].increaseMaterialCapacity(ironType, 5000);
+        assertSame(fleet[0], index.firstFit(ironType, 1000));
+        fleet[0].emptyWarehouse();
+        assertSame(fleet[2], index.bestFit(ironType, 400));
+        assertSame(fleet[0], index.firstFit(ironType, 1000));
+    }
+
+    @Test
+    void coversWarehousesWithoutTheMaterial() {
+        MaterialType copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 500);
+        WarehouseImpl empty = new WarehouseImpl();
+        index.track(empty);
+        assertSame(fleet[0], index.firstFit(copperType, 500));
+        fleet[0].addMaterial(copperType, 500);
+        assertSame(fleet[1], index.firstFit(copperType, 500));
+        index.untrack(fleet[1]);
+        assertSame(fleet[2], index.firstFit(copperType, 500));
+    }
+
+    @Test
+    void matchesWarehousesAfterConcurrentChanges() throws InterruptedException {
+        PlacementIndex concurrentIndex = new PlacementIndex(64);
+        WarehouseImpl[] warehouses = new WarehouseImpl[64];
+        for (int i = 0; i < warehouses.length; i++) {
+            warehouses[i] = new WarehouseImpl(MaterialStorage.ATOMIC);
+            concurrentIndex.track(warehouses[i]);
+        }
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 10_000; i++) {
+                WarehouseImpl warehouse = warehouses[random.nextInt(warehouses.length)];
+                try {
+                    if (random.nextBoolean()) {
+                        warehouse.addMaterial(ironType, random.nextLong(1, 100));
+                    } else {
+                        warehouse.removeMaterial(ironType, random.nextLong(1, 100));
+                    }
+                } catch (NoEnoughMaterialException | NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+        WarehouseImpl first = null;
+        WarehouseImpl most = warehouses[0];
+        for (WarehouseImpl warehouse : warehouses) {
+            if (first == null && warehouse.canPut(ironType, 500)) first = warehouse;
+            if (warehouse.getMaterialAvailableSpace(ironType) > most.getMaterialAvailableSpace(ironType)) most = warehouse;
+        }
+        assertSame(first, concurrentIndex.firstFit(ironType, 500));
+        assertEquals(most.getMaterialAvailableSpace(ironType),
+                concurrentIndex.worstFit(ironType, 0).getMaterialAvailableSpace(ironType));
+    }
+}
@@ -0,0 +1,163 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.exception.ReservationExpiredException;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.OffHeapInventoryStore;
+import com.sandship.warehouse.impl.OffHeapWarehouse;
+import com.sandship.warehouse.impl.ReservationTimer;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReservationTest {
+
+    private static final Duration LONG_TTL = Duration.ofMinutes(1);
+
+    private ReservationTimer timer;
+    private MaterialType ironType;
+
+    @BeforeEach
+    void setUp() {
+        timer = new ReservationTimer(Duration.ofMillis(1), 64);
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        timer.close();
+    }
+
+    @Test
+    void heldQuantityCannotBeTaken() {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation reservation = warehouse.reserve(ironType, 70, LONG_TTL);
+            assertEquals(100, warehouse.getMaterialQuantity(ironType));
+            assertTrue(warehouse.canTake(ironType, 30));
+            assertFalse(warehouse.canTake(ironType, 31));
+            assertThrows(NoEnoughMaterialException.class, () -> warehouse.removeMaterial(ironType, 31));
+            assertThrows(NoEnoughMaterialException.class, () -> warehouse.reserve(ironType, 31, LONG_TTL));
+            assertTrue(reservation.isActive());
+        }
+    }
+
+    @Test
+    void commitRemovesHeldQuantity() {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation reservation = warehouse.reserve(ironType, 70, LONG_TTL);
+            assertEquals(30, reservation.commit());
+            assertEquals(30, warehouse.getMaterialQuantity(ironType));
+            assertTrue(warehouse.canTake(ironType, 30));
+            assertFalse(reservation.isActive());
+            assertThrows(ReservationExpiredException.class, reservation::commit);
+        }
+    }
+
+    @Test
+    void releaseGivesQuantityBack() {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation reservation = warehouse.reserve(ironType, 70, LONG_TTL);
+            reservation.release();
+            reservation.release();
+            assertTrue(warehouse.canTake(ironType, 100));
+            assertEquals(100, warehouse.getMaterialQuantity(ironType));
+            assertThrows(ReservationExpiredException.class, reservation::commit);
+        }
+    }
+
+    @Test
+    void reservedSpaceIsNotAvailable() {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation reservation = warehouse.reserveSpace(ironType, 800, LONG_TTL);
+            assertEquals(100, warehouse.getMaterialAvailableSpace(ironType));
+            assertFalse(warehouse.canPut(ironType, 101));
+            assertThrows(NoEnoughSpaceException.class, () -> warehouse.addMaterial(ironType, 101));
+            assertThrows(NoEnoughSpaceException.class, () -> warehouse.reserveSpace(ironType, 101, LONG_TTL));
+            assertEquals(900, reservation.commit());
+            assertEquals(900, warehouse.getMaterialQuantity(ironType));
+            assertEquals(100, warehouse.getMaterialAvailableSpace(ironType));
+        }
+    }
+
+    @Test
+    void expiredReservationIsReleased() throws InterruptedException {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation held = warehouse.reserve(ironType, 60, Duration.ofMillis(5));
+            Reservation space = warehouse.reserveSpace(ironType, 900, Duration.ofMillis(5));
+            awaitInactive(held);
+            awaitInactive(space);
+            assertThrows(ReservationExpiredException.class, held::commit);
+            assertTrue(warehouse.canTake(ironType, 100));
+            assertEquals(900, warehouse.getMaterialAvailableSpace(ironType));
+        }
+    }
+
+    @Test
+    void reservationsFromBeforeEmptyWarehouseDoNotCommit() {
+        for (Warehouse warehouse : warehouses()) {
+            warehouse.addMaterial(ironType, 100);
+            Reservation held = warehouse.reserve(ironType, 60, LONG_TTL);
+            Reservation space = warehouse.reserveSpace(ironType, 300, LONG_TTL);
+            warehouse.emptyWarehouse();
+            assertThrows(ReservationExpiredException.class, held::commit);
+            assertThrows(ReservationExpiredException.class, space::commit);
+            assertNull(warehouse.getMaterial(ironType));
+            assertEquals(0, warehouse.getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void manyReservationsExpireOnOneThread() throws InterruptedException {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        warehouse.setReservationTimer(timer);
+        warehouse.addMaterial(ironType, 1000);
+        List<Reservation> reservations = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            // spread over more than one turn of the wheel
+            reservations.add(warehouse.reserveSpace(ironType, 0, Duration.ofMillis(1 + i % 200)));
+        }
+        reservations.add(warehouse.reserve(ironType, 1000, Duration.ofMillis(150)));
+        assertFalse(warehouse.canTake(ironType, 1));
+        for (Reservation reservation : reservations) {
+            awaitInactive(reservation);
+        }
+        assertTrue(warehouse.canTake(ironType, 1000));
+    }
+
+    private List<Warehouse> warehouses() {
+        List<Warehouse> warehouses = new ArrayList<>();
+        for (MaterialStorage storage : MaterialStorage.values()) {
+            WarehouseImpl warehouse = new WarehouseImpl(storage);
+            warehouse.setReservationTimer(timer);
+            warehouses.add(warehouse);
+        }
+        OffHeapWarehouse offHeap = new OffHeapInventoryStore(2, 4).createWarehouse();
+        offHeap.setReservationTimer(timer);
+        warehouses.add(offHeap);
+        return warehouses;
+    }
+
+    private static void awaitInactive(Reservation reservation) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (reservation.isActive() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertFalse(reservation.isActive());
+    }
+}
@@ -0,0 +1,157 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.ConcurrentWarehouseMaterial;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.StripedWarehouseMaterial;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedWarehouseMaterialTest {
+    MaterialType metal = new MaterialType("Metal", "description for metal", "icon name", 1000);
+
+    @Test
+    void putAndTakeTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 0, 4);
+        assertEquals(60, material.put(60));
+        assertEquals(40, material.take(20));
+        assertEquals(60, material.getAvailableSpace());
+        assertEquals(100, material.getCapacity());
+    }
+
+    @Test
+    void initialQuantityTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 75, 4);
+        assertEquals(75, material.getQuantity());
+        assertEquals(25, material.getAvailableSpace());
+        assertTrue(material.canTake(75));
+        assertFalse(material.canPut(26));
+    }
+
+    @Test
+    void putUpToCapacityTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 0, 4);
+        for (int i = 0; i < 100; i++) material.put(1);
+        assertEquals(100, material.getQuantity());
+        Exception exception = assertThrows(NoEnoughSpaceException.class, () -> material.put(1));
+        assertEquals("Not enough space for material: " + metal.name(), exception.getMessage());
+    }
+
+    @Test
+    void takeMoreThanStoredTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 50, 4);
+        assertThrows(NoEnoughMaterialException.class, () -> material.take(60));
+        assertEquals(50, material.getQuantity());
+    }
+
+    @Test
+    void increaseCapacityTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 100, 4);
+        material.increaseCapacity(150);
+        assertEquals(150, material.getCapacity());
+        assertEquals(150, material.put(50));
+        assertThrows(IllegalArgumentException.class, () -> material.increaseCapacity(150));
+    }
+
+    @Test
+    void capacityNearLongMaxTest() {
+        long capacity = Long.MAX_VALUE - 10;
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, capacity, 0, 4);
+        assertThrows(NoEnoughSpaceException.class, () -> material.put(Long.MAX_VALUE - 1));
+        assertEquals(capacity, material.getAvailableSpace());
+        assertEquals(capacity - 5, material.put(capacity - 5));
+        assertThrows(NoEnoughSpaceException.class, () -> material.put(6));
+        assertEquals(capacity, material.put(5));
+        assertEquals(0, material.getAvailableSpace());
+    }
+
+    @Test
+    void emptyTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 50, 4);
+        material.empty();
+        assertEquals(0, material.getQuantity());
+        assertEquals(100, material.getAvailableSpace());
+    }
+
+    @Test
+    void reserveSpaceTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 50, 4);
+        assertEquals(30, material.reserveSpace(30));
+        assertEquals(20, material.reserveSpace(30));
+        assertEquals(0, material.getAvailableSpace());
+        material.releaseReservedSpace(20);
+        assertEquals(80, material.commitReservedSpace(30));
+        assertEquals(20, material.getAvailableSpace());
+    }
+
+    @Test
+    void reserveQuantityTest() {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 100, 50, 4);
+        assertEquals(30, material.reserveQuantity(30));
+        assertFalse(material.canTake(30));
+        assertEquals(50, material.getQuantity());
+        assertEquals(20, material.reserveQuantity(30));
+        material.releaseReservedQuantity(20);
+        assertEquals(20, material.commitReservedQuantity(30));
+        assertEquals(80, material.getAvailableSpace());
+    }
+
+    @Test
+    void invalidStripeCountTest() {
+        assertThrows(IllegalArgumentException.class, () -> new StripedWarehouseMaterial(metal, 100, 0, 3));
+    }
+
+    @Test
+    void concurrentPutsAreNotLostTest() throws InterruptedException {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 160_000);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 20_000; i++) material.put(1);
+        });
+        assertEquals(160_000, material.getQuantity());
+        assertEquals(0, material.getAvailableSpace());
+    }
+
+    @Test
+    void concurrentPutsNeverOverflowCapacityTest() throws InterruptedException {
+        long capacity = 10_000;
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, capacity);
+        AtomicLong accepted = new AtomicLong();
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                try {
+                    material.put(1);
+                    accepted.incrementAndGet();
+                } catch (NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+        assertEquals(capacity, accepted.get());
+        assertEquals(capacity, material.getQuantity());
+    }
+
+    @Test
+    void concurrentPutAndTakeTest() throws InterruptedException {
+        ConcurrentWarehouseMaterial material = new StripedWarehouseMaterial(metal, 1000, 500);
+        AtomicLong net = new AtomicLong();
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                try {
+                    if (i % 2 == 0) {
+                        material.put(7);
+                        net.addAndGet(7);
+                    } else {
+                        material.take(5);
+                        net.addAndGet(-5);
+                    }
+                } catch (NoEnoughSpaceException | NoEnoughMaterialException ignored) {
+                }
+            }
+        });
+        assertEquals(500 + net.get(), material.getQuantity());
+        assertEquals(1000, material.getQuantity() + material.getAvailableSpace());
+    }
+}
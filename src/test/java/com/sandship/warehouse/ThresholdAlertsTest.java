@@ -0,0 +1,98 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.ThresholdAlerts;
+import com.sandship.warehouse.impl.ThresholdAlerts.Alert;
+import com.sandship.warehouse.impl.ThresholdAlerts.Rule;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThresholdAlertsTest {
+
+    private final List<Alert> alerts = Collections.synchronizedList(new ArrayList<>());
+    private ThresholdAlerts thresholdAlerts;
+    private WarehouseImpl warehouse;
+    private MaterialType ironType;
+
+    @BeforeEach
+    void setUp() {
+        thresholdAlerts = new ThresholdAlerts(alerts::add);
+        warehouse = new WarehouseImpl();
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        warehouse.addMaterial(ironType, 500);
+    }
+
+    @Test
+    void reorderPointFiresOnceAndClearsPastTheHysteresis() {
+        Rule reorder = thresholdAlerts.reorderPoint(warehouse, ironType, 100, 50);
+        warehouse.removeMaterial(ironType, 350);
+        assertTrue(alerts.isEmpty());
+        warehouse.removeMaterial(ironType, 80);
+        assertEquals(List.of(new Alert(reorder, 70, true)), alerts);
+        // moving around the threshold stays quiet until the quantity is back at 150
+        warehouse.addMaterial(ironType, 60);
+        warehouse.removeMaterial(ironType, 40);
+        warehouse.addMaterial(ironType, 59);
+        assertEquals(1, alerts.size());
+        assertTrue(thresholdAlerts.isActive(reorder));
+        warehouse.addMaterial(ironType, 1);
+        assertEquals(new Alert(reorder, 150, false), alerts.get(1));
+        warehouse.removeMaterial(ironType, 51);
+        assertEquals(new Alert(reorder, 99, true), alerts.get(2));
+        assertEquals(3, alerts.size());
+    }
+
+    @Test
+    void oneChangeCrossingSeveralBoundariesAlertsInCrossingOrder() {
+        Rule high = thresholdAlerts.fillRatio(warehouse, ironType, 0.9, 100);
+        Rule low = thresholdAlerts.reorderPoint(warehouse, ironType, 200, 0);
+        Rule lower = thresholdAlerts.reorderPoint(warehouse, ironType, 100, 0);
+        thresholdAlerts.reorderPoint(warehouse, ironType, 10, 0);
+        assertEquals(900, high.getThreshold());
+
+        warehouse.addMaterial(ironType, 450);
+        warehouse.removeMaterial(ironType, 900);
+        assertEquals(List.of(new Alert(high, 950, true), new Alert(high, 50, false),
+                new Alert(low, 50, true), new Alert(lower, 50, true)), alerts);
+
+        assertTrue(thresholdAlerts.removeRule(lower));
+        assertFalse(thresholdAlerts.removeRule(lower));
+        warehouse.addMaterial(ironType, 500);
+        assertEquals(new Alert(low, 550, false), alerts.get(4));
+        assertEquals(5, alerts.size());
+    }
+
+    @Test
+    void quantitiesAtLongMaxValueStillCrossBoundaries() {
+        MaterialType bulkType = new MaterialType("Bulk", "A bulk material", "bulk_icon", Long.MAX_VALUE);
+        warehouse.addMaterial(bulkType, Long.MAX_VALUE);
+        Rule reorder = thresholdAlerts.reorderPoint(warehouse, bulkType, 100, 50);
+        assertTrue(alerts.isEmpty());
+        warehouse.removeMaterial(bulkType, Long.MAX_VALUE - 50);
+        assertEquals(List.of(new Alert(reorder, 50, true)), alerts);
+        warehouse.addMaterial(bulkType, Long.MAX_VALUE - 50);
+        assertEquals(new Alert(reorder, Long.MAX_VALUE, false), alerts.get(1));
+        assertEquals(2, alerts.size());
+    }
+
+    @Test
+    void ruleAddedPastItsThresholdFiresRightAway() {
+        WarehouseImpl empty = new WarehouseImpl();
+        Rule reorder = thresholdAlerts.reorderPoint(empty, ironType, 10, 5);
+        assertEquals(List.of(new Alert(reorder, 0, true)), alerts);
+        empty.addMaterial(ironType, 20);
+        assertEquals(new Alert(reorder, 20, false), alerts.get(1));
+
+        thresholdAlerts.untrack(empty);
+        empty.removeMaterial(ironType, 20);
+        assertEquals(2, alerts.size());
+        assertFalse(thresholdAlerts.isActive(reorder));
+    }
+}
@@ -0,0 +1,145 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.WarehouseObserver;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseCommandQueue;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseCommandQueueTest {
+
+    private MaterialType ironType;
+    private MaterialType copperType;
+    private WarehouseImpl warehouse;
+    // drains run when the test says so, so everything submitted before lands in one batch
+    private List<Runnable> drains;
+    private WarehouseCommandQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+        warehouse = new WarehouseImpl();
+        drains = new ArrayList<>();
+        queue = new WarehouseCommandQueue(warehouse, drains::add);
+    }
+
+    @Test
+    void addsOfOneTypeFoldIntoOneNotification() {
+        List<Long> added = new ArrayList<>();
+        warehouse.registerObserver(new WarehouseObserver() {
+            @Override
+            public void onMaterialAdded(MaterialType materialType, long quantity) {
+                added.add(quantity);
+            }
+
+            @Override
+            public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            }
+        });
+        CompletableFuture<Long> first = queue.addMaterial(ironType, 100);
+        CompletableFuture<Long> copper = queue.addMaterial(copperType, 50);
+        CompletableFuture<Long> second = queue.addMaterial(ironType, 200);
+        CompletableFuture<Long> third = queue.addMaterial(ironType, 300);
+        runDrains();
+        assertEquals(100, (long) first.getNow(null));
+        assertEquals(300, (long) second.getNow(null));
+        assertEquals(600, (long) third.getNow(null));
+        assertEquals(50, (long) copper.getNow(null));
+        // types are applied in id order, not in submission order
+        assertEquals(2, added.size());
+        assertEquals(Set.of(50L, 600L), Set.copyOf(added));
+        assertEquals(600, warehouse.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void runThatDoesNotFitFailsOnlyTheCommandsThatDoNotFit() {
+        CompletableFuture<Long> first = queue.addMaterial(ironType, 300);
+        CompletableFuture<Long> second = queue.addMaterial(ironType, 300);
+        CompletableFuture<Long> third = queue.addMaterial(ironType, 500);
+        CompletableFuture<Long> remove = queue.removeMaterial(ironType, 100);
+        CompletableFuture<Long> tooMuch = queue.removeMaterial(ironType, 600);
+        runDrains();
+        assertEquals(300, (long) first.getNow(null));
+        assertEquals(600, (long) second.getNow(null));
+        assertFailsWith(NoEnoughSpaceException.class, third);
+        assertEquals(500, (long) remove.getNow(null));
+        assertFailsWith(NoEnoughMaterialException.class, tooMuch);
+        assertEquals(500, warehouse.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void errorInBatchFailsItsCommandsAndLeavesQueueUsable() {
+        Error failure = new Error("observer failed");
+        boolean[] failed = {false};
+        warehouse.registerObserver(new WarehouseObserver() {
+            @Override
+            public void onMaterialAdded(MaterialType materialType, long quantity) {
+                if (failed[0]) return;
+                failed[0] = true;
+                throw failure;
+            }
+
+            @Override
+            public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            }
+        });
+        CompletableFuture<Long> iron = queue.addMaterial(ironType, 100);
+        CompletableFuture<Long> copper = queue.addMaterial(copperType, 50);
+        assertSame(failure, assertThrows(Error.class, this::runDrains));
+        assertFailsWith(Error.class, iron);
+        assertFailsWith(Error.class, copper);
+        CompletableFuture<Long> next = queue.addMaterial(ironType, 10);
+        runDrains();
+        assertEquals(110, (long) next.getNow(null));
+    }
+
+    @Test
+    void concurrentProducersOnTheCommonPool() throws Exception {
+        MaterialType bulkType = new MaterialType("Bulk", "A bulk material", "bulk_icon", 1_000_000);
+        WarehouseCommandQueue shared = new WarehouseCommandQueue(warehouse);
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        Thread[] producers = new Thread[8];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                List<CompletableFuture<Long>> own = new ArrayList<>();
+                for (int j = 0; j < 1000; j++) {
+                    own.add(shared.addMaterial(bulkType, 2));
+                    own.add(shared.removeMaterial(bulkType, 1));
+                }
+                synchronized (results) {
+                    results.addAll(own);
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(8000, warehouse.getMaterialQuantity(bulkType));
+    }
+
+    private void runDrains() {
+        while (!drains.isEmpty()) {
+            drains.remove(0).run();
+        }
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<?> future) {
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> future.get(0, TimeUnit.SECONDS));
+        assertEquals(expected, failure.getCause().getClass());
+    }
+}
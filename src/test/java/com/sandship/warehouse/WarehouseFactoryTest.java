@@ -0,0 +1,76 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseFactory;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseFactoryTest {
+
+    @Test
+    void concurrentCreationHandsOutUniqueIds() throws InterruptedException {
+        WarehouseFactory factory = new WarehouseFactory();
+        List<List<WarehouseImpl>> created = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            List<WarehouseImpl> own = new ArrayList<>();
+            created.add(own);
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 5000; j++) {
+                    own.add(factory.create());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Long> ids = new HashSet<>();
+        for (List<WarehouseImpl> own : created) {
+            for (WarehouseImpl warehouse : own) {
+                assertTrue(ids.add(warehouse.getId()));
+                assertSame(warehouse, factory.get(warehouse.getId()));
+            }
+        }
+        assertEquals(40_000, factory.size());
+        // warehouses created directly share the id space
+        assertFalse(ids.contains(new WarehouseImpl().getId()));
+    }
+
+    @Test
+    void bulkCreationUsesConsecutiveIds() {
+        WarehouseFactory factory = new WarehouseFactory();
+        WarehouseImpl[] warehouses = factory.createBulk(100_000);
+        long first = warehouses[0].getId();
+        for (int i = 0; i < warehouses.length; i++) {
+            assertEquals(first + i, warehouses[i].getId());
+            assertSame(warehouses[i], factory.get(first + i));
+        }
+        MaterialType ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        warehouses[0].addMaterial(ironType, 100);
+        assertEquals(100, warehouses[0].putMaterialTo(warehouses[99_999], ironType, 100));
+        assertEquals(100_000, factory.size());
+    }
+
+    @Test
+    void registerAndRemove() {
+        WarehouseFactory factory = new WarehouseFactory();
+        WarehouseImpl warehouse = new WarehouseImpl();
+        assertNull(factory.get(warehouse.getId()));
+        factory.register(warehouse);
+        assertSame(warehouse, factory.get(warehouse.getId()));
+        assertThrows(IllegalStateException.class, () -> factory.register(warehouse));
+        assertTrue(factory.remove(warehouse.getId()));
+        assertFalse(factory.remove(warehouse.getId()));
+        assertNull(factory.get(warehouse.getId()));
+        assertNull(factory.get(-1));
+        assertEquals(0, factory.size());
+    }
+}
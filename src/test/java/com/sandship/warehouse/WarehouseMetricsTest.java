@@ -0,0 +1,138 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseMetricsTest {
+
+    private WarehouseMetrics metrics;
+    private WarehouseImpl warehouse1;
+    private WarehouseImpl warehouse2;
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new WarehouseMetrics();
+        warehouse1 = new WarehouseImpl();
+        warehouse2 = new WarehouseImpl(MaterialStorage.ATOMIC);
+        warehouse1.setMetrics(metrics);
+        warehouse2.setMetrics(metrics);
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @Test
+    void operationsAreCountedByOutcome() {
+        warehouse1.addMaterial(ironType, 800);
+        warehouse1.addMaterial(copperType, 100);
+        assertThrows(NoEnoughSpaceException.class, () -> warehouse1.addMaterial(ironType, 300));
+        warehouse1.removeMaterial(ironType, 100);
+        assertThrows(NoEnoughMaterialException.class, () -> warehouse2.removeMaterial(ironType, 1));
+        warehouse1.putMaterialTo(warehouse2, ironType, 200);
+        assertThrows(NoEnoughMaterialException.class, () -> warehouse2.putMaterialTo(warehouse1, copperType, 1));
+        warehouse1.transferBatch(warehouse2, Map.of(ironType, 50L, copperType, 50L));
+
+        WarehouseMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, (long) snapshot.succeeded().get(WarehouseOperation.ADD));
+        assertEquals(1, (long) snapshot.failed().get(WarehouseOperation.ADD));
+        assertEquals(1, (long) snapshot.succeeded().get(WarehouseOperation.REMOVE));
+        assertEquals(1, (long) snapshot.failed().get(WarehouseOperation.REMOVE));
+        assertEquals(1, (long) snapshot.succeeded().get(WarehouseOperation.TRANSFER));
+        assertEquals(1, (long) snapshot.failed().get(WarehouseOperation.TRANSFER));
+        assertEquals(1, (long) snapshot.succeeded().get(WarehouseOperation.TRANSFER_BATCH));
+        assertEquals(2, snapshot.transferLatency().getCount());
+
+        WarehouseMetrics.MaterialThroughput iron = snapshot.materials().get(ironType);
+        assertEquals(4, iron.operations());
+        assertEquals(800, iron.added());
+        assertEquals(100, iron.removed());
+        assertEquals(250, iron.transferred());
+        assertEquals(50, snapshot.materials().get(copperType).transferred());
+    }
+
+    @Test
+    void monitorsAreCountedForLockingMaterialsOnly() {
+        warehouse1.addMaterial(ironType, 10);
+        warehouse1.removeMaterial(ironType, 5);
+        warehouse2.addMaterial(ironType, 10);
+        warehouse2.removeMaterial(ironType, 5);
+
+        WarehouseMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.lockAcquisitions());
+        assertEquals(2, snapshot.lockHoldTime().getCount());
+        assertTrue(snapshot.contendedLockAcquisitions() <= snapshot.lockAcquisitions());
+    }
+
+    @Test
+    void transferOfMissingMaterialFailsWithoutLocking() {
+        warehouse2.addMaterial(ironType, 5);
+        assertThrows(NoEnoughMaterialException.class, () -> warehouse2.putMaterialTo(warehouse1, ironType, 100));
+        assertEquals(0, metrics.snapshot().lockAcquisitions());
+        assertEquals(5, warehouse2.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void warehousesWithoutMetricsRecordNothing() {
+        new WarehouseImpl().addMaterial(ironType, 10);
+        assertEquals(0, (long) metrics.snapshot().succeeded().get(WarehouseOperation.ADD));
+    }
+
+    @Test
+    void histogramPercentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(100_000, snapshot.getMax());
+        assertEquals(50_000.5, snapshot.getMean(), 0.001);
+        assertEquals(50_000, snapshot.getPercentile(50), 50_000 / 64.0);
+        assertEquals(99_000, snapshot.getPercentile(99), 99_000 / 64.0);
+        assertEquals(100_000, snapshot.getPercentile(100));
+
+        LatencyHistogram single = new LatencyHistogram(1);
+        single.record(7);
+        assertEquals(7, single.snapshot().getPercentile(50));
+    }
+
+    @Test
+    void histogramRecordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 20_000; i++) {
+            histogram.record(i * 31L);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(i * 31L);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue(allocated < 1024, "recording allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void prometheusExport() throws IOException {
+        warehouse1.addMaterial(ironType, 800);
+        warehouse1.putMaterialTo(warehouse2, ironType, 200);
+        StringBuilder out = new StringBuilder();
+        PrometheusExporter.write(metrics.snapshot(), out);
+        String text = out.toString();
+        assertTrue(text.contains("warehouse_operations_total{operation=\"add\",outcome=\"success\"} 1\n"));
+        assertTrue(text.contains("warehouse_operations_total{operation=\"transfer\",outcome=\"failure\"} 0\n"));
+        assertTrue(text.contains("# TYPE warehouse_transfer_latency_seconds summary\n"));
+        assertTrue(text.contains("warehouse_transfer_latency_seconds_count 1\n"));
+        assertTrue(text.contains("warehouse_material_quantity_total{material=\"Iron\",direction=\"transferred\"} 200\n"));
+    }
+}
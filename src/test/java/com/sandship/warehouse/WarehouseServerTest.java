@@ -0,0 +1,132 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.MaterialTypeRegistry;
+import com.sandship.warehouse.impl.WarehouseClient;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseServerTest {
+
+    private MaterialType ironType;
+    private Map<Long, Warehouse> warehouses;
+    private WarehouseServer server;
+    private WarehouseClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        warehouses = new ConcurrentHashMap<>();
+        warehouses.put(1L, new WarehouseImpl());
+        warehouses.put(2L, new WarehouseImpl());
+        server = new WarehouseServer(0, warehouses);
+        client = new WarehouseClient("localhost", server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void pipelinedRequestsReachTheWarehouses() throws Exception {
+        List<CompletableFuture<Long>> adds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            adds.add(client.addMaterial(1, ironType, 5));
+        }
+        for (CompletableFuture<Long> add : adds) {
+            add.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(200, await(client.putMaterialTo(1, 2, ironType, 200)));
+        assertEquals(300, warehouses.get(1L).getMaterialQuantity(ironType));
+        assertEquals(200, await(client.getMaterialQuantity(2, ironType)));
+        assertEquals(800, await(client.getMaterialAvailableSpace(2, ironType)));
+        assertTrue(client.canTake(1, ironType, 300).get(10, TimeUnit.SECONDS));
+        assertFalse(client.canPut(1, ironType, 701).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failuresCompleteWithTheWarehouseException() throws Exception {
+        client.addMaterial(1, ironType, 1000).get(10, TimeUnit.SECONDS);
+        assertFailsWith(NoEnoughMaterialException.class, client.removeMaterial(2, ironType, 1));
+        assertFailsWith(NoEnoughSpaceException.class, client.addMaterial(1, ironType, 1));
+        assertFailsWith(IllegalArgumentException.class, client.addMaterial(3, ironType, 1));
+        assertFailsWith(IllegalArgumentException.class, client.addMaterial(1, ironType, -1));
+        assertEquals(1000, await(client.getMaterialQuantity(1, ironType)));
+    }
+
+    @Test
+    void remoteTypeDefinitionsAreCheckedBeforeInterning() throws Exception {
+        try (WarehouseServer limited = new WarehouseServer(0, warehouses, null, 16, 0);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), limited.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int registered = MaterialTypeRegistry.size();
+            String unknown = "Unobtainium-" + System.nanoTime();
+            // status 4 is a bad request, the server interned none of these
+            assertEquals(4, define(out, in, 1, 0, new String[]{unknown, "", ""}, 10));
+            assertEquals(4, define(out, in, 2, -1, new String[]{"Iron", "A metal material", "iron_icon"}, 1000));
+            assertEquals(4, define(out, in, 3, 1, new String[]{"Iron", "A metal material", "iron_icon"}, -1));
+            assertEquals(registered, MaterialTypeRegistry.size());
+            assertNull(MaterialTypeRegistry.find(unknown, "", "", 10));
+            // a type the process already knows takes no room
+            assertEquals(0, define(out, in, 4, 0, new String[]{"Iron", "A metal material", "iron_icon"}, 1000));
+        }
+    }
+
+    // Sends a raw DEFINE_TYPE request (name, description, icon) and returns the response status.
+    private static byte define(DataOutputStream out, DataInputStream in, long requestId, int type, String[] fields,
+                               long initialCapacity) throws Exception {
+        byte[][] encoded = new byte[fields.length][];
+        int length = 8 + 1 + 4 + 8;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 2 + encoded[i].length;
+        }
+        out.writeInt(length);
+        out.writeLong(requestId);
+        out.writeByte(1);
+        out.writeInt(type);
+        out.writeLong(initialCapacity);
+        for (byte[] field : encoded) {
+            out.writeShort(field.length);
+            out.write(field);
+        }
+        out.flush();
+        assertEquals(requestId, in.readLong());
+        byte status = in.readByte();
+        in.readLong();
+        return status;
+    }
+
+    private static long await(CompletableFuture<Long> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<?> future) {
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertEquals(expected, failure.getCause().getClass());
+    }
+}
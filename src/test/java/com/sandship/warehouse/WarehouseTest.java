@@ -1,14 +1,21 @@
 package com.sandship.warehouse;
 
 import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.exception.NoEnoughSpaceException;
+import com.sandship.warehouse.impl.AtomicWarehouseMaterial;
+import com.sandship.warehouse.impl.MaterialStorage;
 import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.StripedWarehouseMaterial;
 import com.sandship.warehouse.impl.WarehouseImpl;
 import com.sandship.warehouse.api.WarehouseMaterial;
 import com.sandship.warehouse.api.WarehouseObserver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -57,6 +64,51 @@ public class WarehouseTest {
         assertTrue(observer.materialRemovedCalled);
     }
 
+    @Test
+    void typedObserverOnlyReceivesItsMaterialType() {
+        TestObserver ironObserver = new TestObserver();
+        warehouse1.registerObserver(ironObserver, ironType);
+        warehouse1.addMaterial(copperType, 500);
+        assertFalse(ironObserver.materialAddedCalled);
+        warehouse1.addMaterial(ironType, 500);
+        assertTrue(ironObserver.materialAddedCalled);
+    }
+
+    @Test
+    void unregisterObserverRemovesTypedSubscriptions() {
+        TestObserver observer = new TestObserver();
+        warehouse1.registerObserver(observer, ironType);
+        warehouse1.unregisterObserver(observer);
+        warehouse1.addMaterial(ironType, 500);
+        assertFalse(observer.materialAddedCalled);
+    }
+
+    @Test
+    void observerRegisteredTwiceIsNotifiedOnce() {
+        CountingObserver observer = new CountingObserver();
+        warehouse1.registerObserver(observer);
+        warehouse1.registerObserver(observer);
+        warehouse1.addMaterial(ironType, 500);
+        assertEquals(1, observer.count.get());
+    }
+
+    @Test
+    void concurrentRegistrationDuringNotification() throws InterruptedException {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        MaterialType bulkType = new MaterialType("Bulk", "Large capacity material", "bulk_icon", 1_000_000);
+        CountingObserver permanent = new CountingObserver();
+        warehouse.registerObserver(permanent);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 2_000; i++) {
+                CountingObserver transientObserver = new CountingObserver();
+                warehouse.registerObserver(transientObserver, bulkType);
+                warehouse.addMaterial(bulkType, 1);
+                warehouse.unregisterObserver(transientObserver);
+            }
+        });
+        assertEquals(16_000, permanent.count.get());
+    }
+
     @Test
     void putMaterialTo() {
         warehouse1.addMaterial(ironType, 1000);
@@ -207,6 +259,52 @@ public class WarehouseTest {
         assertEquals(500, material.getQuantity());
     }
 
+    @Test
+    void materialViewReflectsLiveState() {
+        warehouse1.addMaterial(ironType, 500);
+        WarehouseMaterial view = warehouse1.getMaterialView(ironType);
+        warehouse1.addMaterial(ironType, 100);
+        assertEquals(600, view.getQuantity());
+        assertSame(view, warehouse1.getMaterialView(ironType));
+        assertNull(warehouse1.getMaterialView(copperType));
+    }
+
+    @Test
+    void materialViewIsReadOnly() {
+        warehouse1.addMaterial(ironType, 500);
+        WarehouseMaterial view = warehouse1.getMaterialView(ironType);
+        assertThrows(UnsupportedOperationException.class, () -> view.put(100));
+        assertThrows(UnsupportedOperationException.class, () -> view.take(100));
+        assertThrows(UnsupportedOperationException.class, view::empty);
+        assertEquals(500, warehouse1.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void materialViewsListEveryMaterial() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 700);
+        assertEquals(2, warehouse1.getMaterialViews().size());
+        assertThrows(UnsupportedOperationException.class, () -> warehouse1.getMaterialViews().clear());
+        warehouse1.emptyWarehouse();
+        assertTrue(warehouse1.getMaterialViews().isEmpty());
+    }
+
+    @Test
+    void forEachMaterialVisitsEveryMaterial() {
+        for (MaterialStorage storage : MaterialStorage.values()) {
+            WarehouseImpl warehouse = new WarehouseImpl(storage);
+            warehouse.addMaterial(ironType, 500);
+            warehouse.addMaterial(copperType, 700);
+            long[] totals = new long[2];
+            warehouse.forEachMaterial((materialType, quantity, capacity) -> {
+                totals[0] += quantity;
+                totals[1] += capacity;
+            });
+            assertEquals(1200, totals[0]);
+            assertEquals(2000, totals[1]);
+        }
+    }
+
     @Test
     void testEmptyWarehouse() {
         warehouse1.addMaterial(ironType, 500);
@@ -215,6 +313,217 @@ public class WarehouseTest {
         assertTrue(warehouse1.getAllWarehouseMaterials().isEmpty());
     }
 
+    @Test
+    void atomicStorageUsesAtomicMaterial() {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        warehouse.addMaterial(ironType, 500);
+        assertTrue(warehouse.getMaterial(ironType) instanceof AtomicWarehouseMaterial);
+        assertEquals(500, warehouse.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void atomicStorageConcurrentAddsAreNotLost() throws InterruptedException {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        MaterialType bulkType = new MaterialType("Bulk", "Large capacity material", "bulk_icon", 1_000_000);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 10_000; i++) warehouse.addMaterial(bulkType, 1);
+        });
+        assertEquals(80_000, warehouse.getMaterialQuantity(bulkType));
+    }
+
+    @Test
+    void atomicStorageConcurrentAddsNeverOverflowCapacity() throws InterruptedException {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        AtomicLong accepted = new AtomicLong();
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 1_000; i++) {
+                try {
+                    warehouse.addMaterial(ironType, 7);
+                    accepted.addAndGet(7);
+                } catch (NoEnoughSpaceException ignored) {
+                }
+            }
+        });
+        assertEquals(accepted.get(), warehouse.getMaterialQuantity(ironType));
+        assertTrue(warehouse.getMaterialQuantity(ironType) <= ironType.initialCapacity());
+    }
+
+    @Test
+    void atomicStorageConcurrentTransfersKeepTotal() throws InterruptedException {
+        WarehouseImpl first = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl second = new WarehouseImpl(MaterialStorage.ATOMIC);
+        first.addMaterial(ironType, 600);
+        second.addMaterial(ironType, 300);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                long quantity = ThreadLocalRandom.current().nextLong(1, 50);
+                try {
+                    if (i % 2 == 0) {
+                        first.putMaterialTo(second, ironType, quantity);
+                    } else {
+                        first.takeMaterialFrom(second, ironType, quantity);
+                    }
+                } catch (NoEnoughMaterialException ignored) {
+                }
+            }
+        });
+        assertEquals(900, first.getMaterialQuantity(ironType) + second.getMaterialQuantity(ironType));
+        assertEquals(ironType.initialCapacity(), first.getMaterialAvailableSpace(ironType) + first.getMaterialQuantity(ironType));
+        assertEquals(ironType.initialCapacity(), second.getMaterialAvailableSpace(ironType) + second.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void storageSelectedPerMaterialType() {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.SYNCHRONIZED, Map.of(copperType, MaterialStorage.STRIPED));
+        warehouse.addMaterial(ironType, 500);
+        warehouse.addMaterial(copperType, 700);
+        assertTrue(warehouse.getMaterial(copperType) instanceof StripedWarehouseMaterial);
+        assertFalse(warehouse.getMaterial(ironType) instanceof StripedWarehouseMaterial);
+        assertEquals(700, warehouse.getMaterialQuantity(copperType));
+    }
+
+    @Test
+    void stripedStorageConcurrentTransfersKeepTotal() throws InterruptedException {
+        WarehouseImpl first = new WarehouseImpl(MaterialStorage.STRIPED);
+        WarehouseImpl second = new WarehouseImpl(MaterialStorage.SYNCHRONIZED);
+        first.addMaterial(ironType, 600);
+        second.addMaterial(ironType, 300);
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                long quantity = ThreadLocalRandom.current().nextLong(1, 50);
+                try {
+                    if (i % 2 == 0) {
+                        first.putMaterialTo(second, ironType, quantity);
+                    } else {
+                        first.takeMaterialFrom(second, ironType, quantity);
+                    }
+                } catch (NoEnoughMaterialException ignored) {
+                }
+            }
+        });
+        assertEquals(900, first.getMaterialQuantity(ironType) + second.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void concurrentTransfersBetweenRandomPairsKeepTotal() throws InterruptedException {
+        WarehouseImpl[] fleet = new WarehouseImpl[6];
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = new WarehouseImpl(i % 2 == 0 ? MaterialStorage.SYNCHRONIZED : MaterialStorage.ATOMIC);
+            fleet[i].addMaterial(ironType, 500);
+        }
+        AtomicWarehouseMaterialTest.runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 10_000; i++) {
+                WarehouseImpl source = fleet[random.nextInt(fleet.length)];
+                WarehouseImpl destination = fleet[random.nextInt(fleet.length)];
+                try {
+                    source.putMaterialTo(destination, ironType, random.nextLong(1, 200));
+                } catch (NoEnoughMaterialException ignored) {
+                }
+            }
+        });
+        long total = 0;
+        for (WarehouseImpl warehouse : fleet) {
+            total += warehouse.getMaterialQuantity(ironType);
+            assertEquals(ironType.initialCapacity(), warehouse.getMaterialAvailableSpace(ironType) + warehouse.getMaterialQuantity(ironType));
+        }
+        assertEquals(3000, total);
+    }
+
+    @Test
+    void transferBatch() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 700);
+        long transferred = warehouse1.transferBatch(warehouse2, Map.of(ironType, 200L, copperType, 300L));
+        assertEquals(500, transferred);
+        assertEquals(300, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(400, warehouse1.getMaterialQuantity(copperType));
+        assertEquals(200, warehouse2.getMaterialQuantity(ironType));
+        assertEquals(300, warehouse2.getMaterialQuantity(copperType));
+    }
+
+    @Test
+    void transferBatchWithoutEnoughMaterialMovesNothing() {
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.addMaterial(copperType, 100);
+        assertThrows(NoEnoughMaterialException.class,
+                () -> warehouse1.transferBatch(warehouse2, Map.of(ironType, 200L, copperType, 300L)));
+        assertEquals(500, warehouse1.getMaterialQuantity(ironType));
+        assertEquals(100, warehouse1.getMaterialQuantity(copperType));
+        assertEquals(0, warehouse2.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void transferBatchWithoutEnoughSpaceMovesNothing() {
+        WarehouseImpl source = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl destination = new WarehouseImpl(MaterialStorage.STRIPED);
+        source.addMaterial(ironType, 500);
+        source.addMaterial(copperType, 500);
+        destination.addMaterial(copperType, 900);
+        assertThrows(NoEnoughSpaceException.class,
+                () -> source.transferBatch(destination, Map.of(ironType, 200L, copperType, 300L)));
+        assertEquals(500, source.getMaterialQuantity(ironType));
+        assertEquals(500, source.getMaterialQuantity(copperType));
+        assertEquals(0, destination.getMaterialQuantity(ironType));
+        assertEquals(900, destination.getMaterialQuantity(copperType));
+        assertTrue(source.canTake(ironType, 500));
+        assertTrue(destination.canPut(ironType, 1000));
+    }
+
+    @Test
+    void transferBatchNotifiesObservers() {
+        TestObserver sourceObserver = new TestObserver();
+        TestObserver destinationObserver = new TestObserver();
+        warehouse1.registerObserver(sourceObserver);
+        warehouse2.registerObserver(destinationObserver);
+        warehouse1.addMaterial(ironType, 500);
+        warehouse1.transferBatch(warehouse2, Map.of(ironType, 200L));
+        assertTrue(sourceObserver.materialRemovedCalled);
+        assertTrue(destinationObserver.materialAddedCalled);
+    }
+
+    @Test
+    void concurrentOppositeTransferBatchesKeepTotal() throws InterruptedException {
+        for (MaterialStorage storage : MaterialStorage.values()) {
+            WarehouseImpl first = new WarehouseImpl(storage);
+            WarehouseImpl second = new WarehouseImpl(MaterialStorage.SYNCHRONIZED);
+            first.addMaterial(ironType, 500);
+            first.addMaterial(copperType, 500);
+            second.addMaterial(ironType, 500);
+            second.addMaterial(copperType, 500);
+            Map<MaterialType, Long> manifest = Map.of(ironType, 3L, copperType, 5L);
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    try {
+                        if (ThreadLocalRandom.current().nextBoolean()) {
+                            first.transferBatch(second, manifest);
+                        } else {
+                            second.transferBatch(first, manifest);
+                        }
+                        first.putMaterialTo(second, ironType, 1);
+                    } catch (NoEnoughMaterialException | NoEnoughSpaceException ignored) {
+                    }
+                }
+            });
+            assertEquals(1000, first.getMaterialQuantity(ironType) + second.getMaterialQuantity(ironType));
+            assertEquals(1000, first.getMaterialQuantity(copperType) + second.getMaterialQuantity(copperType));
+        }
+    }
+
+    private static class CountingObserver implements WarehouseObserver {
+        final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void onMaterialAdded(MaterialType materialType, long quantity) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            count.incrementAndGet();
+        }
+    }
+
     private static class TestObserver implements WarehouseObserver {
         boolean materialAddedCalled = false;
         boolean materialRemovedCalled = false;
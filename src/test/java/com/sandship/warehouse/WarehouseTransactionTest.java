@@ -0,0 +1,129 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.WarehouseObserver;
+import com.sandship.warehouse.exception.NoEnoughMaterialException;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseTransaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarehouseTransactionTest {
+
+    private final MaterialType ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+    private final MaterialType copperType = new MaterialType("Copper", "A metal material", "copper_icon", 1000);
+
+    @Test
+    void crossDockCommitsAllCellsTogether() {
+        WarehouseImpl dock = new WarehouseImpl();
+        WarehouseImpl north = new WarehouseImpl();
+        WarehouseImpl south = new WarehouseImpl();
+        dock.addMaterial(ironType, 300);
+        dock.addMaterial(copperType, 100);
+        List<Long> added = new ArrayList<>();
+        north.registerObserver(new WarehouseObserver() {
+            @Override
+            public void onMaterialAdded(MaterialType materialType, long quantity) {
+                added.add(quantity);
+            }
+
+            @Override
+            public void onMaterialRemoved(MaterialType materialType, long quantity) {
+            }
+        });
+
+        long moved = WarehouseTransaction.execute(transaction -> {
+            long half = transaction.getQuantity(dock, ironType) / 2;
+            transaction.transfer(dock, north, ironType, half);
+            transaction.transfer(dock, south, ironType, half);
+            transaction.transfer(dock, north, copperType, 40);
+            // buffered writes are visible to the transaction, not to anyone else
+            assertEquals(0, transaction.getQuantity(dock, ironType));
+            assertEquals(300, dock.getMaterialQuantity(ironType));
+            return half;
+        });
+
+        assertEquals(150, moved);
+        assertEquals(0, dock.getMaterialQuantity(ironType));
+        assertEquals(150, north.getMaterialQuantity(ironType));
+        assertEquals(150, south.getMaterialQuantity(ironType));
+        assertEquals(60, dock.getMaterialQuantity(copperType));
+        assertEquals(40, north.getMaterialQuantity(copperType));
+        assertEquals(List.of(150L, 40L), added);
+    }
+
+    @Test
+    void missingMaterialAppliesNothing() {
+        WarehouseImpl source = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl destination = new WarehouseImpl();
+        source.addMaterial(ironType, 100);
+        source.addMaterial(copperType, 10);
+        assertThrows(NoEnoughMaterialException.class, () -> WarehouseTransaction.run(transaction -> {
+            transaction.transfer(source, destination, ironType, 100);
+            transaction.transfer(source, destination, copperType, 20);
+        }));
+        assertEquals(100, source.getMaterialQuantity(ironType));
+        assertEquals(10, source.getMaterialQuantity(copperType));
+        assertEquals(0, destination.getMaterialQuantity(ironType));
+        // the reservation taken for iron was released
+        assertTrue(source.canTake(ironType, 100));
+    }
+
+    @Test
+    void concurrentTransactionsKeepTheTotal() throws InterruptedException {
+        WarehouseImpl[] fleet = new WarehouseImpl[8];
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = new WarehouseImpl(i % 2 == 0 ? MaterialStorage.SYNCHRONIZED : MaterialStorage.STRIPED);
+            fleet[i].addMaterial(ironType, 100);
+        }
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2000; i++) {
+                    WarehouseImpl from = fleet[random.nextInt(fleet.length)];
+                    WarehouseImpl to = fleet[random.nextInt(fleet.length)];
+                    WarehouseTransaction.run(transaction -> {
+                        // moves half of what is there, which only holds if the read is still current
+                        long half = transaction.getQuantity(from, ironType) / 2;
+                        if (transaction.getQuantity(to, ironType) + half <= 1000) transaction.transfer(from, to, ironType, half);
+                    });
+                }
+            });
+            thread.setUncaughtExceptionHandler((failed, e) -> failures.add(e));
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (WarehouseImpl warehouse : fleet) {
+            total += warehouse.getMaterialQuantity(ironType);
+        }
+        assertEquals(List.of(), failures);
+        assertEquals(800, total);
+    }
+
+    @Test
+    void failedTransactionCreatesNoMaterial() {
+        WarehouseImpl source = new WarehouseImpl();
+        WarehouseImpl destination = new WarehouseImpl(MaterialStorage.ATOMIC);
+        source.addMaterial(ironType, 100);
+        assertThrows(NoEnoughMaterialException.class, () -> WarehouseTransaction.run(transaction -> {
+            transaction.transfer(source, destination, ironType, 50);
+            transaction.remove(source, ironType, 60);
+        }));
+        assertNull(destination.getMaterial(ironType));
+        assertTrue(destination.getMaterialViews().isEmpty());
+        assertEquals(100, source.getMaterialQuantity(ironType));
+    }
+}
@@ -0,0 +1,268 @@
+package com.sandship.warehouse;
+
+import com.sandship.warehouse.api.Reservation;
+import com.sandship.warehouse.api.Warehouse;
+import com.sandship.warehouse.impl.Durability;
+import com.sandship.warehouse.impl.MaterialStorage;
+import com.sandship.warehouse.impl.MaterialType;
+import com.sandship.warehouse.impl.WarehouseImpl;
+import com.sandship.warehouse.impl.WarehouseTransaction;
+import com.sandship.warehouse.impl.WriteAheadLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    private Path directory;
+    private MaterialType ironType;
+    private MaterialType copperType;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("warehouse-wal");
+        ironType = new MaterialType("Iron", "A metal material", "iron_icon", 1000);
+        copperType = new MaterialType("Copper", "Another metal material", "copper_icon", 1000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void recoverReplaysEveryKindOfChange() throws Exception {
+        WarehouseImpl warehouse1 = new WarehouseImpl();
+        WarehouseImpl warehouse2 = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            warehouse1.setJournal(log);
+            warehouse2.setJournal(log);
+            warehouse1.addMaterial(ironType, 800);
+            warehouse1.addMaterial(copperType, 600);
+            warehouse1.removeMaterial(ironType, 100);
+            warehouse1.putMaterialTo(warehouse2, ironType, 300);
+            warehouse1.transferBatch(warehouse2, Map.of(ironType, 100L, copperType, 200L));
+            warehouse2.increaseMaterialCapacity(ironType, 1500);
+            warehouse2.addMaterial(ironType, 1000);
+            warehouse2.emptyMaterialType(copperType);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(2, recovered.size());
+            Warehouse restored1 = recovered.get(warehouse1.getId());
+            Warehouse restored2 = recovered.get(warehouse2.getId());
+            assertEquals(300, restored1.getMaterialQuantity(ironType));
+            assertEquals(400, restored1.getMaterialQuantity(copperType));
+            assertEquals(1400, restored2.getMaterialQuantity(ironType));
+            assertEquals(100, restored2.getMaterialAvailableSpace(ironType));
+            assertEquals(0, restored2.getMaterialQuantity(copperType));
+            assertEquals(warehouse2.getId(), restored2.getId());
+        }
+    }
+
+    @Test
+    void recoverAfterEmptyingWarehouse() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            warehouse.setJournal(log);
+            warehouse.addMaterial(ironType, 800);
+            warehouse.emptyWarehouse();
+            warehouse.addMaterial(copperType, 50);
+            warehouse.emptyAllMaterialTypes();
+            warehouse.addMaterial(copperType, 70);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Warehouse restored = log.recover(MaterialStorage.ATOMIC).get(warehouse.getId());
+            assertNull(restored.getMaterial(ironType));
+            assertEquals(70, restored.getMaterialQuantity(copperType));
+        }
+    }
+
+    @Test
+    void heldQuantitySurvivesEmptyOnReplay() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.STRIPED);
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            warehouse.setJournal(log);
+            warehouse.addMaterial(ironType, 500);
+            Reservation held = warehouse.reserve(ironType, 100, Duration.ofMinutes(1));
+            warehouse.emptyMaterialType(ironType);
+            assertEquals(100, warehouse.getMaterialQuantity(ironType));
+            warehouse.addMaterial(ironType, 40);
+            held.commit();
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            assertEquals(40, log.recover(MaterialStorage.SYNCHRONIZED).get(warehouse.getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void concurrentEmptiesReplayToTheStateInMemory() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl other = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC)) {
+            warehouse.setJournal(log);
+            other.setJournal(log);
+            warehouse.addMaterial(ironType, 0);
+            warehouse.increaseMaterialCapacity(ironType, 1_000_000);
+            other.addMaterial(ironType, 0);
+            other.increaseMaterialCapacity(ironType, 1_000_000);
+            AtomicLong round = new AtomicLong();
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 500; i++) {
+                    switch ((int) (round.incrementAndGet() % 50)) {
+                        case 0 -> warehouse.emptyMaterialType(ironType);
+                        case 1 -> warehouse.emptyAllMaterialTypes();
+                        case 2 -> warehouse.putMaterialTo(other, ironType, warehouse.getMaterialQuantity(ironType) / 2);
+                        default -> warehouse.addMaterial(ironType, 3);
+                    }
+                }
+            });
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(warehouse.getMaterialQuantity(ironType), recovered.get(warehouse.getId()).getMaterialQuantity(ironType));
+            assertEquals(other.getMaterialQuantity(ironType), recovered.get(other.getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void recoveredWarehousesKeepLogging() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.BATCHED)) {
+            warehouse.setJournal(log);
+            warehouse.addMaterial(ironType, 100);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC)) {
+            log.recover(MaterialStorage.SYNCHRONIZED).get(warehouse.getId()).addMaterial(ironType, 200);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(300, recovered.get(warehouse.getId()).getMaterialQuantity(ironType));
+            assertTrue(new WarehouseImpl().getId() > warehouse.getId());
+        }
+    }
+
+    @Test
+    void recordsSpanSeveralSegments() throws Exception {
+        WarehouseImpl warehouse1 = new WarehouseImpl();
+        WarehouseImpl warehouse2 = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC, 256, Duration.ofMillis(1))) {
+            warehouse1.setJournal(log);
+            warehouse2.setJournal(log);
+            for (int i = 0; i < 100; i++) {
+                warehouse1.addMaterial(i % 2 == 0 ? ironType : copperType, 5);
+                warehouse1.putMaterialTo(warehouse2, ironType, 1);
+            }
+        }
+        assertTrue(segments().size() > 10);
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(150, recovered.get(warehouse1.getId()).getMaterialQuantity(ironType));
+            assertEquals(250, recovered.get(warehouse1.getId()).getMaterialQuantity(copperType));
+            assertEquals(100, recovered.get(warehouse2.getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void tornRecordIsIgnored() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC, 4096, Duration.ofMillis(1))) {
+            warehouse.setJournal(log);
+            warehouse.addMaterial(ironType, 100);
+            warehouse.addMaterial(ironType, 50);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            long last = file.length() - 1;
+            while (last > 0) {
+                file.seek(last);
+                if (file.read() != 0) break;
+                last--;
+            }
+            file.seek(last);
+            file.write(0x7F);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            assertEquals(100, log.recover(MaterialStorage.SYNCHRONIZED).get(warehouse.getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void concurrentWritersShareTheLog() throws Exception {
+        WarehouseImpl[] warehouses = {new WarehouseImpl(MaterialStorage.ATOMIC), new WarehouseImpl(MaterialStorage.ATOMIC)};
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC, 1 << 16, Duration.ofMillis(1))) {
+            for (WarehouseImpl warehouse : warehouses) {
+                warehouse.setJournal(log);
+                warehouse.addMaterial(ironType, 0);
+                warehouse.increaseMaterialCapacity(ironType, 1_000_000);
+            }
+            AtomicWarehouseMaterialTest.runConcurrently(() -> {
+                for (int i = 0; i < 500; i++) {
+                    warehouses[0].addMaterial(ironType, 2);
+                    warehouses[0].putMaterialTo(warehouses[1], ironType, 1);
+                }
+            });
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, Durability.SYNC)) {
+            Map<Long, WarehouseImpl> recovered = log.recover(MaterialStorage.SYNCHRONIZED);
+            assertEquals(4000, recovered.get(warehouses[0].getId()).getMaterialQuantity(ironType));
+            assertEquals(4000, recovered.get(warehouses[1].getId()).getMaterialQuantity(ironType));
+        }
+    }
+
+    @Test
+    void closedLogRejectsChanges() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl();
+        WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC);
+        warehouse.setJournal(log);
+        log.close();
+        assertThrows(IllegalStateException.class, () -> warehouse.addMaterial(ironType, 1));
+        assertEquals(0, warehouse.getMaterialQuantity(ironType));
+    }
+
+    @Test
+    void closedLogRejectsChangesBeforeTheyAreApplied() throws Exception {
+        WarehouseImpl warehouse = new WarehouseImpl(MaterialStorage.ATOMIC);
+        WarehouseImpl other = new WarehouseImpl();
+        WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC);
+        warehouse.setJournal(log);
+        warehouse.addMaterial(ironType, 500);
+        Reservation space = warehouse.reserveSpace(ironType, 100, Duration.ofMinutes(1));
+        log.close();
+        assertThrows(IllegalStateException.class, () -> warehouse.removeMaterial(ironType, 100));
+        assertThrows(IllegalStateException.class, () -> warehouse.emptyMaterialType(ironType));
+        assertThrows(IllegalStateException.class, () -> warehouse.increaseMaterialCapacity(ironType, 2000));
+        assertThrows(IllegalStateException.class, () -> warehouse.putMaterialTo(other, ironType, 100));
+        assertThrows(IllegalStateException.class, space::commit);
+        assertThrows(IllegalStateException.class,
+                () -> WarehouseTransaction.run(transaction -> transaction.transfer(warehouse, other, ironType, 100)));
+        assertEquals(500, warehouse.getMaterialQuantity(ironType));
+        assertEquals(500, warehouse.getMaterialAvailableSpace(ironType));
+        assertEquals(1000, warehouse.getMaterial(ironType).getCapacity());
+        assertEquals(0, other.getMaterialQuantity(ironType));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}